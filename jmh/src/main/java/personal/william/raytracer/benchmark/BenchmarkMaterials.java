@@ -0,0 +1,24 @@
+package personal.william.raytracer.benchmark;
+
+import personal.william.raytracer.Material;
+
+final class BenchmarkMaterials {
+
+    private BenchmarkMaterials() {
+    }
+
+    static Material of(String name) {
+        switch (name) {
+            case "matte":
+                return BenchmarkScenes.RED_RUBBER;
+            case "mirror":
+                return BenchmarkScenes.MIRROR;
+            case "glass":
+                return BenchmarkScenes.GLASS;
+            case "mixed":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown material: " + name);
+        }
+    }
+}
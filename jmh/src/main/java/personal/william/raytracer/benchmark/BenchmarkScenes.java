@@ -0,0 +1,100 @@
+package personal.william.raytracer.benchmark;
+
+import personal.william.raytracer.Camera;
+import personal.william.raytracer.GridPatternParallelogramPlane;
+import personal.william.raytracer.Light;
+import personal.william.raytracer.Material;
+import personal.william.raytracer.ParallelogramPlanePositioning;
+import personal.william.raytracer.Scene3d;
+import personal.william.raytracer.Sphere;
+import personal.william.raytracer.UnitVector3d;
+import personal.william.raytracer.Vector3d;
+import personal.william.raytracer.Vector3dSpaceScene;
+
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * The scenes shared by the benchmarks, all of them are built from fixed seeds so the runs stay comparable.
+ */
+public final class BenchmarkScenes {
+
+    public static final Material IVORY = new Material(0.3, 0.6, new Color(0.4f, 0.4f, 0.3f), 0.1, 50, 1, 0);
+    public static final Material RED_RUBBER = new Material(0.1, 0.9, new Color(0.3f, 0.1f, 0.1f), 0, 10, 1, 0);
+    public static final Material MIRROR = new Material(10, 0, new Color(1.0f, 1.0f, 1.0f), 0.8, 1425, 1, 0);
+    public static final Material GLASS = new Material(0.5, 0, new Color(0.6f, 0.7f, 0.8f), 0.1, 125, 1.5, 0.8);
+    public static final Material SOLID_WHITE = new Material(0.4, 0.6, Color.WHITE, 0, 80, 1, 0);
+    public static final Material SOLID_ORANGE = new Material(0.4, 0.6, Color.ORANGE, 0, 80, 1, 0);
+
+    private static final Material[] RANDOM_MATERIALS = {IVORY, RED_RUBBER, MIRROR, GLASS, SOLID_WHITE};
+
+    private BenchmarkScenes() {
+    }
+
+    /**
+     * The scene of {@code RayTracer}.
+     */
+    public static Vector3dSpaceScene demoScene() {
+        Vector3dSpaceScene scene = new Scene3d();
+        scene.setBackgroundColor(new Color(0.2f, 0.7f, 0.8f));
+
+        scene.putLight(new Light(1.5), Vector3d.of(-20, 20, 20));
+        scene.putLight(new Light(1.8), Vector3d.of(30, 50, -25));
+        scene.putLight(new Light(1.7), Vector3d.of(30, 20, 30));
+
+        scene.putObject(new Sphere(IVORY, 2), new Sphere.Positioning(-3, 0, -16), "Ivory Sphere");
+        scene.putObject(new Sphere(GLASS, 2), new Sphere.Positioning(-1f, -1.5f, -12f), "Glass Sphere");
+        scene.putObject(new Sphere(RED_RUBBER, 3), new Sphere.Positioning(1.5, -0.5, -18), "Red Sphere");
+        scene.putObject(new Sphere(MIRROR, 4), new Sphere.Positioning(7, 5, -18), "Mirror Sphere");
+        scene.putObject(floor(), floorPositioning(), "Floor");
+        return scene;
+    }
+
+    /**
+     * A floor with the given number of random spheres above it.
+     *
+     * @param material of all of the spheres, or null for each of them to be of a material picked at random
+     */
+    public static Vector3dSpaceScene randomSpheres(int sphereCount, int lightCount, Material material, long seed) {
+        Random random = new Random(seed);
+        Vector3dSpaceScene scene = new Scene3d();
+        scene.setBackgroundColor(new Color(0.2f, 0.7f, 0.8f));
+
+        for (int i = 0; i < lightCount; ++i) {
+            scene.putLight(
+                    new Light(0.5 + random.nextDouble()),
+                    Vector3d.of(
+                            (random.nextDouble() * 100) - 50,
+                            20 + (random.nextDouble() * 40),
+                            (random.nextDouble() * 80) - 40));
+        }
+        for (int i = 0; i < sphereCount; ++i) {
+            Material sphereMaterial =
+                    material != null ? material : RANDOM_MATERIALS[random.nextInt(RANDOM_MATERIALS.length)];
+            scene.putObject(
+                    new Sphere(sphereMaterial, 0.1 + (random.nextDouble() * 0.6)),
+                    new Sphere.Positioning(
+                            (random.nextDouble() * 30) - 15,
+                            (random.nextDouble() * 12) - 4,
+                            -8 - (random.nextDouble() * 30)));
+        }
+        scene.putObject(floor(), floorPositioning(), "Floor");
+        return scene;
+    }
+
+    public static Camera defaultCamera(Vector3dSpaceScene scene) {
+        return scene.setupCamera(
+                Vector3d.of(0, 0, 0), UnitVector3d.normalize(0, 0, -1), UnitVector3d.normalize(0, -1, 0), Math.PI / 2);
+    }
+
+    public static GridPatternParallelogramPlane floor() {
+        Material[][] alternatingGrid = new Material[][]{{SOLID_WHITE, SOLID_ORANGE}, {SOLID_ORANGE, SOLID_WHITE}};
+        GridPatternParallelogramPlane.Pattern pattern =
+                new GridPatternParallelogramPlane.Pattern(2, 2, alternatingGrid);
+        return new GridPatternParallelogramPlane(20, 20, pattern);
+    }
+
+    public static ParallelogramPlanePositioning floorPositioning() {
+        return new ParallelogramPlanePositioning(Vector3d.of(-10, -4, -26), UnitVector3d.X, UnitVector3d.Z);
+    }
+}
@@ -0,0 +1,79 @@
+package personal.william.raytracer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import personal.william.raytracer.Camera;
+import personal.william.raytracer.TileOrder;
+import personal.william.raytracer.TileScheduler;
+
+import java.awt.Image;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end-to-end frame time against the resolution, the number of objects, the number of rendering threads, the
+ * tile size and the ray packet size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+
+    @Param({"320x240", "1024x768", "1920x1080"})
+    private String resolution;
+
+    @Param({"5", "500", "50000"})
+    private int objectCount;
+
+    @Param({"1", "2", "4", "8"})
+    private int threads;
+
+    @Param({"32"})
+    private int tileSize;
+
+    @Param({"1", "4"})
+    private int packetSize;
+
+    private Camera camera;
+    private ForkJoinPool pool;
+    private TileScheduler scheduler;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        camera = BenchmarkScenes.defaultCamera(
+                objectCount == 5
+                        ? BenchmarkScenes.demoScene()
+                        : BenchmarkScenes.randomSpheres(objectCount, 3, null, 13))
+                .withRayPackets(packetSize);
+        pool = new ForkJoinPool(threads);
+        scheduler = new TileScheduler(tileSize, TileOrder.HILBERT, pool, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Image render() {
+        return camera.renderAsImage(width, height, scheduler);
+    }
+}
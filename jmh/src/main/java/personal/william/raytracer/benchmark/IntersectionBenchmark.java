@@ -0,0 +1,98 @@
+package personal.william.raytracer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import personal.william.raytracer.GridPatternParallelogramPlane;
+import personal.william.raytracer.HitRecord;
+import personal.william.raytracer.ParallelogramPlanePositioning;
+import personal.william.raytracer.Ray;
+import personal.william.raytracer.Sphere;
+import personal.william.raytracer.UnitVector3d;
+import personal.william.raytracer.Vector3d;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-primitive intersection throughput, both through the {@code Optional<SurfacePoint>} API and the hit record
+ * API the renderer uses. Roughly half of the rays hit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntersectionBenchmark {
+
+    private static final int RAY_COUNT = 1024;
+
+    private final Sphere sphere = new Sphere(BenchmarkScenes.IVORY, 2);
+    private final Sphere.Positioning spherePositioning = new Sphere.Positioning(0, 0, -16);
+    private final GridPatternParallelogramPlane plane = BenchmarkScenes.floor();
+    private final ParallelogramPlanePositioning planePositioning = BenchmarkScenes.floorPositioning();
+
+    private final Vector3d[] sources = new Vector3d[RAY_COUNT];
+    private final UnitVector3d[] sphereRays = new UnitVector3d[RAY_COUNT];
+    private final UnitVector3d[] planeRays = new UnitVector3d[RAY_COUNT];
+    private final Ray[] sphereRayRecords = new Ray[RAY_COUNT];
+    private final Ray[] planeRayRecords = new Ray[RAY_COUNT];
+
+    private final HitRecord hit = new HitRecord();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(7);
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            sources[i] = Vector3d.of(random.nextDouble() - 0.5, random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+            sphereRays[i] = UnitVector3d.normalize(
+                    (random.nextDouble() - 0.5) * 0.3, (random.nextDouble() - 0.5) * 0.3, -1);
+            planeRays[i] = UnitVector3d.normalize(
+                    (random.nextDouble() - 0.5) * 2, -random.nextDouble() * 0.5, -1);
+            sphereRayRecords[i] = new Ray(sources[i], sphereRays[i]);
+            planeRayRecords[i] = new Ray(sources[i], planeRays[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void sphereCast(Blackhole blackhole) {
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            blackhole.consume(sphere.cast(spherePositioning, sources[i], sphereRays[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void sphereIntersect(Blackhole blackhole) {
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            blackhole.consume(sphere.intersect(spherePositioning, sphereRayRecords[i], hit));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void planeCast(Blackhole blackhole) {
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            blackhole.consume(plane.cast(planePositioning, sources[i], planeRays[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void planeIntersect(Blackhole blackhole) {
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            blackhole.consume(plane.intersect(planePositioning, planeRayRecords[i], hit));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package personal.william.raytracer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import personal.william.raytracer.Camera;
+
+import java.awt.Image;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of shading against the number of lights, and the cost of the reflection / refraction recursion against
+ * the material the spheres are made of and the depth it is cut off at: a matte material neither reflects nor refracts,
+ * so it casts no secondary rays at any depth, the mirror and the glass ones bounce them around up to the depth. The
+ * mixed spheres are each of a material picked at random.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShadingBenchmark {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Param({"1", "4", "16", "64"})
+    private int lightCount;
+
+    @Param({"matte", "mirror", "glass", "mixed"})
+    private String material;
+
+    @Param({"0", "1", "4", "8"})
+    private int maxRayDepth;
+
+    private Camera camera;
+
+    @Setup
+    public void setup() {
+        camera = BenchmarkScenes.defaultCamera(
+                BenchmarkScenes.randomSpheres(50, lightCount, BenchmarkMaterials.of(material), 11))
+                .withMaxRayDepth(maxRayDepth);
+    }
+
+    @Benchmark
+    public Image render() {
+        return camera.renderAsImage(WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,438 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import javax.management.JMException;
+
+/**
+ * Renders scenes from the command line without any window, and writes the images straight into files.
+ * <p>
+ * The images are rendered a band of rows at a time, each band being written while the next one renders, so only two
+ * bands are ever in memory whatever the height of the images is.
+ */
+public class BatchRenderer {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchRenderer [options] <scene>...",
+            "Renders each scene into <output>/<scene name>.<format>. The scenes are either:",
+            "  demo                    the scene of RayTracer",
+            "  <file>                  a scene file, see SceneFile",
+            "Options:",
+            "  --width <pixels>        the width of the images, 1024 by default",
+            "  --height <pixels>       the height of the images, 768 by default",
+            "  --format <ppm|pfm|png>  the format of the images, png by default",
+            "  --output <directory>    where the images go, the working directory by default",
+            "  --band-height <rows>    the rows rendered at a time, 64 by default",
+            "  --tile-size <pixels>    the size of the tiles, " + TileScheduler.DEFAULT_TILE_SIZE + " by default",
+            "  --threads <count>       the rendering threads, one per processor by default",
+            "  --packet-size <1-4>     traces the rays of each square of the size together, 1 by default",
+            "  --max-ray-depth <count> the most reflections and refractions of a path, 4 by default",
+            "  --min-ray-weight <0-1>  skips the reflections and refractions counting less in a pixel, 0 by default",
+            "  --max-lights <count>    lights each hit only by the lights shining the most on it, all by default",
+            "  --samples <count>       the most samples of an edge pixel, a square up to 64, 1 by default",
+            "  --sample-threshold <0-1>",
+            "                          how different the neighbours have to be for more samples, 0.1 by default",
+            "  --precision <double|float>",
+            "                          the precision the spheres are tested in, double by default",
+            "  --statistics <off|on|heatmap>",
+            "                          prints the rays and the intersection tests of each scene, heatmap also",
+            "                          writes the tests of each pixel into <output>/<scene name>-heatmap.<format>,",
+            "                          off by default",
+            "  --geometry <plane>,...  also writes what the pixels hit into <output>/<scene name>-<plane>.pfm, the",
+            "                          planes being depth, normal, object-id and material-id, none by default",
+            "  --workers <host:port>,...",
+            "                          renders each image on the RenderWorkers, whole instead of band by band",
+            "  --scene-cache <directory|none>",
+            "                          where the scene files are cached in binary, .cache/tinyraytracerj/scenes in",
+            "                          the home directory by default",
+            "  --render-cache <directory|none>",
+            "                          where the rendered tiles are kept to be reused by the same images, none by",
+            "                          default",
+            "  --render-cache-size <megabytes>",
+            "                          the most the tiles take up in the render cache, 1024 by default");
+
+    private static final Map<String, Supplier<Camera>> SCENES = new HashMap<>();
+    // Only the scenes of the same run share the tiles in memory, the others find them in the files
+    private static final long RENDER_CACHE_MEMORY_SIZE = 64L * 1024 * 1024;
+
+    static {
+        SCENES.put("demo", () -> DemoScene.setupCamera(DemoScene.create()));
+    }
+
+    public static void main(String[] args) {
+        // Materials are still made of "java.awt.Color", which must not go looking for a display
+        System.setProperty("java.awt.headless", "true");
+
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        RenderCache renderCache;
+        try {
+            renderCache = options.renderCache != null
+                    ? new RenderCache(
+                            options.renderCache, RENDER_CACHE_MEMORY_SIZE, (options.renderCacheSize * 1024 * 1024))
+                    : null;
+        } catch (IOException ex) {
+            System.err.println("Failed to open the render cache: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+        RenderStatistics statistics = options.statistics ? new RenderStatistics(options.heatmap) : null;
+        registerStatistics(statistics);
+        try {
+            TileScheduler scheduler = new TileScheduler(options.tileSize, TileOrder.SCANLINE, pool, options.threads);
+            for (String scene : options.scenes) {
+                long startTime = System.nanoTime();
+                Camera camera = loadScene(scene, options.sceneCache)
+                        .withRayPackets(options.packetSize)
+                        .withMaxRayDepth(options.maxRayDepth)
+                        .withMinRayWeight(options.minRayWeight)
+                        .withMaxLightsPerHit(options.maxLights)
+                        .withAntiAliasing(options.samples, options.sampleThreshold)
+                        .withFloatPrecision(options.floatPrecision)
+                        .withStatistics(statistics)
+                        .withRenderCache(renderCache);
+                if (statistics != null) statistics.reset();
+                long cacheHits = renderCache != null ? renderCache.getHitCount() : 0;
+                long cacheMisses = renderCache != null ? renderCache.getMissCount() : 0;
+                String sceneName = getSceneName(scene);
+                Path file = options.output.resolve(sceneName + "." + options.format.getExtension());
+
+                try (FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ScanlineWriter writer = options.format.open(channel, options.width, options.height);
+                    if (options.workers != null) {
+                        writer.write(options.workers.render(camera, options.width, options.height));
+                        writer.finish();
+                    } else if (options.geometry.isEmpty()) {
+                        render(camera, options.bandHeight, scheduler, writer, writerExecutor);
+                    } else {
+                        try (GeometryWriter geometryWriter = new GeometryWriter(
+                                options.output, sceneName, options.width, options.height, options.geometry)) {
+                            render(camera, options.bandHeight, scheduler, writer, geometryWriter, writerExecutor);
+                        }
+                    }
+                }
+                System.out.println("Rendered " + sceneName + " into " + file + " in "
+                        + ((System.nanoTime() - startTime) / 1_000_000) + " ms.");
+                if (renderCache != null) {
+                    System.out.println("  render cache: " + (renderCache.getHitCount() - cacheHits) + " tiles reused, "
+                            + (renderCache.getMissCount() - cacheMisses) + " rendered");
+                }
+                if (statistics != null) writeStatistics(statistics, sceneName, options);
+            }
+        } catch (IOException | SceneFormatException ex) {
+            System.err.println("Failed to render: " + ex.getMessage());
+            System.exit(1);
+        } finally {
+            writerExecutor.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Renders the image of the size of the writer band by band into the writer, handing each band to the executor to
+     * be written while the next one renders.
+     */
+    public static void render(
+            Camera camera, int bandHeight, TileScheduler scheduler, ScanlineWriter writer,
+            ExecutorService writerExecutor) throws IOException {
+        render(camera, bandHeight, scheduler, writer, null, writerExecutor);
+    }
+
+    /**
+     * Like {@link #render(Camera, int, TileScheduler, ScanlineWriter, ExecutorService)}, but also writes the planes
+     * of the geometry writer, which has the size of the image writer, filled by the same ray casts as the colors.
+     *
+     * @param geometryWriter {@code null} to write the colors only
+     */
+    public static void render(
+            Camera camera, int bandHeight, TileScheduler scheduler, ScanlineWriter writer,
+            GeometryWriter geometryWriter, ExecutorService writerExecutor) throws IOException {
+        Objects.requireNonNull(camera, "camera cannot be null.");
+        Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+        Objects.requireNonNull(writer, "writer cannot be null.");
+        Objects.requireNonNull(writerExecutor, "writerExecutor cannot be null.");
+        if (bandHeight <= 0) throw new IllegalArgumentException("bandHeight must be positive.");
+        if (geometryWriter != null && (geometryWriter.getWidth() != writer.getWidth()
+                || geometryWriter.getHeight() != writer.getHeight())) {
+            throw new IllegalArgumentException("The geometry is not of the size of the image.");
+        }
+
+        int width = writer.getWidth();
+        int height = writer.getHeight();
+        Future<?> pendingWrite = null;
+        for (int y = 0; y < height; y += bandHeight) {
+            Tile region = new Tile(0, y, width, Math.min(bandHeight, (height - y)));
+            GeometryBuffer geometry = geometryWriter != null
+                    ? new GeometryBuffer(region.getWidth(), region.getHeight(), geometryWriter.getPlanes())
+                    : null;
+            FrameBuffer band = geometry != null
+                    ? camera.render(width, height, region, scheduler, geometry)
+                    : camera.render(width, height, region, scheduler);
+            PendingWrites.await(pendingWrite);
+            pendingWrite = writerExecutor.submit(() -> {
+                writer.write(band);
+                if (geometry != null) geometryWriter.write(geometry);
+                return null;
+            });
+        }
+        PendingWrites.await(pendingWrite);
+        writer.finish();
+        if (geometryWriter != null) geometryWriter.finish();
+    }
+
+    private static void registerStatistics(RenderStatistics statistics) {
+        if (statistics == null) return;
+
+        try {
+            statistics.registerMBean("BatchRenderer");
+        } catch (JMException ex) {
+            // The statistics are still printed
+            System.err.println("Failed to register the statistics over JMX: " + ex.getMessage());
+        }
+    }
+
+    private static void writeStatistics(
+            RenderStatistics statistics, String sceneName, Options options) throws IOException {
+        // The workers count on their own, and never send their counts back
+        if (options.workers != null) return;
+
+        System.out.println("  rays: " + statistics.getPrimaryRays() + " primary, "
+                + statistics.getShadowRays() + " shadow, " + statistics.getReflectionRays() + " reflection, "
+                + statistics.getRefractionRays() + " refraction, " + statistics.getHits() + " hits");
+        System.out.println("  intersection tests: " + statistics.getIntersectionTests() + " "
+                + statistics.getIntersectionTestsByType());
+        System.out.println("  max ray depth: " + statistics.getMaxRayDepth() + ", tiles: "
+                + statistics.getTileCount() + " in " + (statistics.getTotalTileNanos() / 1_000_000) + " ms of threads, "
+                + "the slowest in " + (statistics.getMaxTileNanos() / 1_000_000) + " ms");
+
+        Optional<FrameBuffer> heatmap = statistics.getHeatmap();
+        if (! heatmap.isPresent()) return;
+
+        Path file = options.output.resolve(sceneName + "-heatmap." + options.format.getExtension());
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ScanlineWriter writer = options.format.open(channel, options.width, options.height);
+            writer.write(heatmap.get());
+            writer.finish();
+        }
+        System.out.println("  heatmap: " + file);
+    }
+
+    private static Camera loadScene(String scene, Path sceneCache) throws IOException {
+        Supplier<Camera> builtInScene = SCENES.get(scene);
+        if (builtInScene != null) return builtInScene.get();
+
+        Path file = Paths.get(scene);
+        return sceneCache != null ? SceneFile.load(file, sceneCache) : SceneFile.load(file);
+    }
+
+    private static String getSceneName(String scene) {
+        if (SCENES.containsKey(scene)) return scene;
+
+        String fileName = Paths.get(scene).getFileName().toString();
+        int extensionStart = fileName.lastIndexOf('.');
+        return extensionStart > 0 ? fileName.substring(0, extensionStart) : fileName;
+    }
+
+    private static class Options {
+
+        private int width = 1024;
+        private int height = 768;
+        private ImageFormat format = ImageFormat.PNG;
+        private Path output = Paths.get(".");
+        private int bandHeight = 64;
+        private int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int packetSize = 1;
+        private int maxRayDepth = 4;
+        private double minRayWeight = 0;
+        private int maxLights = Integer.MAX_VALUE;
+        private int samples = 1;
+        private double sampleThreshold = 0.1;
+        private boolean floatPrecision;
+        private boolean statistics;
+        private boolean heatmap;
+        private final Set<GeometryBuffer.Plane> geometry = EnumSet.noneOf(GeometryBuffer.Plane.class);
+        private RenderCoordinator workers;
+        // Of the user alone, as the cached scenes are read back without being checked like the text
+        private Path sceneCache = Paths.get(System.getProperty("user.home"), ".cache", "tinyraytracerj", "scenes");
+        private Path renderCache;
+        private long renderCacheSize = 1024;
+        private final List<String> scenes = new ArrayList<>();
+
+        private static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; ++i) {
+                String arg = args[i];
+                if (! arg.startsWith("--")) {
+                    if (! SCENES.containsKey(arg) && ! Files.isRegularFile(Paths.get(arg))) {
+                        throw new IllegalArgumentException("Unknown scene: " + arg + ".");
+                    }
+                    options.scenes.add(arg);
+                    continue;
+                }
+                if (i == (args.length - 1)) throw new IllegalArgumentException("Missing the value of " + arg + ".");
+
+                String value = args[++i];
+                switch (arg) {
+                    case "--width":
+                        options.width = parsePositive(arg, value);
+                        break;
+                    case "--height":
+                        options.height = parsePositive(arg, value);
+                        break;
+                    case "--format":
+                        options.format = ImageFormat.ofExtension(value);
+                        break;
+                    case "--output":
+                        options.output = Paths.get(value);
+                        if (! Files.isDirectory(options.output)) {
+                            throw new IllegalArgumentException("Not a directory: " + value + ".");
+                        }
+                        break;
+                    case "--band-height":
+                        options.bandHeight = parsePositive(arg, value);
+                        break;
+                    case "--tile-size":
+                        options.tileSize = parsePositive(arg, value);
+                        break;
+                    case "--threads":
+                        options.threads = parsePositive(arg, value);
+                        break;
+                    case "--packet-size":
+                        options.packetSize = parsePositive(arg, value);
+                        if (options.packetSize > 4) {
+                            throw new IllegalArgumentException(arg + " must be at most 4: " + value + ".");
+                        }
+                        break;
+                    case "--max-ray-depth":
+                        options.maxRayDepth = parseInt(arg, value);
+                        if (options.maxRayDepth < 0) {
+                            throw new IllegalArgumentException(arg + " cannot be negative: " + value + ".");
+                        }
+                        break;
+                    case "--min-ray-weight":
+                        options.minRayWeight = parseFraction(arg, value);
+                        break;
+                    case "--max-lights":
+                        options.maxLights = parsePositive(arg, value);
+                        break;
+                    case "--samples":
+                        options.samples = parsePositive(arg, value);
+                        int gridSize = (int) Math.round(Math.sqrt(options.samples));
+                        if (options.samples > 64 || (gridSize * gridSize) != options.samples) {
+                            throw new IllegalArgumentException(arg + " must be a square up to 64: " + value + ".");
+                        }
+                        break;
+                    case "--sample-threshold":
+                        options.sampleThreshold = parseFraction(arg, value);
+                        break;
+                    case "--precision":
+                        if (! "double".equals(value) && ! "float".equals(value)) {
+                            throw new IllegalArgumentException(arg + " must be double or float: " + value + ".");
+                        }
+                        options.floatPrecision = "float".equals(value);
+                        break;
+                    case "--statistics":
+                        if (! "off".equals(value) && ! "on".equals(value) && ! "heatmap".equals(value)) {
+                            throw new IllegalArgumentException(arg + " must be off, on or heatmap: " + value + ".");
+                        }
+                        options.statistics = ! "off".equals(value);
+                        options.heatmap = "heatmap".equals(value);
+                        break;
+                    case "--geometry":
+                        for (String plane : value.split(",")) options.geometry.add(GeometryBuffer.Plane.ofName(plane));
+                        break;
+                    case "--workers":
+                        options.workers = new RenderCoordinator(parseAddresses(arg, value));
+                        break;
+                    case "--scene-cache":
+                        options.sceneCache = "none".equals(value) ? null : Paths.get(value);
+                        break;
+                    case "--render-cache":
+                        options.renderCache = "none".equals(value) ? null : Paths.get(value);
+                        break;
+                    case "--render-cache-size":
+                        options.renderCacheSize = parsePositive(arg, value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg + ".");
+                }
+            }
+            if (options.scenes.isEmpty()) throw new IllegalArgumentException("No scene to render.");
+            if (options.workers != null && ! options.geometry.isEmpty()) {
+                throw new IllegalArgumentException("--geometry cannot be written by the workers.");
+            }
+            return options;
+        }
+
+        private static List<InetSocketAddress> parseAddresses(String option, String value) {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (String address : value.split(",")) {
+                int portStart = address.lastIndexOf(':');
+                if (portStart <= 0) throw new IllegalArgumentException(option + " must be host:port: " + address + ".");
+                int port = parsePositive(option, address.substring(portStart + 1));
+                if (port > 65535) throw new IllegalArgumentException(option + " has a bad port: " + address + ".");
+                addresses.add(new InetSocketAddress(address.substring(0, portStart), port));
+            }
+            return addresses;
+        }
+
+        private static double parseFraction(String option, String value) {
+            double number;
+            try {
+                number = Double.parseDouble(value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(option + " must be a number: " + value + ".");
+            }
+            if (! (number >= 0 && number <= 1)) {
+                throw new IllegalArgumentException(option + " must be between 0 and 1: " + value + ".");
+            }
+            return number;
+        }
+
+        private static int parsePositive(String option, String value) {
+            int number = parseInt(option, value);
+            if (number <= 0) throw new IllegalArgumentException(option + " must be positive: " + value + ".");
+            return number;
+        }
+
+        private static int parseInt(String option, String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(option + " must be a number: " + value + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package personal.william.raytracer;
+
+import java.util.Objects;
+
+public class BoundingBox {
+
+    private final Vector3d min;
+    private final Vector3d max;
+
+    public BoundingBox(Vector3d min, Vector3d max) {
+        Objects.requireNonNull(min, "min cannot be null.");
+        Objects.requireNonNull(max, "max cannot be null.");
+
+        if (min.getX() > max.getX() || min.getY() > max.getY() || min.getZ() > max.getZ()) {
+            throw new IllegalArgumentException("min " + min + " is not below max " + max + ".");
+        }
+        this.min = min;
+        this.max = max;
+    }
+
+    public static BoundingBox of(Vector3d... points) {
+        Objects.requireNonNull(points, "points cannot be null.");
+        if (points.length == 0) throw new IllegalArgumentException("points cannot be empty.");
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+        for (Vector3d point : points) {
+            minX = Math.min(minX, point.getX());
+            minY = Math.min(minY, point.getY());
+            minZ = Math.min(minZ, point.getZ());
+            maxX = Math.max(maxX, point.getX());
+            maxY = Math.max(maxY, point.getY());
+            maxZ = Math.max(maxZ, point.getZ());
+        }
+        return new BoundingBox(Vector3d.of(minX, minY, minZ), Vector3d.of(maxX, maxY, maxZ));
+    }
+
+    @Override
+    public String toString() {
+        return "BoundingBox{" +
+                "min=" + min +
+                ", max=" + max +
+                '}';
+    }
+
+    public Vector3d getMin() {
+        return min;
+    }
+
+    public Vector3d getMax() {
+        return max;
+    }
+
+    public BoundingBox union(BoundingBox box) {
+        Objects.requireNonNull(box, "box cannot be null.");
+
+        return new BoundingBox(
+                Vector3d.of(
+                        Math.min(min.getX(), box.min.getX()),
+                        Math.min(min.getY(), box.min.getY()),
+                        Math.min(min.getZ(), box.min.getZ())),
+                Vector3d.of(
+                        Math.max(max.getX(), box.max.getX()),
+                        Math.max(max.getY(), box.max.getY()),
+                        Math.max(max.getZ(), box.max.getZ())));
+    }
+
+    public BoundingBox expand(double margin) {
+        if (margin < 0) throw new IllegalArgumentException("margin cannot be negative.");
+        if (margin == 0) return this;
+
+        return new BoundingBox(
+                Vector3d.of(min.getX() - margin, min.getY() - margin, min.getZ() - margin),
+                Vector3d.of(max.getX() + margin, max.getY() + margin, max.getZ() + margin));
+    }
+}
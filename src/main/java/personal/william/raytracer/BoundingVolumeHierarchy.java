@@ -0,0 +1,880 @@
+package personal.william.raytracer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A bounding volume hierarchy built with binned SAH (surface area heuristic) splits. The nodes are kept in flat arrays,
+ * the children of an interior node are always stored next to each other. The bounds of the nodes, and the items with
+ * their bounds, are split into pages of a fixed size, so that a refit copies only the pages it changes.
+ */
+public class BoundingVolumeHierarchy<T> {
+
+    private static final int BIN_COUNT = 16;
+    public static final int DEFAULT_MAX_LEAF_SIZE = 4;
+    // The cost of visiting a node relative to the cost of one item intersection
+    public static final double DEFAULT_TRAVERSAL_COST = 1;
+    // The nodes or the items in a page, a power of 2
+    private static final int PAGE_SHIFT = 7;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Null for a removed item, the items and the arrays only used by the refits are all null if they are packed
+    // elsewhere
+    private final Object[][] itemPages;
+    private final int itemCount;
+    // minX, minY, minZ, maxX, maxY, maxZ for each item
+    private final double[][] itemBoundPages;
+    private final int[] itemLeaves;
+
+    // minX, minY, minZ, maxX, maxY, maxZ for each node
+    private final double[][] nodeBoundPages;
+    // The first item of a leaf, or the left child of an interior node
+    private final int[] nodeOffsets;
+    // The number of items of a leaf, 0 for an interior node
+    private final int[] nodeItemCounts;
+    // -1 for the root
+    private final int[] nodeParents;
+    private final int nodeCount;
+    private final int depth;
+
+    private BoundingVolumeHierarchy(
+            Object[][] itemPages, int itemCount, double[][] itemBoundPages, int[] itemLeaves,
+            double[][] nodeBoundPages, int[] nodeOffsets, int[] nodeItemCounts, int[] nodeParents, int nodeCount,
+            int depth) {
+        this.itemPages = itemPages;
+        this.itemCount = itemCount;
+        this.itemBoundPages = itemBoundPages;
+        this.itemLeaves = itemLeaves;
+        this.nodeBoundPages = nodeBoundPages;
+        this.nodeOffsets = nodeOffsets;
+        this.nodeItemCounts = nodeItemCounts;
+        this.nodeParents = nodeParents;
+        this.nodeCount = nodeCount;
+        this.depth = depth;
+    }
+
+    public static <T> BoundingVolumeHierarchy<T> build(
+            Collection<? extends T> items, Function<? super T, BoundingBox> boundsFunction) {
+        return build(items, boundsFunction, DEFAULT_MAX_LEAF_SIZE, DEFAULT_TRAVERSAL_COST);
+    }
+
+    /**
+     * @param maxLeafSize the most items a leaf may hold
+     * @param traversalCost the cost of visiting a node relative to the cost of one item intersection, the cheaper the
+     * items are the more of them go into a leaf
+     */
+    public static <T> BoundingVolumeHierarchy<T> build(
+            Collection<? extends T> items, Function<? super T, BoundingBox> boundsFunction,
+            int maxLeafSize, double traversalCost) {
+        Objects.requireNonNull(items, "items cannot be null.");
+        Objects.requireNonNull(boundsFunction, "boundsFunction cannot be null.");
+        if (maxLeafSize <= 0) throw new IllegalArgumentException("maxLeafSize must be positive.");
+        if (traversalCost < 0) throw new IllegalArgumentException("traversalCost cannot be negative.");
+
+        List<T> itemList = new ArrayList<>(items);
+        double[] itemBounds = new double[itemList.size() * 6];
+        for (int i = 0; i < itemList.size(); ++i) {
+            BoundingBox box = Objects.requireNonNull(boundsFunction.apply(itemList.get(i)), "bounds cannot be null.");
+            itemBounds[(i * 6)] = box.getMin().getX();
+            itemBounds[(i * 6) + 1] = box.getMin().getY();
+            itemBounds[(i * 6) + 2] = box.getMin().getZ();
+            itemBounds[(i * 6) + 3] = box.getMax().getX();
+            itemBounds[(i * 6) + 4] = box.getMax().getY();
+            itemBounds[(i * 6) + 5] = box.getMax().getZ();
+        }
+        return new Builder(itemList.toArray(), itemBounds, new int[itemList.size()], maxLeafSize, traversalCost)
+                .build();
+    }
+
+    /**
+     * Builds the hierarchy of the items packed elsewhere, e.g. into primitive arrays, given only by their bounds. Only
+     * the nodes are kept, so the hierarchy can only be traversed by the range intersectors, and cannot be refitted.
+     *
+     * @param itemBounds minX, minY, minZ, maxX, maxY, maxZ for each item, left in the order of the hierarchy
+     * @param order takes the index each item has had in the bounds at its index in the hierarchy, the order the
+     * items are to be packed in
+     */
+    public static BoundingVolumeHierarchy<Void> buildPacked(
+            double[] itemBounds, int[] order, int maxLeafSize, double traversalCost) {
+        Objects.requireNonNull(itemBounds, "itemBounds cannot be null.");
+        Objects.requireNonNull(order, "order cannot be null.");
+        if ((itemBounds.length % 6) != 0) throw new IllegalArgumentException("itemBounds must be 6 per item.");
+        if (order.length != (itemBounds.length / 6)) throw new IllegalArgumentException("order must be 1 per item.");
+        if (maxLeafSize <= 0) throw new IllegalArgumentException("maxLeafSize must be positive.");
+        if (traversalCost < 0) throw new IllegalArgumentException("traversalCost cannot be negative.");
+
+        return new Builder(null, itemBounds, order, maxLeafSize, traversalCost).build();
+    }
+
+    /**
+     * Replaces the items at the indices without building the hierarchy again, only the bounds of their leaves and of
+     * the ancestors of those are fitted to the new bounds. The nodes keep their shape, so the further the items move
+     * the looser the nodes get, and the hierarchy is better built again once much of it has changed.
+     * <p>
+     * This hierarchy is left as it is, the returned one shares the nodes with it, and copies only the pages of the
+     * items and of the bounds which change: those of the items, of their leaves and of the ancestors of the leaves. So
+     * a refit takes time in the number of the items replaced, and in the depth, rather than in all of the items.
+     *
+     * @param items the new items by their indices of {@link #getItem}, a null item removes the one at the index, which
+     * keeps its bounds in the nodes until the hierarchy is built again
+     */
+    public BoundingVolumeHierarchy<T> refit(
+            Map<Integer, ? extends T> items, Function<? super T, BoundingBox> boundsFunction) {
+        Objects.requireNonNull(items, "items cannot be null.");
+        Objects.requireNonNull(boundsFunction, "boundsFunction cannot be null.");
+        checkItemsKept();
+
+        Object[][] newItemPages = itemPages.clone();
+        double[][] newItemBoundPages = itemBoundPages.clone();
+        double[][] newNodeBoundPages = nodeBoundPages.clone();
+        for (Map.Entry<Integer, ? extends T> entry : items.entrySet()) {
+            int index = Objects.requireNonNull(entry.getKey(), "index cannot be null.");
+            if (index < 0 || index >= itemCount) {
+                throw new IllegalArgumentException("No item at the index: " + index + ".");
+            }
+
+            T item = entry.getValue();
+            writablePage(newItemPages, itemPages, index)[index & PAGE_MASK] = item;
+            if (item == null) continue;
+
+            BoundingBox box = Objects.requireNonNull(boundsFunction.apply(item), "bounds cannot be null.");
+            double[] bounds = writablePage(newItemBoundPages, itemBoundPages, index);
+            int b = (index & PAGE_MASK) * 6;
+            bounds[b] = box.getMin().getX();
+            bounds[b + 1] = box.getMin().getY();
+            bounds[b + 2] = box.getMin().getZ();
+            bounds[b + 3] = box.getMax().getX();
+            bounds[b + 4] = box.getMax().getY();
+            bounds[b + 5] = box.getMax().getZ();
+        }
+        for (int index : items.keySet()) {
+            int leaf = itemLeaves[index];
+            int offset = nodeOffsets[leaf];
+            double[] leafBounds = writablePage(newNodeBoundPages, nodeBoundPages, leaf);
+            Builder.resetBounds(leafBounds, (leaf & PAGE_MASK) * 6);
+            for (int i = offset; i < (offset + nodeItemCounts[leaf]); ++i) {
+                Builder.includeBounds(
+                        leafBounds, (leaf & PAGE_MASK) * 6, newItemBoundPages[i >>> PAGE_SHIFT], (i & PAGE_MASK) * 6);
+            }
+            for (int node = nodeParents[leaf]; node >= 0; node = nodeParents[node]) {
+                double[] bounds = writablePage(newNodeBoundPages, nodeBoundPages, node);
+                Builder.resetBounds(bounds, (node & PAGE_MASK) * 6);
+                for (int child = nodeOffsets[node]; child <= (nodeOffsets[node] + 1); ++child) {
+                    Builder.includeBounds(
+                            bounds, (node & PAGE_MASK) * 6,
+                            newNodeBoundPages[child >>> PAGE_SHIFT], (child & PAGE_MASK) * 6);
+                }
+            }
+        }
+        return new BoundingVolumeHierarchy<>(
+                newItemPages, itemCount, newItemBoundPages, itemLeaves,
+                newNodeBoundPages, nodeOffsets, nodeItemCounts, nodeParents, nodeCount, depth);
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Takes up, in bytes, besides the headers of the arrays and the items themselves.
+     */
+    public long getMemorySize() {
+        long size = ((long) nodeCount * 6 * 8) + ((long) nodeOffsets.length * 4) + ((long) nodeItemCounts.length * 4);
+        if (itemPages != null) {
+            size += ((long) itemCount * 4) + ((long) itemCount * 6 * 8) + ((long) itemLeaves.length * 4)
+                    + ((long) nodeParents.length * 4);
+        }
+        return size;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the item at the index in the order of the hierarchy, where the items of each leaf are next to each other,
+     * or null if it has been removed by {@link #refit}
+     */
+    @SuppressWarnings("unchecked")
+    public T getItem(int index) {
+        checkItemsKept();
+
+        return (T) itemPages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    /**
+     * Visits the items whose bounds are hit by the ray within the distance, the nearer ones first. The distance is
+     * shortened by every hit the intersector reports.
+     *
+     * @return the shortest hit distance, or {@code maxDistance} if nothing has been hit
+     */
+    public double traverseClosest(Ray ray, double maxDistance, ItemIntersector<? super T> intersector) {
+        return traverseClosest(ray, maxDistance, intersector, new TraversalStack());
+    }
+
+    public double traverseClosest(
+            Ray ray, double maxDistance, ItemIntersector<? super T> intersector, TraversalStack traversalStack) {
+        Objects.requireNonNull(intersector, "intersector cannot be null.");
+        checkItemsKept();
+
+        return traverseClosest(ray, maxDistance, intersector, null, traversalStack);
+    }
+
+    /**
+     * Like {@link #traverseClosest(Ray, double, ItemIntersector, TraversalStack)}, but hands the items of each leaf
+     * over at once, as a range of the indices of {@link #getItem}.
+     */
+    public double traverseClosest(
+            Ray ray, double maxDistance, RangeIntersector intersector, TraversalStack traversalStack) {
+        Objects.requireNonNull(intersector, "intersector cannot be null.");
+
+        return traverseClosest(ray, maxDistance, null, intersector, traversalStack);
+    }
+
+    private double traverseClosest(
+            Ray ray, double maxDistance,
+            ItemIntersector<? super T> itemIntersector, RangeIntersector rangeIntersector,
+            TraversalStack traversalStack) {
+        Objects.requireNonNull(ray, "ray cannot be null.");
+        Objects.requireNonNull(traversalStack, "traversalStack cannot be null.");
+        if (nodeCount == 0) return maxDistance;
+
+        double closest = maxDistance;
+        if (enter(0, ray, closest) == Double.POSITIVE_INFINITY) return closest;
+
+        traversalStack.ensureCapacity(depth + 1);
+        int[] stack = traversalStack.nodes;
+        double[] stackDistances = traversalStack.distances;
+        int stackSize = 0;
+        int node = 0;
+        while (true) {
+            int itemCount = nodeItemCounts[node];
+            if (itemCount > 0) {
+                int offset = nodeOffsets[node];
+                if (rangeIntersector != null) {
+                    double dist = rangeIntersector.intersect(offset, (offset + itemCount));
+                    if (dist < closest) closest = dist;
+                } else {
+                    for (int i = offset; i < (offset + itemCount); ++i) {
+                        @SuppressWarnings("unchecked")
+                        T item = (T) itemPages[i >>> PAGE_SHIFT][i & PAGE_MASK];
+                        if (item == null) continue;
+
+                        double dist = itemIntersector.intersect(item);
+                        if (dist < closest) closest = dist;
+                    }
+                }
+            } else {
+                int left = nodeOffsets[node];
+                int right = left + 1;
+                double leftDist = enter(left, ray, closest);
+                double rightDist = enter(right, ray, closest);
+                if (leftDist != Double.POSITIVE_INFINITY && rightDist != Double.POSITIVE_INFINITY) {
+                    boolean leftFirst = leftDist <= rightDist;
+                    stack[stackSize] = leftFirst ? right : left;
+                    stackDistances[stackSize] = leftFirst ? rightDist : leftDist;
+                    ++stackSize;
+                    node = leftFirst ? left : right;
+                    continue;
+                } else if (leftDist != Double.POSITIVE_INFINITY) {
+                    node = left;
+                    continue;
+                } else if (rightDist != Double.POSITIVE_INFINITY) {
+                    node = right;
+                    continue;
+                }
+            }
+
+            // Pops the next node which is still nearer than the closest hit
+            node = -1;
+            while (stackSize > 0) {
+                --stackSize;
+                if (stackDistances[stackSize] <= closest) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node < 0) return closest;
+        }
+    }
+
+    /**
+     * Visits the items whose bounds are hit by the ray within the distance, in no particular order, until the
+     * intersector reports any hit within the distance.
+     *
+     * @return whether anything has been hit within the distance
+     */
+    public boolean traverseAny(Ray ray, double maxDistance, ItemIntersector<? super T> intersector) {
+        return traverseAny(ray, maxDistance, intersector, new TraversalStack());
+    }
+
+    public boolean traverseAny(
+            Ray ray, double maxDistance, ItemIntersector<? super T> intersector, TraversalStack traversalStack) {
+        Objects.requireNonNull(intersector, "intersector cannot be null.");
+        checkItemsKept();
+
+        return traverseAny(ray, maxDistance, intersector, null, traversalStack);
+    }
+
+    /**
+     * Like {@link #traverseAny(Ray, double, ItemIntersector, TraversalStack)}, but hands the items of each leaf over
+     * at once, as a range of the indices of {@link #getItem}.
+     */
+    public boolean traverseAny(
+            Ray ray, double maxDistance, RangeIntersector intersector, TraversalStack traversalStack) {
+        Objects.requireNonNull(intersector, "intersector cannot be null.");
+
+        return traverseAny(ray, maxDistance, null, intersector, traversalStack);
+    }
+
+    private boolean traverseAny(
+            Ray ray, double maxDistance,
+            ItemIntersector<? super T> itemIntersector, RangeIntersector rangeIntersector,
+            TraversalStack traversalStack) {
+        Objects.requireNonNull(ray, "ray cannot be null.");
+        Objects.requireNonNull(traversalStack, "traversalStack cannot be null.");
+        if (nodeCount == 0) return false;
+
+        traversalStack.ensureCapacity(depth + 1);
+        int[] stack = traversalStack.nodes;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (enter(node, ray, maxDistance) == Double.POSITIVE_INFINITY) continue;
+
+            int itemCount = nodeItemCounts[node];
+            if (itemCount > 0) {
+                int offset = nodeOffsets[node];
+                if (rangeIntersector != null) {
+                    if (rangeIntersector.intersect(offset, (offset + itemCount)) < maxDistance) return true;
+                    continue;
+                }
+                for (int i = offset; i < (offset + itemCount); ++i) {
+                    @SuppressWarnings("unchecked")
+                    T item = (T) itemPages[i >>> PAGE_SHIFT][i & PAGE_MASK];
+                    if (item != null && itemIntersector.intersect(item) < maxDistance) return true;
+                }
+            } else {
+                stack[stackSize++] = nodeOffsets[node] + 1;
+                stack[stackSize++] = nodeOffsets[node];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Traces the active rays of the packet together, each ray visits the same items as it would have alone, possibly
+     * with more, and in a different order. The distance of each ray is shortened by every hit the intersector reports
+     * for it, so it ends up as the shortest hit distance.
+     * <p>
+     * The nodes are tested against the frustum of the packet first, which skips them for all of the rays at once.
+     */
+    public void traverseClosest(RayPacket packet, PacketIntersector intersector, TraversalStack traversalStack) {
+        Objects.requireNonNull(packet, "packet cannot be null.");
+        Objects.requireNonNull(intersector, "intersector cannot be null.");
+        Objects.requireNonNull(traversalStack, "traversalStack cannot be null.");
+        if (nodeCount == 0 || packet.getActiveMask() == 0) return;
+
+        packet.updateFrustum();
+        if (enterFrustum(0, packet) == Double.POSITIVE_INFINITY) return;
+
+        // Both children of every node on the way down may be waiting
+        traversalStack.ensureCapacity(2 * (depth + 1));
+        int[] stack = traversalStack.nodes;
+        int[] stackMasks = traversalStack.masks;
+        int stackSize = 0;
+        stack[stackSize] = 0;
+        stackMasks[stackSize] = packet.getActiveMask();
+        ++stackSize;
+        while (stackSize > 0) {
+            --stackSize;
+            int node = stack[stackSize];
+            // The distances may have been shortened since the node was pushed
+            int mask = enter(node, packet, stackMasks[stackSize]);
+            if (mask == 0) continue;
+
+            int itemCount = nodeItemCounts[node];
+            if (itemCount > 0) {
+                int offset = nodeOffsets[node];
+                for (; mask != 0; mask &= (mask - 1)) {
+                    int index = Integer.numberOfTrailingZeros(mask);
+                    double dist = intersector.intersect(index, offset, (offset + itemCount));
+                    if (dist < packet.getMaxDistance(index)) packet.setMaxDistance(index, dist);
+                }
+                continue;
+            }
+
+            int left = nodeOffsets[node];
+            int right = left + 1;
+            double leftDist = enterFrustum(left, packet);
+            double rightDist = enterFrustum(right, packet);
+            // The nearer one is pushed last, to be popped first
+            boolean leftFirst = leftDist <= rightDist;
+            int first = leftFirst ? left : right;
+            int second = leftFirst ? right : left;
+            if (Math.max(leftDist, rightDist) != Double.POSITIVE_INFINITY) {
+                stack[stackSize] = second;
+                stackMasks[stackSize] = mask;
+                ++stackSize;
+            }
+            if (Math.min(leftDist, rightDist) != Double.POSITIVE_INFINITY) {
+                stack[stackSize] = first;
+                stackMasks[stackSize] = mask;
+                ++stackSize;
+            }
+        }
+    }
+
+    /**
+     * Traces the active rays of the packet together until each of them has got any hit within its distance, the
+     * intersector may report the hits in any order.
+     *
+     * @return the mask of the active rays which have hit anything within their distances
+     */
+    public int traverseAny(RayPacket packet, PacketIntersector intersector, TraversalStack traversalStack) {
+        Objects.requireNonNull(packet, "packet cannot be null.");
+        Objects.requireNonNull(intersector, "intersector cannot be null.");
+        Objects.requireNonNull(traversalStack, "traversalStack cannot be null.");
+        if (nodeCount == 0 || packet.getActiveMask() == 0) return 0;
+
+        packet.updateFrustum();
+        traversalStack.ensureCapacity(2 * (depth + 1));
+        int[] stack = traversalStack.nodes;
+        int[] stackMasks = traversalStack.masks;
+        int stackSize = 0;
+        stack[stackSize] = 0;
+        stackMasks[stackSize] = packet.getActiveMask();
+        ++stackSize;
+        int hitMask = 0;
+        while (stackSize > 0) {
+            --stackSize;
+            int node = stack[stackSize];
+            int mask = stackMasks[stackSize] & ~hitMask;
+            if (mask == 0 || enterFrustum(node, packet) == Double.POSITIVE_INFINITY) continue;
+            mask = enter(node, packet, mask);
+            if (mask == 0) continue;
+
+            int itemCount = nodeItemCounts[node];
+            if (itemCount > 0) {
+                int offset = nodeOffsets[node];
+                for (; mask != 0; mask &= (mask - 1)) {
+                    int index = Integer.numberOfTrailingZeros(mask);
+                    if (intersector.intersect(index, offset, (offset + itemCount)) < packet.getMaxDistance(index)) {
+                        hitMask |= (1 << index);
+                    }
+                }
+                if (hitMask == packet.getActiveMask()) return hitMask;
+            } else {
+                stack[stackSize] = nodeOffsets[node] + 1;
+                stackMasks[stackSize] = mask;
+                ++stackSize;
+                stack[stackSize] = nodeOffsets[node];
+                stackMasks[stackSize] = mask;
+                ++stackSize;
+            }
+        }
+        return hitMask;
+    }
+
+    private void checkItemsKept() {
+        if (itemPages == null) {
+            throw new IllegalStateException("The items are packed elsewhere, only the range intersectors visit them.");
+        }
+    }
+
+    private double enterFrustum(int node, RayPacket packet) {
+        return packet.enterFrustum(nodeBoundPages[node >>> PAGE_SHIFT], ((node & PAGE_MASK) * 6));
+    }
+
+    /**
+     * @return the rays of the mask which enter the bounds of the node within their distances
+     */
+    private int enter(int node, RayPacket packet, int mask) {
+        int enteringMask = 0;
+        for (; mask != 0; mask &= (mask - 1)) {
+            int index = Integer.numberOfTrailingZeros(mask);
+            if (enter(node, packet.getRay(index), packet.getMaxDistance(index)) != Double.POSITIVE_INFINITY) {
+                enteringMask |= (1 << index);
+            }
+        }
+        return enteringMask;
+    }
+
+    /**
+     * @return the distance where the ray enters the bounds of the node, or {@code Double.POSITIVE_INFINITY} if the
+     * ray misses them within the distance
+     */
+    private double enter(int node, Ray ray, double maxDistance) {
+        double ox = ray.getOriginX();
+        double oy = ray.getOriginY();
+        double oz = ray.getOriginZ();
+        double invX = ray.getInverseDirectionX();
+        double invY = ray.getInverseDirectionY();
+        double invZ = ray.getInverseDirectionZ();
+        double[] nodeBounds = nodeBoundPages[node >>> PAGE_SHIFT];
+        int b = (node & PAGE_MASK) * 6;
+        double near = 0;
+        double far = maxDistance;
+
+        // Comparisons with NaN (a ray lying exactly on a slab) are false, which keeps the slab as not limiting
+        double t0 = (nodeBounds[b] - ox) * invX;
+        double t1 = (nodeBounds[b + 3] - ox) * invX;
+        if (t0 > t1) {
+            double t = t0;
+            t0 = t1;
+            t1 = t;
+        }
+        if (t0 > near) near = t0;
+        if (t1 < far) far = t1;
+
+        t0 = (nodeBounds[b + 1] - oy) * invY;
+        t1 = (nodeBounds[b + 4] - oy) * invY;
+        if (t0 > t1) {
+            double t = t0;
+            t0 = t1;
+            t1 = t;
+        }
+        if (t0 > near) near = t0;
+        if (t1 < far) far = t1;
+
+        t0 = (nodeBounds[b + 2] - oz) * invZ;
+        t1 = (nodeBounds[b + 5] - oz) * invZ;
+        if (t0 > t1) {
+            double t = t0;
+            t0 = t1;
+            t1 = t;
+        }
+        if (t0 > near) near = t0;
+        if (t1 < far) far = t1;
+
+        return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the page holding the index, copied from the old pages first unless it already has been
+     */
+    private static Object[] writablePage(Object[][] pages, Object[][] oldPages, int index) {
+        int page = index >>> PAGE_SHIFT;
+        if (pages[page] == oldPages[page]) pages[page] = oldPages[page].clone();
+        return pages[page];
+    }
+
+    private static double[] writablePage(double[][] pages, double[][] oldPages, int index) {
+        int page = index >>> PAGE_SHIFT;
+        if (pages[page] == oldPages[page]) pages[page] = oldPages[page].clone();
+        return pages[page];
+    }
+
+    /**
+     * Splits the values, {@code stride} of them for each of the {@code count} nodes or items, into pages.
+     */
+    private static double[][] toPages(double[] values, int count, int stride) {
+        double[][] pages = new double[(count + PAGE_MASK) >>> PAGE_SHIFT][];
+        for (int i = 0; i < pages.length; ++i) {
+            int start = i << PAGE_SHIFT;
+            pages[i] = Arrays.copyOfRange(values, (start * stride), (Math.min(count, (start + PAGE_SIZE)) * stride));
+        }
+        return pages;
+    }
+
+    private static Object[][] toPages(Object[] items) {
+        Object[][] pages = new Object[(items.length + PAGE_MASK) >>> PAGE_SHIFT][];
+        for (int i = 0; i < pages.length; ++i) {
+            int start = i << PAGE_SHIFT;
+            pages[i] = Arrays.copyOfRange(items, start, Math.min(items.length, (start + PAGE_SIZE)));
+        }
+        return pages;
+    }
+
+    /**
+     * The scratch space of the traversals, meant to be reused by one thread for many of them.
+     */
+    public static class TraversalStack {
+
+        private int[] nodes = new int[0];
+        private double[] distances = new double[0];
+        // The rays of the packet which go on into each node
+        private int[] masks = new int[0];
+
+        private void ensureCapacity(int capacity) {
+            if (nodes.length >= capacity) return;
+
+            nodes = new int[capacity];
+            distances = new double[capacity];
+            masks = new int[capacity];
+        }
+    }
+
+    public interface ItemIntersector<T> {
+
+        /**
+         * @return the distance from the ray source to the hit on the item, or {@code Double.POSITIVE_INFINITY} if
+         * the item is missed
+         */
+        double intersect(T item);
+    }
+
+    public interface PacketIntersector {
+
+        /**
+         * @param ray the index of the ray in the packet
+         * @return the shortest distance from the source of the ray to the hits on the items of the range, or
+         * {@code Double.POSITIVE_INFINITY} if all of them are missed
+         * @see RangeIntersector#intersect
+         */
+        double intersect(int ray, int start, int end);
+    }
+
+    public interface RangeIntersector {
+
+        /**
+         * @param start the index of the first item of the leaf, see {@link BoundingVolumeHierarchy#getItem}
+         * @param end the index after the last item of the leaf
+         * @return the shortest distance from the ray source to the hits on the items, or
+         * {@code Double.POSITIVE_INFINITY} if all of them are missed
+         */
+        double intersect(int start, int end);
+    }
+
+    private static class Builder {
+
+        // The bounds and the centroids are moved along with the order, so that each node reads them one after another
+        private final double[] itemBounds;
+        private final double[] centroids;
+        private final int[] order;
+        private final int maxLeafSize;
+        private final double traversalCost;
+
+        private final double[] nodeBounds;
+        private final int[] nodeOffsets;
+        private final int[] nodeItemCounts;
+        private final int[] nodeParents;
+        private final int[] itemLeaves;
+        private int nodeCount = 0;
+        private int depth = 0;
+
+        private final int[] binCounts = new int[BIN_COUNT];
+        private final double[] binBounds = new double[BIN_COUNT * 6];
+        private final double[] rightAreas = new double[BIN_COUNT];
+
+        // Null for the items packed elsewhere
+        private final Object[] items;
+        private final int itemCount;
+
+        private Builder(Object[] items, double[] itemBounds, int[] order, int maxLeafSize, double traversalCost) {
+            this.items = items;
+            this.itemCount = itemBounds.length / 6;
+            this.itemBounds = itemBounds;
+            this.maxLeafSize = maxLeafSize;
+            this.traversalCost = traversalCost;
+            this.centroids = new double[itemCount * 3];
+            this.order = order;
+            for (int i = 0; i < itemCount; ++i) {
+                order[i] = i;
+                for (int axis = 0; axis < 3; ++axis) {
+                    centroids[(i * 3) + axis] = (itemBounds[(i * 6) + axis] + itemBounds[(i * 6) + axis + 3]) / 2;
+                }
+            }
+
+            int maxNodeCount = Math.max(1, (2 * itemCount) - 1);
+            this.nodeBounds = new double[maxNodeCount * 6];
+            this.nodeOffsets = new int[maxNodeCount];
+            this.nodeItemCounts = new int[maxNodeCount];
+            this.nodeParents = new int[maxNodeCount];
+            this.itemLeaves = new int[itemCount];
+        }
+
+        private <T> BoundingVolumeHierarchy<T> build() {
+            if (itemCount > 0) {
+                nodeCount = 1;
+                nodeParents[0] = -1;
+                buildNode(0, 0, itemCount, 0);
+            }
+            if (items == null) {
+                // Trimmed to the nodes there are, as the packed items tend to be very many
+                return new BoundingVolumeHierarchy<>(
+                        null, itemCount, null, null,
+                        toPages(nodeBounds, nodeCount, 6), Arrays.copyOf(nodeOffsets, nodeCount),
+                        Arrays.copyOf(nodeItemCounts, nodeCount), null, nodeCount, depth);
+            }
+
+            Object[] orderedItems = new Object[items.length];
+            for (int i = 0; i < order.length; ++i) orderedItems[i] = items[order[i]];
+            return new BoundingVolumeHierarchy<>(
+                    toPages(orderedItems), itemCount, toPages(itemBounds, itemCount, 6), itemLeaves,
+                    toPages(nodeBounds, nodeCount, 6), nodeOffsets, nodeItemCounts, nodeParents, nodeCount, depth);
+        }
+
+        private void buildNode(int node, int start, int end, int nodeDepth) {
+            depth = Math.max(depth, nodeDepth);
+
+            double[] centroidBounds = new double[6];
+            resetBounds(nodeBounds, node * 6);
+            resetBounds(centroidBounds, 0);
+            for (int i = start; i < end; ++i) {
+                includeBounds(nodeBounds, node * 6, itemBounds, i * 6);
+                for (int axis = 0; axis < 3; ++axis) {
+                    double c = centroids[(i * 3) + axis];
+                    centroidBounds[axis] = Math.min(centroidBounds[axis], c);
+                    centroidBounds[axis + 3] = Math.max(centroidBounds[axis + 3], c);
+                }
+            }
+
+            int count = end - start;
+            if (count == 1) {
+                makeLeaf(node, start, count);
+                return;
+            }
+
+            int bestAxis = -1;
+            int bestBin = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int axis = 0; axis < 3; ++axis) {
+                double min = centroidBounds[axis];
+                double extent = centroidBounds[axis + 3] - min;
+                if (extent <= 0) continue;
+
+                binItems(start, end, axis, min, extent);
+
+                // The right side of the split after bin "i" holds the bins (i + 1) and above
+                double[] accumulated = new double[6];
+                resetBounds(accumulated, 0);
+                int rightCount = 0;
+                for (int i = BIN_COUNT - 1; i > 0; --i) {
+                    rightCount += binCounts[i];
+                    if (binCounts[i] > 0) includeBounds(accumulated, 0, binBounds, i * 6);
+                    rightAreas[i - 1] = rightCount > 0 ? surfaceArea(accumulated, 0) : 0;
+                }
+
+                resetBounds(accumulated, 0);
+                int leftCount = 0;
+                for (int i = 0; i < (BIN_COUNT - 1); ++i) {
+                    leftCount += binCounts[i];
+                    if (binCounts[i] > 0) includeBounds(accumulated, 0, binBounds, i * 6);
+                    if (leftCount == 0 || leftCount == count) continue;
+
+                    double cost = (leftCount * surfaceArea(accumulated, 0)) + ((count - leftCount) * rightAreas[i]);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = i;
+                    }
+                }
+            }
+
+            int mid;
+            if (bestAxis < 0) {
+                // All the centroids coincide, there is nothing to gain from any split
+                if (count <= maxLeafSize) {
+                    makeLeaf(node, start, count);
+                    return;
+                }
+                mid = start + (count / 2);
+            } else {
+                double nodeArea = surfaceArea(nodeBounds, node * 6);
+                double splitCost = nodeArea > 0 ? traversalCost + (bestCost / nodeArea) : count;
+                if (count <= maxLeafSize && count <= splitCost) {
+                    makeLeaf(node, start, count);
+                    return;
+                }
+                mid = partition(start, end, bestAxis, bestBin, centroidBounds);
+            }
+
+            int left = nodeCount;
+            nodeCount += 2;
+            nodeOffsets[node] = left;
+            nodeItemCounts[node] = 0;
+            nodeParents[left] = node;
+            nodeParents[left + 1] = node;
+            buildNode(left, start, mid, nodeDepth + 1);
+            buildNode(left + 1, mid, end, nodeDepth + 1);
+        }
+
+        private void makeLeaf(int node, int start, int count) {
+            nodeOffsets[node] = start;
+            nodeItemCounts[node] = count;
+            for (int i = start; i < (start + count); ++i) itemLeaves[i] = node;
+        }
+
+        private void binItems(int start, int end, int axis, double min, double extent) {
+            for (int i = 0; i < BIN_COUNT; ++i) {
+                binCounts[i] = 0;
+                resetBounds(binBounds, i * 6);
+            }
+            for (int i = start; i < end; ++i) {
+                int bin = binOf(centroids[(i * 3) + axis], min, extent);
+                ++binCounts[bin];
+                includeBounds(binBounds, bin * 6, itemBounds, i * 6);
+            }
+        }
+
+        private int partition(int start, int end, int axis, int splitBin, double[] centroidBounds) {
+            double min = centroidBounds[axis];
+            double extent = centroidBounds[axis + 3] - min;
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                if (binOf(centroids[(i * 3) + axis], min, extent) <= splitBin) {
+                    ++i;
+                } else {
+                    swapItems(i, j);
+                    --j;
+                }
+            }
+            return i;
+        }
+
+        private void swapItems(int i, int j) {
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+            for (int k = 0; k < 6; ++k) {
+                double swapBound = itemBounds[(i * 6) + k];
+                itemBounds[(i * 6) + k] = itemBounds[(j * 6) + k];
+                itemBounds[(j * 6) + k] = swapBound;
+            }
+            for (int k = 0; k < 3; ++k) {
+                double swapCentroid = centroids[(i * 3) + k];
+                centroids[(i * 3) + k] = centroids[(j * 3) + k];
+                centroids[(j * 3) + k] = swapCentroid;
+            }
+        }
+
+        private static int binOf(double centroid, double min, double extent) {
+            int bin = (int) (((centroid - min) / extent) * BIN_COUNT);
+            return Math.min(bin, (BIN_COUNT - 1));
+        }
+
+        private static void resetBounds(double[] bounds, int offset) {
+            for (int axis = 0; axis < 3; ++axis) {
+                bounds[offset + axis] = Double.POSITIVE_INFINITY;
+                bounds[offset + axis + 3] = Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        private static void includeBounds(double[] bounds, int offset, double[] other, int otherOffset) {
+            for (int axis = 0; axis < 3; ++axis) {
+                bounds[offset + axis] = Math.min(bounds[offset + axis], other[otherOffset + axis]);
+                bounds[offset + axis + 3] = Math.max(bounds[offset + axis + 3], other[otherOffset + axis + 3]);
+            }
+        }
+
+        private static double surfaceArea(double[] bounds, int offset) {
+            double dx = bounds[offset + 3] - bounds[offset];
+            double dy = bounds[offset + 4] - bounds[offset + 1];
+            double dz = bounds[offset + 5] - bounds[offset + 2];
+            return 2 * ((dx * dy) + (dy * dz) + (dz * dx));
+        }
+    }
+}
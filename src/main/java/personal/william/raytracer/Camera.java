@@ -1,10 +1,145 @@
 package personal.william.raytracer;
 
 import java.awt.Image;
+import java.util.concurrent.CompletableFuture;
 
 public interface Camera {
 
     Vector3dSpaceScene getScene();
 
     Image renderAsImage(int width, int height);
+
+    Image renderAsImage(int width, int height, TileScheduler scheduler);
+
+    FrameBuffer render(int width, int height);
+
+    FrameBuffer render(int width, int height, TileScheduler scheduler);
+
+    /**
+     * Renders only the region of the image of the size, into a frame of the size of the region. The pixels are the
+     * same as those of the whole image at the region, so that very large images can be rendered piece by piece.
+     */
+    FrameBuffer render(int width, int height, Tile region, TileScheduler scheduler);
+
+    /**
+     * Like {@link #render(int, int, Tile, TileScheduler)}, but also fills the geometry buffer, of the size of the
+     * region, with what the primary rays of the pixels hit. The geometry comes from the same rays as the colors, none
+     * is cast for it alone, and the edge pixels take it from their first sample.
+     */
+    FrameBuffer render(int width, int height, Tile region, TileScheduler scheduler, GeometryBuffer geometry);
+
+    /**
+     * Renders the whole image of the size of the frame into it, every pixel of the frame is overwritten. Lets the
+     * frames be reused from one image to the next instead of being allocated for each of them.
+     *
+     * @return the frame
+     */
+    FrameBuffer render(FrameBuffer frame, TileScheduler scheduler);
+
+    /**
+     * Like {@link #render(FrameBuffer, TileScheduler)}, but also fills the geometry buffer, of the size of the frame,
+     * with what the primary rays of the pixels hit, see {@link #render(int, int, Tile, TileScheduler, GeometryBuffer)}.
+     *
+     * @return the frame
+     */
+    FrameBuffer render(FrameBuffer frame, TileScheduler scheduler, GeometryBuffer geometry);
+
+    /**
+     * Starts rendering without waiting, the listener is told about each tile as soon as it is done. Cancelling the
+     * future stops the rendering after the tiles in progress.
+     */
+    CompletableFuture<FrameBuffer> renderAsync(
+            int width, int height, TileScheduler scheduler, RenderListener listener);
+
+    /**
+     * Like {@link #renderAsync}, but renders in passes of increasing resolution: every 4x4 block gets one pixel first,
+     * then every 2x2 block, then the rest of the pixels. Each pixel is still cast only once, the coarse passes fill
+     * the blocks with the pixel they have got so far.
+     */
+    CompletableFuture<FrameBuffer> renderProgressively(
+            int width, int height, TileScheduler scheduler, RenderListener listener);
+
+    /**
+     * @param packetSize the primary rays of each square of the size, and then their shadow rays, are traced through
+     *                   the scene together as a {@link RayPacket}, which pays off when the neighbouring rays hit the
+     *                   same objects. The pixels are the same either way. 1 traces every ray on its own, the largest
+     *                   size is 4.
+     * @return a camera like this one, but tracing the rays in packets of the size
+     */
+    Camera withRayPackets(int packetSize);
+
+    /**
+     * @param maxRayDepth the most reflections and refractions a path of rays may go through, beyond which the
+     *                    background color is taken instead, 4 by default
+     * @return a camera like this one, but with the depth limit
+     */
+    Camera withMaxRayDepth(int maxRayDepth);
+
+    /**
+     * @param minRayWeight the reflections and refractions which would count less than this in the color of a pixel,
+     *                     through the albedos along their paths, take the background color instead of being traced.
+     *                     0 by default, which traces every one with a nonzero albedo.
+     * @return a camera like this one, but with the weight limit
+     */
+    Camera withMinRayWeight(double minRayWeight);
+
+    /**
+     * Bounds the cost of lighting a hit in scenes with very many lights. The lights are picked by their intensities
+     * over their squared distances, which is only a guess at which of them matter most: the lights don't fade with the
+     * distance, so each light left out takes away as much as its intensity lets it, however far away it is.
+     *
+     * @param maxLightsPerHit each hit is lit only by the lights of the highest intensities over the squared distances,
+     *                        as many as this, and only those are tested for the shadows. All of the lights by
+     *                        default.
+     * @return a camera like this one, but with the light limit
+     */
+    Camera withMaxLightsPerHit(int maxLightsPerHit);
+
+    /**
+     * Anti-aliases the edges: every pixel is cast once first, then each one which hits another object than any of its
+     * neighbours, or differs from any of them by more than the threshold, is cast again as a 2x2 grid of samples. Only
+     * if those samples differ as well, it is cast as the full grid. The passes of {@link #renderProgressively} stay at
+     * one sample per pixel.
+     *
+     * @param maxSamples the samples of the full grid, a square from 4 to 64, or 1 for no anti-aliasing (the default)
+     * @param threshold the difference in any RGB component, from 0 to 1, beyond which more samples are taken
+     * @return a camera like this one, but with the anti-aliasing
+     */
+    Camera withAntiAliasing(int maxSamples, double threshold);
+
+    /**
+     * Tests the rays against the spheres, which most of the very large scenes are made of, in single precision,
+     * which reads half of the memory per sphere and tests twice the spheres per SIMD instruction. Only the test is,
+     * the hits themselves and the shading stay in double precision.
+     * <p>
+     * The pixels differ slightly from those in double precision: in the demo scene with 3000 more small spheres about
+     * 0.1% of them do, by at most 2 of 255 in any of the RGB components, apart from 0.01% on the outlines of the
+     * spheres, where a ray just grazing a sphere may hit it in one precision and miss it in the other. The error of
+     * the hits grows with the distance from the origin, and stays below the offset of the shadow rays from the
+     * surfaces within about 10000 from it.
+     *
+     * @param floatPrecision whether the spheres are tested in single precision, false by default
+     * @return a camera like this one, but testing the spheres in the precision
+     */
+    Camera withFloatPrecision(boolean floatPrecision);
+
+    /**
+     * @param statistics counts the rays, the intersection tests and the time of the tiles of every render of the
+     *                   camera, or {@code null} not to count anything (the default)
+     * @return a camera like this one, but counting into the statistics
+     */
+    Camera withStatistics(RenderStatistics statistics);
+
+    /**
+     * Takes the tiles the cache already has of the same image instead of rendering them, and puts those rendered into
+     * it, see {@link RenderCache}. A tile rendered before the scene has been edited is still taken unless the edited
+     * objects are where its rays have gone, or the lights have changed and it has hit anything. Only the renders of
+     * the colors alone in full are cached, not those with a {@link GeometryBuffer} or the passes of
+     * {@link #renderProgressively}, and the tiles taken from the cache are not counted by the statistics. The scenes
+     * with objects of other classes than those a scene file can have are never cached.
+     *
+     * @param renderCache {@code null} not to cache anything (the default)
+     * @return a camera like this one, but using the cache
+     */
+    Camera withRenderCache(RenderCache renderCache);
 }
@@ -0,0 +1,157 @@
+package personal.william.raytracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A camera moving through a scene, given by its keyframes. Between two keyframes the position and the field of view
+ * are interpolated linearly, and the directions are blended linearly and normalized, the down direction being made
+ * perpendicular to the face direction again afterwards. Before the first keyframe and after the last one the camera
+ * stays where they are.
+ */
+public class CameraPath {
+
+    private final List<Keyframe> keyframes;
+
+    public CameraPath(List<Keyframe> keyframes) {
+        Objects.requireNonNull(keyframes, "keyframes cannot be null.");
+        if (keyframes.isEmpty()) throw new IllegalArgumentException("keyframes cannot be empty.");
+
+        this.keyframes = Collections.unmodifiableList(new ArrayList<>(keyframes));
+        for (int i = 0; i < this.keyframes.size(); ++i) {
+            Keyframe keyframe = Objects.requireNonNull(this.keyframes.get(i), "keyframe cannot be null.");
+            if (i == 0) continue;
+
+            Keyframe previous = this.keyframes.get(i - 1);
+            if (keyframe.time <= previous.time) {
+                throw new IllegalArgumentException("The keyframes are not in the order of their times.");
+            }
+            if (keyframe.faceDirection.plus(previous.faceDirection).norm() == 0
+                    || keyframe.downDirection.plus(previous.downDirection).norm() == 0) {
+                throw new IllegalArgumentException(
+                        "The directions of the keyframes at " + previous.time + " and " + keyframe.time
+                                + " are opposite, there is no telling which way to turn.");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CameraPath{" +
+                "keyframes=" + keyframes +
+                '}';
+    }
+
+    public List<Keyframe> getKeyframes() {
+        return keyframes;
+    }
+
+    public double getStartTime() {
+        return keyframes.get(0).time;
+    }
+
+    public double getEndTime() {
+        return keyframes.get(keyframes.size() - 1).time;
+    }
+
+    public Camera setupCamera(Vector3dSpaceScene scene, double time) {
+        Objects.requireNonNull(scene, "scene cannot be null.");
+
+        Keyframe keyframe = interpolate(time);
+        return scene.setupCamera(
+                keyframe.position, keyframe.faceDirection, keyframe.downDirection, keyframe.fieldOfView);
+    }
+
+    public Camera setupCamera(SceneSnapshot scene, double time) {
+        Objects.requireNonNull(scene, "scene cannot be null.");
+
+        Keyframe keyframe = interpolate(time);
+        return scene.setupCamera(
+                keyframe.position, keyframe.faceDirection, keyframe.downDirection, keyframe.fieldOfView);
+    }
+
+    /**
+     * @return the keyframe of the camera at the time
+     */
+    public Keyframe interpolate(double time) {
+        if (Double.isNaN(time)) throw new IllegalArgumentException("time cannot be NaN.");
+
+        if (time <= getStartTime()) return keyframes.get(0);
+        if (time >= getEndTime()) return keyframes.get(keyframes.size() - 1);
+
+        int next = 1;
+        while (keyframes.get(next).time < time) ++next;
+        Keyframe from = keyframes.get(next - 1);
+        Keyframe to = keyframes.get(next);
+        if (to.time == time) return to;
+
+        double t = (time - from.time) / (to.time - from.time);
+        Vector3d position = from.position.plus(to.position.minus(from.position).times(t));
+        UnitVector3d faceDirection = blend(from.faceDirection, to.faceDirection, t).normalize();
+        Vector3d down = blend(from.downDirection, to.downDirection, t);
+        Vector3d perpendicularDown = down.minus(faceDirection.times(down.dot(faceDirection)));
+        if (perpendicularDown.norm() == 0) {
+            throw new IllegalArgumentException("The down direction turns into the face direction at " + time + ".");
+        }
+        double fieldOfView = from.fieldOfView + ((to.fieldOfView - from.fieldOfView) * t);
+        return new Keyframe(time, position, faceDirection, perpendicularDown.normalize(), fieldOfView);
+    }
+
+    private static Vector3d blend(Vector3d from, Vector3d to, double t) {
+        return from.times(1 - t).plus(to.times(t));
+    }
+
+    public static class Keyframe {
+
+        private final double time;
+        private final Vector3d position;
+        private final UnitVector3d faceDirection;
+        private final UnitVector3d downDirection;
+        private final double fieldOfView;
+
+        public Keyframe(
+                double time, Vector3d position, UnitVector3d faceDirection, UnitVector3d downDirection,
+                double fieldOfView) {
+            if (! Double.isFinite(time)) throw new IllegalArgumentException("time must be finite.");
+
+            this.time = time;
+            this.position = Objects.requireNonNull(position, "position cannot be null.");
+            this.faceDirection = Objects.requireNonNull(faceDirection, "faceDirection cannot be null.");
+            this.downDirection = Objects.requireNonNull(downDirection, "downDirection cannot be null.");
+            this.fieldOfView = fieldOfView;
+        }
+
+        @Override
+        public String toString() {
+            return "Keyframe{" +
+                    "time=" + time +
+                    ", position=" + position +
+                    ", faceDirection=" + faceDirection +
+                    ", downDirection=" + downDirection +
+                    ", fieldOfView=" + fieldOfView +
+                    '}';
+        }
+
+        public double getTime() {
+            return time;
+        }
+
+        public Vector3d getPosition() {
+            return position;
+        }
+
+        public UnitVector3d getFaceDirection() {
+            return faceDirection;
+        }
+
+        public UnitVector3d getDownDirection() {
+            return downDirection;
+        }
+
+        public double getFieldOfView() {
+            return fieldOfView;
+        }
+    }
+}
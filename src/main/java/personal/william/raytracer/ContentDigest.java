@@ -0,0 +1,84 @@
+package personal.william.raytracer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A SHA-256 of the contents of a scene, put together value by value through a buffer, so that the large arrays of
+ * the meshes are hashed without a call for each of their values.
+ */
+final class ContentDigest {
+
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+
+    ContentDigest() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    ContentDigest putInt(int value) {
+        reserve(Integer.BYTES).putInt(value);
+        return this;
+    }
+
+    ContentDigest putLong(long value) {
+        reserve(Long.BYTES).putLong(value);
+        return this;
+    }
+
+    ContentDigest putDouble(double value) {
+        reserve(Double.BYTES).putDouble(value);
+        return this;
+    }
+
+    ContentDigest putBytes(byte[] values) {
+        putInt(values.length);
+        flush();
+        digest.update(values);
+        return this;
+    }
+
+    ContentDigest putFloats(float[] values) {
+        putInt(values.length);
+        for (float value : values) reserve(Float.BYTES).putFloat(value);
+        return this;
+    }
+
+    ContentDigest putInts(int[] values) {
+        putInt(values.length);
+        for (int value : values) reserve(Integer.BYTES).putInt(value);
+        return this;
+    }
+
+    /**
+     * @return the hash of the values put so far, after which the digest starts over
+     */
+    byte[] finish() {
+        flush();
+        return digest.digest();
+    }
+
+    static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit(((b >> 4) & 0xF), 16));
+            hex.append(Character.forDigit((b & 0xF), 16));
+        }
+        return hex.toString();
+    }
+
+    private ByteBuffer reserve(int bytes) {
+        if (buffer.remaining() < bytes) flush();
+        return buffer;
+    }
+
+    private void flush() {
+        digest.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+}
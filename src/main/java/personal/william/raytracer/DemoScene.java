@@ -0,0 +1,54 @@
+package personal.william.raytracer;
+
+import java.awt.Color;
+
+/**
+ * The scene of the spheres above the checkered floor, which {@link RayTracer} shows.
+ */
+public class DemoScene {
+
+    private DemoScene() {
+    }
+
+    public static Vector3dSpaceScene create() {
+        Color bgColor = new Color(0.2f, 0.7f, 0.8f);
+        Material ivory = new Material(0.3, 0.6, new Color(0.4f, 0.4f, 0.3f), 0.1, 50, 1, 0);
+        Material redRubber = new Material(0.1, 0.9, new Color(0.3f, 0.1f, 0.1f), 0, 10, 1, 0);
+        Material mirror = new Material(10, 0, new Color(1.0f, 1.0f, 1.0f), 0.8, 1425, 1, 0);
+        Material glass = new Material(0.5, 0, new Color(0.6f, 0.7f, 0.8f), 0.1, 125, 1.5, 0.8);
+        Material solidWhite = new Material(0.4, 0.6, Color.WHITE, 0, 80, 1, 0);
+        Material solidOrange = new Material(0.4, 0.6, Color.ORANGE, 0, 80, 1, 0);
+
+        Material[][] alternatingGrid = new Material[][]{{solidWhite, solidOrange}, {solidOrange, solidWhite}};
+        GridPatternParallelogramPlane.Pattern pattern = new GridPatternParallelogramPlane.Pattern(2, 2, alternatingGrid);
+        GridPatternParallelogramPlane floor = new GridPatternParallelogramPlane(20, 20, pattern);
+
+        Vector3dSpaceScene scene = new Scene3d();
+
+        scene.setBackgroundColor(bgColor);
+
+        Vector3d planeOrig = Vector3d.of(-10, -4, -26);
+        ParallelogramPlanePositioning planePos =
+                new ParallelogramPlanePositioning(planeOrig, UnitVector3d.X, UnitVector3d.Z);
+
+        scene.putLight(new Light(1.5), Vector3d.of(-20, 20, 20));
+        scene.putLight(new Light(1.8), Vector3d.of(30, 50, -25));
+        scene.putLight(new Light(1.7), Vector3d.of(30, 20, 30));
+
+        scene.putObject(new Sphere(ivory, 2), new Sphere.Positioning(-3, 0, -16), "Ivory Sphere");
+        scene.putObject(new Sphere(glass, 2), new Sphere.Positioning(-1f, -1.5f, -12f), "Glass Sphere");
+        scene.putObject(new Sphere(redRubber, 3), new Sphere.Positioning(1.5, -0.5, -18), "Red Sphere");
+        scene.putObject(new Sphere(mirror, 4), new Sphere.Positioning(7, 5, -18), "Mirror Sphere");
+        scene.putObject(floor, planePos, "Floor");
+        return scene;
+    }
+
+    public static Camera setupCamera(Vector3dSpaceScene scene) {
+        final Vector3d cameraPos = Vector3d.of(0, 0, 0);
+        final UnitVector3d cameraFacing = UnitVector3d.normalize(0, 0, -1);
+        final UnitVector3d cameraDownward = UnitVector3d.normalize(0, -1, 0);
+        final double fov = Math.PI / 2;
+
+        return scene.setupCamera(cameraPos, cameraFacing, cameraDownward, fov);
+    }
+}
@@ -0,0 +1,74 @@
+package personal.william.raytracer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * The pixels of a rendered image, packed as {@code 0xRRGGBB} in a plain array row by row.
+ * <p>
+ * The tiles are written without any synchronization, since no two tiles share a pixel. The writes are visible to
+ * the thread the render returns to.
+ */
+public class FrameBuffer {
+
+    private static final int RED_MASK = 0xFF0000;
+    private static final int GREEN_MASK = 0xFF00;
+    private static final int BLUE_MASK = 0xFF;
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public FrameBuffer(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The frame cannot be empty.");
+
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    @Override
+    public String toString() {
+        return "FrameBuffer{" +
+                "width=" + width +
+                ", height=" + height +
+                '}';
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRgb(int x, int y) {
+        return pixels[(y * width) + x];
+    }
+
+    public void setRgb(int x, int y, int rgb) {
+        pixels[(y * width) + x] = rgb & 0xFFFFFF;
+    }
+
+    /**
+     * @return the backing array itself, the pixel at (x, y) is at {@code (y * width) + x}
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return an image of {@code TYPE_INT_RGB} backed by the same array, without copying the pixels
+     */
+    public BufferedImage toImage() {
+        DirectColorModel colorModel = new DirectColorModel(24, RED_MASK, GREEN_MASK, BLUE_MASK);
+        WritableRaster raster = Raster.createPackedRaster(
+                new DataBufferInt(pixels, pixels.length), width, height, width,
+                new int[]{RED_MASK, GREEN_MASK, BLUE_MASK}, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
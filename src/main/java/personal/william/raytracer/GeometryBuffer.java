@@ -0,0 +1,160 @@
+package personal.william.raytracer;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * What the primary ray of each pixel hits first, rendered along with the colors of a {@link FrameBuffer} by the same
+ * ray casts, for compositing. Each plane is a plain array row by row like the pixels of the frame, and only the planes
+ * asked for are allocated.
+ * <p>
+ * The planes of the pixels which hit nothing are +infinity for the depth, and 0 for the others.
+ */
+public class GeometryBuffer {
+
+    public enum Plane {
+
+        /**
+         * The distance of the hit in front of the camera, along the direction it faces rather than along the ray.
+         */
+        DEPTH("depth", 1),
+        /**
+         * The x, y, z of the unit normal of the surface at the hit, in the space of the scene.
+         */
+        NORMAL("normal", 3),
+        /**
+         * The id of the {@link VectorSpaceObjectIdentity} of the object hit.
+         */
+        OBJECT_ID("object-id", 1),
+        /**
+         * The {@link Material#getContentId()} of the material hit.
+         */
+        MATERIAL_ID("material-id", 1);
+
+        private final String name;
+        private final int components;
+
+        Plane(String name, int components) {
+            this.name = name;
+            this.components = components;
+        }
+
+        public static Plane ofName(String name) {
+            Objects.requireNonNull(name, "name cannot be null.");
+
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            for (Plane plane : values()) {
+                if (plane.name.equals(lowerCase)) return plane;
+            }
+            throw new IllegalArgumentException("Unknown geometry plane: " + name + ".");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the values of each pixel in the plane
+         */
+        public int getComponents() {
+            return components;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final Set<Plane> planes;
+
+    private final float[] depths;
+    private final float[] normals;
+    private final int[] objectIds;
+    private final int[] materialIds;
+
+    public GeometryBuffer(int width, int height, Set<Plane> planes) {
+        Objects.requireNonNull(planes, "planes cannot be null.");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The buffer cannot be empty.");
+        if (planes.isEmpty()) throw new IllegalArgumentException("planes cannot be empty.");
+
+        this.width = width;
+        this.height = height;
+        this.planes = Collections.unmodifiableSet(EnumSet.copyOf(planes));
+        this.depths = planes.contains(Plane.DEPTH) ? new float[width * height] : null;
+        this.normals = planes.contains(Plane.NORMAL) ? new float[width * height * 3] : null;
+        this.objectIds = planes.contains(Plane.OBJECT_ID) ? new int[width * height] : null;
+        this.materialIds = planes.contains(Plane.MATERIAL_ID) ? new int[width * height] : null;
+    }
+
+    @Override
+    public String toString() {
+        return "GeometryBuffer{" +
+                "width=" + width +
+                ", height=" + height +
+                ", planes=" + planes +
+                '}';
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Set<Plane> getPlanes() {
+        return planes;
+    }
+
+    public boolean has(Plane plane) {
+        return planes.contains(plane);
+    }
+
+    /**
+     * @return the backing array itself, the depth at (x, y) is at {@code (y * width) + x}, or {@code null} without
+     * the plane
+     */
+    public float[] getDepths() {
+        return depths;
+    }
+
+    /**
+     * @return the backing array itself, the normal at (x, y) starts at {@code ((y * width) + x) * 3}, or
+     * {@code null} without the plane
+     */
+    public float[] getNormals() {
+        return normals;
+    }
+
+    /**
+     * @return the backing array itself, the id at (x, y) is at {@code (y * width) + x}, or {@code null} without the
+     * plane
+     */
+    public int[] getObjectIds() {
+        return objectIds;
+    }
+
+    /**
+     * @return the backing array itself, the id at (x, y) is at {@code (y * width) + x}, or {@code null} without the
+     * plane
+     */
+    public int[] getMaterialIds() {
+        return materialIds;
+    }
+
+    /**
+     * Sets the pixel to what its primary ray hits, the planes the buffer doesn't have are left out.
+     */
+    void set(int index, float depth, float normalX, float normalY, float normalZ, int objectId, int materialId) {
+        if (depths != null) depths[index] = depth;
+        if (normals != null) {
+            normals[index * 3] = normalX;
+            normals[(index * 3) + 1] = normalY;
+            normals[(index * 3) + 2] = normalZ;
+        }
+        if (objectIds != null) objectIds[index] = objectId;
+        if (materialIds != null) materialIds[index] = materialId;
+    }
+}
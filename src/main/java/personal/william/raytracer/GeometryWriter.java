@@ -0,0 +1,149 @@
+package personal.william.raytracer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes the planes of a {@link GeometryBuffer} band by band from the top row, each into a PFM file of its own: the
+ * normals as the 3 channels of a color PFM, the depths and the ids as the single channel of a grayscale one. The ids
+ * are written as floats, which they are exact as below 2^24. Each file is written by a {@link PfmWriter} of the
+ * channels of its plane.
+ */
+public class GeometryWriter implements Closeable {
+
+    private final int width;
+    private final int height;
+    private final Map<GeometryBuffer.Plane, PlaneFile> files = new EnumMap<>(GeometryBuffer.Plane.class);
+
+    /**
+     * Creates {@code <directory>/<name>-<plane name>.pfm} for each of the planes, replacing any file already there.
+     */
+    public GeometryWriter(
+            Path directory, String name, int width, int height, Set<GeometryBuffer.Plane> planes) throws IOException {
+        Objects.requireNonNull(directory, "directory cannot be null.");
+        Objects.requireNonNull(name, "name cannot be null.");
+        Objects.requireNonNull(planes, "planes cannot be null.");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image cannot be empty.");
+        if (planes.isEmpty()) throw new IllegalArgumentException("planes cannot be empty.");
+
+        this.width = width;
+        this.height = height;
+        try {
+            for (GeometryBuffer.Plane plane : planes) {
+                Path file = directory.resolve(name + "-" + plane.getName() + ".pfm");
+                files.put(plane, new PlaneFile(file, plane.getComponents(), width, height));
+            }
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Set<GeometryBuffer.Plane> getPlanes() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    public Path getFile(GeometryBuffer.Plane plane) {
+        PlaneFile file = files.get(plane);
+        if (file == null) throw new IllegalArgumentException("Not writing the plane " + plane + ".");
+        return file.path;
+    }
+
+    /**
+     * Writes the rows of the band, which has the width of the image, all of the planes being written, and follows
+     * the rows written so far.
+     */
+    public void write(GeometryBuffer band) throws IOException {
+        Objects.requireNonNull(band, "band cannot be null.");
+        if (! band.getPlanes().containsAll(files.keySet())) {
+            throw new IllegalArgumentException("The band lacks some of the planes " + files.keySet() + ".");
+        }
+
+        for (Map.Entry<GeometryBuffer.Plane, PlaneFile> entry : files.entrySet()) {
+            GeometryBuffer.Plane plane = entry.getKey();
+            entry.getValue().writer.write(band.getWidth(), band.getHeight(),
+                    (buffer, row) -> putRow(buffer, band, plane, row));
+        }
+    }
+
+    /**
+     * Checks that all of the rows have been written, and leaves the position of each file at its end.
+     */
+    public void finish() throws IOException {
+        for (PlaneFile file : files.values()) file.writer.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (PlaneFile file : files.values()) {
+            try {
+                file.channel.close();
+            } catch (IOException ex) {
+                if (failure == null) failure = ex;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static void putRow(ByteBuffer buffer, GeometryBuffer band, GeometryBuffer.Plane plane, int row) {
+        int start = row * band.getWidth();
+        int end = start + band.getWidth();
+        switch (plane) {
+            case DEPTH:
+                float[] depths = band.getDepths();
+                for (int i = start; i < end; ++i) buffer.putFloat(depths[i]);
+                break;
+            case NORMAL:
+                float[] normals = band.getNormals();
+                for (int i = start * 3; i < end * 3; ++i) buffer.putFloat(normals[i]);
+                break;
+            case OBJECT_ID:
+                int[] objectIds = band.getObjectIds();
+                for (int i = start; i < end; ++i) buffer.putFloat(objectIds[i]);
+                break;
+            case MATERIAL_ID:
+                int[] materialIds = band.getMaterialIds();
+                for (int i = start; i < end; ++i) buffer.putFloat(materialIds[i]);
+                break;
+            default:
+                throw new AssertionError(plane);
+        }
+    }
+
+    private static class PlaneFile {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final PfmWriter writer;
+
+        private PlaneFile(Path path, int channels, int width, int height) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            try {
+                this.writer = new PfmWriter(channel, width, height, channels);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+    }
+}
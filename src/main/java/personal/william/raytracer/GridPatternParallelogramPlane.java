@@ -16,13 +16,25 @@ public class GridPatternParallelogramPlane implements SceneObject<ParallelogramP
         this.pattern = pattern;
     }
 
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
     @Override
     public Optional<SurfacePoint> cast(ParallelogramPlanePositioning positioning, Vector3d source, UnitVector3d ray) {
         Objects.requireNonNull(positioning, "positioning cannot be null.");
         Objects.requireNonNull(source, "source cannot be null.");
         Objects.requireNonNull(ray, "ray cannot be null.");
 
-        UnitVector3d normal = positioning.getDirectionX().cross(positioning.getDirectionY()).normalize();
+        UnitVector3d normal = positioning.getNormal();
         double fluxNorm = normal.dot(ray);
         if (fluxNorm == 0) return Optional.empty();
         if (fluxNorm > 0) {
@@ -48,6 +60,189 @@ public class GridPatternParallelogramPlane implements SceneObject<ParallelogramP
         return Optional.of(new SurfacePoint(this, hit, normal, pattern.materialGrid[gridIdx0][gridIdx1]));
     }
 
+    @Override
+    public boolean intersect(ParallelogramPlanePositioning positioning, Ray ray, HitRecord hit) {
+        // Mirrors "cast" step by step, so that both give the exact same hit
+        UnitVector3d normal = positioning.getNormal();
+        double normalX = normal.getX();
+        double normalY = normal.getY();
+        double normalZ = normal.getZ();
+        double fluxNorm =
+                (normalX * ray.getDirectionX()) + (normalY * ray.getDirectionY()) + (normalZ * ray.getDirectionZ());
+        if (fluxNorm == 0) return false;
+        if (fluxNorm > 0) {
+            normalX = -normalX;
+            normalY = -normalY;
+            normalZ = -normalZ;
+            fluxNorm = -fluxNorm;
+        }
+
+        Vector3d origin = positioning.getOrigin();
+        double dist = (((origin.getX() - ray.getOriginX()) * normalX)
+                + ((origin.getY() - ray.getOriginY()) * normalY)
+                + ((origin.getZ() - ray.getOriginZ()) * normalZ)) / fluxNorm;
+        double hitX = ray.getOriginX() + (ray.getDirectionX() * dist);
+        double hitY = ray.getOriginY() + (ray.getDirectionY() * dist);
+        double hitZ = ray.getOriginZ() + (ray.getDirectionZ() * dist);
+
+        double srcToHitFlux = ((hitX - ray.getOriginX()) * ray.getDirectionX())
+                + ((hitY - ray.getOriginY()) * ray.getDirectionY())
+                + ((hitZ - ray.getOriginZ()) * ray.getDirectionZ());
+        if (srcToHitFlux <= 0) return false;
+
+        double pohX = hitX - origin.getX();
+        double pohY = hitY - origin.getY();
+        double pohZ = hitZ - origin.getZ();
+        UnitVector3d dirX = positioning.getDirectionX();
+        double x = (pohX * dirX.getX()) + (pohY * dirX.getY()) + (pohZ * dirX.getZ());
+        if (x < 0 || x > width) return false;
+        UnitVector3d dirY = positioning.getDirectionY();
+        double y = (pohX * dirY.getX()) + (pohY * dirY.getY()) + (pohZ * dirY.getZ());
+        if (y < 0 || y > height) return false;
+
+        int gridIdx0 = (((int) (x / pattern.boxWidth)) % pattern.materialGrid.length);
+        int gridIdx1 = (((int) (y / pattern.boxHeight)) % pattern.materialGrid[0].length);
+
+        hit.set(
+                ray.distanceTo(hitX, hitY, hitZ), hitX, hitY, hitZ, normalX, normalY, normalZ,
+                pattern.materialGrid[gridIdx0][gridIdx1], this);
+        return true;
+    }
+
+    @Override
+    public Prepared prepare(ParallelogramPlanePositioning positioning) {
+        // The subclasses may intersect differently
+        if (getClass() != GridPatternParallelogramPlane.class) return SceneObject.super.prepare(positioning);
+
+        return new PreparedPlane(this, positioning);
+    }
+
+    @Override
+    public Optional<BoundingBox> getBounds(ParallelogramPlanePositioning positioning) {
+        Objects.requireNonNull(positioning, "positioning cannot be null.");
+
+        // The corners are the points on the plane which "cast" hits, whose projections on both directions are at the
+        // limits of the width and the height, i.e. the solutions of [normal; dirX; dirY] * p = (0, x, y).
+        Vector3d n = positioning.getNormal();
+        Vector3d u = positioning.getDirectionX();
+        Vector3d v = positioning.getDirectionY();
+        double det = determinant(
+                n.getX(), n.getY(), n.getZ(),
+                u.getX(), u.getY(), u.getZ(),
+                v.getX(), v.getY(), v.getZ());
+        if (det == 0) return Optional.empty();
+
+        Vector3d[] corners = new Vector3d[4];
+        for (int i = 0; i < corners.length; ++i) {
+            double x = (i & 1) == 0 ? 0 : width;
+            double y = (i & 2) == 0 ? 0 : height;
+            double px = determinant(0, n.getY(), n.getZ(), x, u.getY(), u.getZ(), y, v.getY(), v.getZ()) / det;
+            double py = determinant(n.getX(), 0, n.getZ(), u.getX(), x, u.getZ(), v.getX(), y, v.getZ()) / det;
+            double pz = determinant(n.getX(), n.getY(), 0, u.getX(), u.getY(), x, v.getX(), v.getY(), y) / det;
+            corners[i] = positioning.getOrigin().plus(Vector3d.of(px, py, pz));
+        }
+        return Optional.of(BoundingBox.of(corners));
+    }
+
+    private static double determinant(
+            double a, double b, double c,
+            double d, double e, double f,
+            double g, double h, double i) {
+        return (a * ((e * i) - (f * h))) - (b * ((d * i) - (f * g))) + (c * ((d * h) - (e * g)));
+    }
+
+    /**
+     * The plane at a positioning, with its vectors taken apart into numbers once.
+     */
+    private static final class PreparedPlane implements Prepared {
+
+        private final GridPatternParallelogramPlane plane;
+        private final double originX;
+        private final double originY;
+        private final double originZ;
+        private final double normalX;
+        private final double normalY;
+        private final double normalZ;
+        private final double directionXx;
+        private final double directionXy;
+        private final double directionXz;
+        private final double directionYx;
+        private final double directionYy;
+        private final double directionYz;
+        private final double width;
+        private final double height;
+        private final double boxWidth;
+        private final double boxHeight;
+        private final Material[][] materialGrid;
+
+        private PreparedPlane(GridPatternParallelogramPlane plane, ParallelogramPlanePositioning positioning) {
+            this.plane = plane;
+            this.originX = positioning.getOrigin().getX();
+            this.originY = positioning.getOrigin().getY();
+            this.originZ = positioning.getOrigin().getZ();
+            this.normalX = positioning.getNormal().getX();
+            this.normalY = positioning.getNormal().getY();
+            this.normalZ = positioning.getNormal().getZ();
+            this.directionXx = positioning.getDirectionX().getX();
+            this.directionXy = positioning.getDirectionX().getY();
+            this.directionXz = positioning.getDirectionX().getZ();
+            this.directionYx = positioning.getDirectionY().getX();
+            this.directionYy = positioning.getDirectionY().getY();
+            this.directionYz = positioning.getDirectionY().getZ();
+            this.width = plane.width;
+            this.height = plane.height;
+            this.boxWidth = plane.pattern.boxWidth;
+            this.boxHeight = plane.pattern.boxHeight;
+            this.materialGrid = plane.pattern.materialGrid;
+        }
+
+        @Override
+        public boolean intersect(Ray ray, HitRecord hit) {
+            // Mirrors "GridPatternParallelogramPlane#intersect" step by step
+            double normalX = this.normalX;
+            double normalY = this.normalY;
+            double normalZ = this.normalZ;
+            double fluxNorm =
+                    (normalX * ray.getDirectionX()) + (normalY * ray.getDirectionY()) + (normalZ * ray.getDirectionZ());
+            if (fluxNorm == 0) return false;
+            if (fluxNorm > 0) {
+                normalX = -normalX;
+                normalY = -normalY;
+                normalZ = -normalZ;
+                fluxNorm = -fluxNorm;
+            }
+
+            double dist = (((originX - ray.getOriginX()) * normalX)
+                    + ((originY - ray.getOriginY()) * normalY)
+                    + ((originZ - ray.getOriginZ()) * normalZ)) / fluxNorm;
+            double hitX = ray.getOriginX() + (ray.getDirectionX() * dist);
+            double hitY = ray.getOriginY() + (ray.getDirectionY() * dist);
+            double hitZ = ray.getOriginZ() + (ray.getDirectionZ() * dist);
+
+            double srcToHitFlux = ((hitX - ray.getOriginX()) * ray.getDirectionX())
+                    + ((hitY - ray.getOriginY()) * ray.getDirectionY())
+                    + ((hitZ - ray.getOriginZ()) * ray.getDirectionZ());
+            if (srcToHitFlux <= 0) return false;
+
+            double pohX = hitX - originX;
+            double pohY = hitY - originY;
+            double pohZ = hitZ - originZ;
+            double x = (pohX * directionXx) + (pohY * directionXy) + (pohZ * directionXz);
+            if (x < 0 || x > width) return false;
+            double y = (pohX * directionYx) + (pohY * directionYy) + (pohZ * directionYz);
+            if (y < 0 || y > height) return false;
+
+            // Divided, as multiplying by the inverse puts some of the hits on the borders into the boxes beside
+            int gridIdx0 = (((int) (x / boxWidth)) % materialGrid.length);
+            int gridIdx1 = (((int) (y / boxHeight)) % materialGrid[0].length);
+
+            hit.set(
+                    ray.distanceTo(hitX, hitY, hitZ), hitX, hitY, hitZ, normalX, normalY, normalZ,
+                    materialGrid[gridIdx0][gridIdx1], plane);
+            return true;
+        }
+    }
+
     public static class Pattern {
 
         private final double boxWidth;
@@ -65,5 +260,25 @@ public class GridPatternParallelogramPlane implements SceneObject<ParallelogramP
                 System.arraycopy(row, 0, this.materialGrid[i], 0, row.length);
             }
         }
+
+        public double getBoxWidth() {
+            return boxWidth;
+        }
+
+        public double getBoxHeight() {
+            return boxHeight;
+        }
+
+        public int getColumnCount() {
+            return materialGrid.length;
+        }
+
+        public int getRowCount() {
+            return materialGrid[0].length;
+        }
+
+        public Material getMaterial(int column, int row) {
+            return materialGrid[column][row];
+        }
     }
 }
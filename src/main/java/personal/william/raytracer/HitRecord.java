@@ -0,0 +1,93 @@
+package personal.william.raytracer;
+
+/**
+ * A mutable counterpart of {@link SurfacePoint} meant to be reused by one thread for many casts.
+ */
+public class HitRecord {
+
+    private double distance;
+
+    private double pointX;
+    private double pointY;
+    private double pointZ;
+
+    private double normalX;
+    private double normalY;
+    private double normalZ;
+
+    private Material material;
+    private SceneObject<?> object;
+
+    @Override
+    public String toString() {
+        return "HitRecord{" +
+                "distance=" + distance +
+                ", point={" + pointX + ',' + pointY + ',' + pointZ + '}' +
+                ", normal={" + normalX + ',' + normalY + ',' + normalZ + '}' +
+                ", material=" + material +
+                '}';
+    }
+
+    /**
+     * @param distance the distance from the ray origin to the point, as measured by {@link Ray#distanceTo}
+     */
+    public void set(
+            double distance,
+            double pointX, double pointY, double pointZ,
+            double normalX, double normalY, double normalZ,
+            Material material, SceneObject<?> object) {
+        this.distance = distance;
+        this.pointX = pointX;
+        this.pointY = pointY;
+        this.pointZ = pointZ;
+        this.normalX = normalX;
+        this.normalY = normalY;
+        this.normalZ = normalZ;
+        this.material = material;
+        this.object = object;
+    }
+
+    public SurfacePoint toSurfacePoint() {
+        return new SurfacePoint(
+                object,
+                Vector3d.of(pointX, pointY, pointZ),
+                UnitVector3d.ofNormalized(normalX, normalY, normalZ),
+                material);
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public double getPointX() {
+        return pointX;
+    }
+
+    public double getPointY() {
+        return pointY;
+    }
+
+    public double getPointZ() {
+        return pointZ;
+    }
+
+    public double getNormalX() {
+        return normalX;
+    }
+
+    public double getNormalY() {
+        return normalY;
+    }
+
+    public double getNormalZ() {
+        return normalZ;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public SceneObject<?> getObject() {
+        return object;
+    }
+}
@@ -0,0 +1,53 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.Objects;
+
+public enum ImageFormat {
+
+    PPM("ppm") {
+        @Override
+        public ScanlineWriter open(FileChannel channel, int width, int height) throws IOException {
+            return new PpmWriter(channel, width, height);
+        }
+    },
+    PFM("pfm") {
+        @Override
+        public ScanlineWriter open(FileChannel channel, int width, int height) throws IOException {
+            return new PfmWriter(channel, width, height);
+        }
+    },
+    PNG("png") {
+        @Override
+        public ScanlineWriter open(FileChannel channel, int width, int height) throws IOException {
+            return new PngWriter(channel, width, height);
+        }
+    };
+
+    private final String extension;
+
+    ImageFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public static ImageFormat ofExtension(String extension) {
+        Objects.requireNonNull(extension, "extension cannot be null.");
+
+        String lowerCase = extension.toLowerCase(Locale.ROOT);
+        for (ImageFormat format : values()) {
+            if (format.extension.equals(lowerCase)) return format;
+        }
+        throw new IllegalArgumentException("Unknown image format: " + extension + ".");
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Writes the header of the image at the position of the channel.
+     */
+    public abstract ScanlineWriter open(FileChannel channel, int width, int height) throws IOException;
+}
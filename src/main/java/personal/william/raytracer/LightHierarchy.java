@@ -0,0 +1,265 @@
+package personal.william.raytracer;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A tree over the positions of the point lights of a scene, which picks the lights shining the most on a point without
+ * looking at every one of them. How much a light shines on a point is taken as its intensity over its squared
+ * distance, each node bounds it for all of its lights by their highest intensity over the nearest distance to its
+ * bounds.
+ * <p>
+ * The nodes are kept in flat arrays like those of {@link BoundingVolumeHierarchy}, split at the median of the widest
+ * axis, since the lights have no extent for the surface area heuristic to work on.
+ */
+class LightHierarchy {
+
+    private static final int MAX_LEAF_SIZE = 4;
+
+    // x, y, z of each light
+    private final double[] positions;
+    private final double[] intensities;
+    // The indices of the lights in the order of the tree, where the lights of each leaf are next to each other
+    private final int[] order;
+
+    // minX, minY, minZ, maxX, maxY, maxZ for each node
+    private final double[] nodeBounds;
+    private final double[] nodeMaxIntensities;
+    // The first light of a leaf, or the left child of an interior node
+    private final int[] nodeOffsets;
+    // The number of lights of a leaf, 0 for an interior node
+    private final int[] nodeLightCounts;
+    private int nodeCount = 0;
+
+    /**
+     * @param positions x, y, z of each light
+     */
+    LightHierarchy(double[] positions, double[] intensities) {
+        Objects.requireNonNull(positions, "positions cannot be null.");
+        Objects.requireNonNull(intensities, "intensities cannot be null.");
+        if (positions.length != intensities.length * 3) {
+            throw new IllegalArgumentException("There must be 3 coordinates for every light.");
+        }
+
+        int lightCount = intensities.length;
+        this.positions = positions.clone();
+        this.intensities = intensities.clone();
+        this.order = new int[lightCount];
+        for (int i = 0; i < lightCount; ++i) order[i] = i;
+        int maxNodeCount = Math.max(1, (2 * lightCount) - 1);
+        this.nodeBounds = new double[maxNodeCount * 6];
+        this.nodeMaxIntensities = new double[maxNodeCount];
+        this.nodeOffsets = new int[maxNodeCount];
+        this.nodeLightCounts = new int[maxNodeCount];
+        if (lightCount > 0) {
+            nodeCount = 1;
+            buildNode(0, 0, lightCount);
+        }
+    }
+
+    int getLightCount() {
+        return intensities.length;
+    }
+
+    /**
+     * Picks the lights which shine the most on the point, in the order of their indices.
+     *
+     * @return the number of the lights picked into the selection, no more than its size
+     */
+    int select(double x, double y, double z, Selection selection) {
+        Objects.requireNonNull(selection, "selection cannot be null.");
+        if (nodeCount == 0) return 0;
+
+        selection.ensureNodeCapacity(nodeCount);
+        selection.lightCount = 0;
+        selection.nodeCount = 0;
+        selection.pushNode(0, bound(0, x, y, z));
+        while (selection.nodeCount > 0) {
+            double nodeBound = selection.nodeKeys[0];
+            int node = selection.popNode();
+            // Nothing in the rest of the nodes shines more than the lights picked so far
+            if (selection.isFull() && nodeBound <= selection.lightKeys[0]) break;
+
+            int lightCount = nodeLightCounts[node];
+            if (lightCount > 0) {
+                for (int i = nodeOffsets[node]; i < (nodeOffsets[node] + lightCount); ++i) {
+                    int light = order[i];
+                    selection.offerLight(light, importance(light, x, y, z));
+                }
+                continue;
+            }
+            for (int child = nodeOffsets[node]; child <= (nodeOffsets[node] + 1); ++child) {
+                double childBound = bound(child, x, y, z);
+                if (! selection.isFull() || childBound > selection.lightKeys[0]) selection.pushNode(child, childBound);
+            }
+        }
+        Arrays.sort(selection.lights, 0, selection.lightCount);
+        return selection.lightCount;
+    }
+
+    private double importance(int light, double x, double y, double z) {
+        double dx = positions[light * 3] - x;
+        double dy = positions[(light * 3) + 1] - y;
+        double dz = positions[(light * 3) + 2] - z;
+        return importance(intensities[light], ((dx * dx) + (dy * dy) + (dz * dz)));
+    }
+
+    // The highest importance any light of the node may have at the point
+    private double bound(int node, double x, double y, double z) {
+        int offset = node * 6;
+        double dx = Math.max(0, Math.max(nodeBounds[offset] - x, x - nodeBounds[offset + 3]));
+        double dy = Math.max(0, Math.max(nodeBounds[offset + 1] - y, y - nodeBounds[offset + 4]));
+        double dz = Math.max(0, Math.max(nodeBounds[offset + 2] - z, z - nodeBounds[offset + 5]));
+        return importance(nodeMaxIntensities[node], ((dx * dx) + (dy * dy) + (dz * dz)));
+    }
+
+    private static double importance(double intensity, double distSquare) {
+        // A light right at the point comes first, whatever its intensity is
+        return distSquare > 0 ? intensity / distSquare : Double.POSITIVE_INFINITY;
+    }
+
+    private void buildNode(int node, int start, int end) {
+        int offset = node * 6;
+        Arrays.fill(nodeBounds, offset, (offset + 3), Double.POSITIVE_INFINITY);
+        Arrays.fill(nodeBounds, (offset + 3), (offset + 6), Double.NEGATIVE_INFINITY);
+        double maxIntensity = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; ++i) {
+            int light = order[i];
+            for (int axis = 0; axis < 3; ++axis) {
+                nodeBounds[offset + axis] = Math.min(nodeBounds[offset + axis], positions[(light * 3) + axis]);
+                nodeBounds[offset + axis + 3] = Math.max(nodeBounds[offset + axis + 3], positions[(light * 3) + axis]);
+            }
+            maxIntensity = Math.max(maxIntensity, intensities[light]);
+        }
+        nodeMaxIntensities[node] = maxIntensity;
+
+        if ((end - start) <= MAX_LEAF_SIZE) {
+            nodeOffsets[node] = start;
+            nodeLightCounts[node] = end - start;
+            return;
+        }
+
+        int axis = 0;
+        for (int i = 1; i < 3; ++i) {
+            double extent = nodeBounds[offset + i + 3] - nodeBounds[offset + i];
+            if (extent > (nodeBounds[offset + axis + 3] - nodeBounds[offset + axis])) axis = i;
+        }
+        sortByAxis(start, end, axis);
+
+        int left = nodeCount;
+        nodeCount += 2;
+        nodeOffsets[node] = left;
+        nodeLightCounts[node] = 0;
+        int middle = (start + end) >>> 1;
+        buildNode(left, start, middle);
+        buildNode((left + 1), middle, end);
+    }
+
+    private void sortByAxis(int start, int end, int axis) {
+        Integer[] lights = new Integer[end - start];
+        for (int i = start; i < end; ++i) lights[i - start] = order[i];
+        Arrays.sort(lights, (a, b) -> Double.compare(positions[(a * 3) + axis], positions[(b * 3) + axis]));
+        for (int i = start; i < end; ++i) order[i] = lights[i - start];
+    }
+
+    /**
+     * The lights picked for a point, and the scratch space of picking them, meant to be reused by one thread.
+     */
+    static class Selection {
+
+        // A min-heap of the lights picked so far by their importances, sorted by their indices once done
+        private final int[] lights;
+        private final double[] lightKeys;
+        private int lightCount;
+
+        // A max-heap of the nodes to visit by their bounds
+        private int[] nodes = new int[0];
+        private double[] nodeKeys = new double[0];
+        private int nodeCount;
+
+        /**
+         * @param size the most lights to pick
+         */
+        Selection(int size) {
+            if (size <= 0) throw new IllegalArgumentException("size must be positive.");
+
+            this.lights = new int[size];
+            this.lightKeys = new double[size];
+        }
+
+        /**
+         * @return the index of the light picked at the position
+         */
+        int getLight(int position) {
+            return lights[position];
+        }
+
+        private boolean isFull() {
+            return lightCount == lights.length;
+        }
+
+        private void ensureNodeCapacity(int capacity) {
+            if (nodes.length >= capacity) return;
+
+            nodes = new int[capacity];
+            nodeKeys = new double[capacity];
+        }
+
+        private void offerLight(int light, double key) {
+            if (! isFull()) {
+                int i = lightCount++;
+                while (i > 0 && lightKeys[(i - 1) / 2] > key) {
+                    lights[i] = lights[(i - 1) / 2];
+                    lightKeys[i] = lightKeys[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                lights[i] = light;
+                lightKeys[i] = key;
+            } else if (key > lightKeys[0]) {
+                int i = 0;
+                while (true) {
+                    int child = (2 * i) + 1;
+                    if (child >= lightCount) break;
+                    if ((child + 1) < lightCount && lightKeys[child + 1] < lightKeys[child]) ++child;
+                    if (lightKeys[child] >= key) break;
+                    lights[i] = lights[child];
+                    lightKeys[i] = lightKeys[child];
+                    i = child;
+                }
+                lights[i] = light;
+                lightKeys[i] = key;
+            }
+        }
+
+        private void pushNode(int node, double key) {
+            int i = nodeCount++;
+            while (i > 0 && nodeKeys[(i - 1) / 2] < key) {
+                nodes[i] = nodes[(i - 1) / 2];
+                nodeKeys[i] = nodeKeys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            nodes[i] = node;
+            nodeKeys[i] = key;
+        }
+
+        private int popNode() {
+            int top = nodes[0];
+            --nodeCount;
+            int node = nodes[nodeCount];
+            double key = nodeKeys[nodeCount];
+            int i = 0;
+            while (true) {
+                int child = (2 * i) + 1;
+                if (child >= nodeCount) break;
+                if ((child + 1) < nodeCount && nodeKeys[child + 1] > nodeKeys[child]) ++child;
+                if (nodeKeys[child] <= key) break;
+                nodes[i] = nodes[child];
+                nodeKeys[i] = nodeKeys[child];
+                i = child;
+            }
+            nodes[i] = node;
+            nodeKeys[i] = key;
+            return top;
+        }
+    }
+}
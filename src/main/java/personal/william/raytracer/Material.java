@@ -12,6 +12,11 @@ public class Material {
     private final double refractiveIndex;
     private final double refractiveAlbedo;
 
+    // Extracted once, since the renderer needs them for every hit
+    private final float[] diffuseRgbComponents;
+    // Of the properties, so that equal materials share it in every scene and every run
+    private final int contentId;
+
     public Material(
             double specularAlbedo,
             double diffuseAlbedo, Color diffuseColor,
@@ -24,6 +29,8 @@ public class Material {
         this.specularExponent = specularExponent;
         this.refractiveIndex = refractiveIndex;
         this.refractiveAlbedo = refractiveAlbedo;
+        this.diffuseRgbComponents = diffuseColor == null ? null : diffuseColor.getRGBColorComponents(null);
+        this.contentId = computeContentId();
     }
 
     @Override
@@ -51,6 +58,11 @@ public class Material {
         return diffuseColor;
     }
 
+    // The array is shared, it must not be modified
+    float[] getDiffuseRgbComponents() {
+        return diffuseRgbComponents;
+    }
+
     public double getReflectionAlbedo() {
         return reflectionAlbedo;
     }
@@ -66,4 +78,24 @@ public class Material {
     public double getRefractiveAlbedo() {
         return refractiveAlbedo;
     }
+
+    /**
+     * @return an id made of the properties of the material, the same for equal materials in every run, from 1 to
+     * 2^24 - 1 so that it is exact as a float as well, though different materials may rarely share one
+     */
+    public int getContentId() {
+        return contentId;
+    }
+
+    private int computeContentId() {
+        int id = Double.hashCode(specularAlbedo);
+        id = (31 * id) + Double.hashCode(diffuseAlbedo);
+        id = (31 * id) + (diffuseColor != null ? diffuseColor.getRGB() : 0);
+        id = (31 * id) + Double.hashCode(reflectionAlbedo);
+        id = (31 * id) + Double.hashCode(specularExponent);
+        id = (31 * id) + Double.hashCode(refractiveIndex);
+        id = (31 * id) + Double.hashCode(refractiveAlbedo);
+        id = (id ^ (id >>> 24)) & 0xFFFFFF;
+        return id != 0 ? id : 1;
+    }
 }
@@ -0,0 +1,661 @@
+package personal.william.raytracer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Loads {@link TriangleMesh}es from Wavefront OBJ and Stanford PLY files, streaming them straight into the primitive
+ * arrays of the mesh, so that a model of millions of triangles takes little more memory to load than it takes
+ * afterwards.
+ * <p>
+ * Of an OBJ file, only the vertices ({@code v}), the normals ({@code vn}) and the faces ({@code f}) are read, all
+ * the other statements are skipped. Of a PLY file, in ASCII or binary of either byte order, only the {@code x},
+ * {@code y}, {@code z} and {@code nx}, {@code ny}, {@code nz} of the vertices and the {@code vertex_indices} of the
+ * faces are read, the other elements and properties are skipped. The faces of more than 3 vertices are split into
+ * triangles around their first vertex.
+ * <p>
+ * The normals are only kept if every vertex of the faces has got one, otherwise the triangles are flat. A vertex of
+ * an OBJ file which has different normals on different faces is split into a vertex for each of them.
+ */
+public class MeshFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private MeshFile() {
+    }
+
+    /**
+     * Loads the file as an OBJ file if its name ends with {@code .obj}, or as a PLY file if it ends with {@code .ply}.
+     *
+     * @throws SceneFormatException if the file is malformed
+     */
+    public static TriangleMesh load(Path file, Material material) throws IOException {
+        Objects.requireNonNull(file, "file cannot be null.");
+
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".obj")) return loadObj(file, material);
+        if (name.endsWith(".ply")) return loadPly(file, material);
+        throw new IllegalArgumentException("Not an OBJ or PLY file: " + file);
+    }
+
+    /**
+     * @throws SceneFormatException if the file is malformed
+     */
+    public static TriangleMesh loadObj(Path file, Material material) throws IOException {
+        Objects.requireNonNull(file, "file cannot be null.");
+        Objects.requireNonNull(material, "material cannot be null.");
+
+        try (Input input = new Input(FileChannel.open(file, StandardOpenOption.READ), file)) {
+            try {
+                return readObj(input, material);
+            } catch (IllegalArgumentException ex) {
+                throw new SceneFormatException(input.describe() + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * @throws SceneFormatException if the file is malformed
+     */
+    public static TriangleMesh loadPly(Path file, Material material) throws IOException {
+        Objects.requireNonNull(file, "file cannot be null.");
+        Objects.requireNonNull(material, "material cannot be null.");
+
+        try (Input input = new Input(FileChannel.open(file, StandardOpenOption.READ), file)) {
+            try {
+                return readPly(input, material);
+            } catch (IllegalArgumentException ex) {
+                throw new SceneFormatException(input.describe() + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static TriangleMesh readObj(Input input, Material material) throws IOException {
+        FloatArray vertices = new FloatArray();
+        FloatArray objNormals = new FloatArray();
+        // The vertices split off go in as (-1 - the index of the split), as they are put after all the others
+        IntArray triangles = new IntArray();
+        // The OBJ normal of each vertex, -1 for none yet
+        IntArray vertexNormals = new IntArray();
+        // The vertices split off for another normal, by the vertex and the normal
+        Map<Long, Integer> splits = new HashMap<>();
+        IntArray splitVertices = new IntArray();
+        IntArray splitNormals = new IntArray();
+        boolean anyNormalMissing = false;
+        int[] face = new int[16];
+
+        do {
+            if (! input.nextToken()) continue;
+
+            if (input.isToken("v")) {
+                for (int axis = 0; axis < 3; ++axis) vertices.add(input.nextFloat());
+                vertexNormals.add(-1);
+            } else if (input.isToken("vn")) {
+                for (int axis = 0; axis < 3; ++axis) objNormals.add(input.nextFloat());
+            } else if (input.isToken("f")) {
+                int cornerCount = 0;
+                while (input.nextToken()) {
+                    int vertex = input.objIndex(0, (vertices.size / 3));
+                    int normal = input.objIndex(2, (objNormals.size / 3));
+                    if (normal < 0) {
+                        anyNormalMissing = true;
+                    } else {
+                        int vertexNormal = vertexNormals.get(vertex);
+                        if (vertexNormal < 0) {
+                            vertexNormals.set(vertex, normal);
+                        } else if (vertexNormal != normal) {
+                            long key = (((long) vertex) << 32) | normal;
+                            Integer split = splits.get(key);
+                            if (split == null) {
+                                split = splitVertices.size;
+                                splitVertices.add(vertex);
+                                splitNormals.add(normal);
+                                splits.put(key, split);
+                            }
+                            vertex = -1 - split;
+                        }
+                    }
+                    if (cornerCount == face.length) face = Arrays.copyOf(face, (cornerCount * 2));
+                    face[cornerCount] = vertex;
+                    ++cornerCount;
+                }
+                addFace(face, cornerCount, triangles);
+            }
+        } while (input.nextLine());
+
+        int objVertexCount = vertices.size / 3;
+        for (int i = 0; i < splitVertices.size; ++i) {
+            for (int axis = 0; axis < 3; ++axis) vertices.add(vertices.get((splitVertices.get(i) * 3) + axis));
+            vertexNormals.add(splitNormals.get(i));
+        }
+        int[] triangleArray = triangles.toArray();
+        for (int i = 0; i < triangleArray.length; ++i) {
+            if (triangleArray[i] < 0) triangleArray[i] = objVertexCount - 1 - triangleArray[i];
+        }
+
+        float[] normals = null;
+        if (! anyNormalMissing && objNormals.size > 0) {
+            normals = new float[vertices.size];
+            for (int i = 0; i < vertexNormals.size; ++i) {
+                int normal = vertexNormals.get(i);
+                if (normal < 0) continue;
+
+                for (int axis = 0; axis < 3; ++axis) normals[(i * 3) + axis] = objNormals.get((normal * 3) + axis);
+            }
+        }
+        return new TriangleMesh(material, vertices.toArray(), normals, triangleArray);
+    }
+
+    private static TriangleMesh readPly(Input input, Material material) throws IOException {
+        if (! input.nextToken() || ! input.isToken("ply")) throw new IllegalArgumentException("Not a PLY file.");
+
+        ByteOrder order = null;
+        List<PlyElement> elements = new ArrayList<>();
+        while (true) {
+            if (! input.nextLine()) throw new IllegalArgumentException("The header does not end.");
+            if (! input.nextToken()) continue;
+
+            if (input.isToken("end_header")) {
+                input.nextLine();
+                break;
+            } else if (input.isToken("format")) {
+                String format = input.nextRequiredToken();
+                if (format.equals("binary_little_endian")) {
+                    order = ByteOrder.LITTLE_ENDIAN;
+                } else if (format.equals("binary_big_endian")) {
+                    order = ByteOrder.BIG_ENDIAN;
+                } else if (! format.equals("ascii")) {
+                    throw new IllegalArgumentException("Unknown format: " + format);
+                }
+            } else if (input.isToken("element")) {
+                String name = input.nextRequiredToken();
+                elements.add(new PlyElement(name, input.nextInt()));
+            } else if (input.isToken("property")) {
+                if (elements.isEmpty()) throw new IllegalArgumentException("A property of no element.");
+                PlyElement element = elements.get(elements.size() - 1);
+                String type = input.nextRequiredToken();
+                if (type.equals("list")) {
+                    PlyType countType = PlyType.of(input.nextRequiredToken());
+                    PlyType itemType = PlyType.of(input.nextRequiredToken());
+                    element.properties.add(new PlyProperty(input.nextRequiredToken(), countType, itemType));
+                } else {
+                    element.properties.add(new PlyProperty(input.nextRequiredToken(), null, PlyType.of(type)));
+                }
+            }
+        }
+        input.setBinaryOrder(order);
+
+        float[] vertices = null;
+        float[] normals = null;
+        IntArray triangles = new IntArray();
+        int[] face = new int[16];
+        for (PlyElement element : elements) {
+            if (element.name.equals("vertex")) {
+                int[] positionProperties = element.indicesOf("x", "y", "z");
+                int[] normalProperties = element.indicesOf("nx", "ny", "nz");
+                for (int property : positionProperties) {
+                    if (property < 0) throw new IllegalArgumentException("The vertices have no x, y or z.");
+                }
+                boolean hasNormals = normalProperties[0] >= 0 && normalProperties[1] >= 0 && normalProperties[2] >= 0;
+                vertices = new float[element.count * 3];
+                normals = hasNormals ? new float[element.count * 3] : null;
+                for (int i = 0; i < element.count; ++i) {
+                    for (int p = 0; p < element.properties.size(); ++p) {
+                        PlyProperty property = element.properties.get(p);
+                        if (property.countType != null) {
+                            int count = (int) input.readPly(property.countType);
+                            for (int j = 0; j < count; ++j) input.readPly(property.type);
+                            continue;
+                        }
+
+                        double value = input.readPly(property.type);
+                        for (int axis = 0; axis < 3; ++axis) {
+                            if (p == positionProperties[axis]) vertices[(i * 3) + axis] = (float) value;
+                            if (hasNormals && p == normalProperties[axis]) normals[(i * 3) + axis] = (float) value;
+                        }
+                    }
+                }
+            } else if (element.name.equals("face")) {
+                int indexProperty = element.indicesOf("vertex_indices")[0];
+                if (indexProperty < 0) indexProperty = element.indicesOf("vertex_index")[0];
+                if (indexProperty < 0 || element.properties.get(indexProperty).countType == null) {
+                    throw new IllegalArgumentException("The faces have no vertex_indices list.");
+                }
+                int vertexCount = vertices != null ? (vertices.length / 3) : 0;
+                for (int i = 0; i < element.count; ++i) {
+                    for (int p = 0; p < element.properties.size(); ++p) {
+                        PlyProperty property = element.properties.get(p);
+                        int count = property.countType != null ? (int) input.readPly(property.countType) : 1;
+                        if (count < 0) throw new IllegalArgumentException("Negative list size: " + count);
+                        if (p != indexProperty) {
+                            for (int j = 0; j < count; ++j) input.readPly(property.type);
+                            continue;
+                        }
+
+                        if (count > face.length) face = Arrays.copyOf(face, Math.max(count, (face.length * 2)));
+                        for (int j = 0; j < count; ++j) {
+                            double index = input.readPly(property.type);
+                            if (index < 0 || index >= vertexCount) {
+                                throw new IllegalArgumentException("There is no vertex " + (long) index + ".");
+                            }
+                            face[j] = (int) index;
+                        }
+                        addFace(face, count, triangles);
+                    }
+                }
+            } else {
+                for (int i = 0; i < element.count; ++i) {
+                    for (PlyProperty property : element.properties) {
+                        int count = property.countType != null ? (int) input.readPly(property.countType) : 1;
+                        for (int j = 0; j < count; ++j) input.readPly(property.type);
+                    }
+                }
+            }
+        }
+        if (vertices == null) throw new IllegalArgumentException("There is no vertex element.");
+        return new TriangleMesh(material, vertices, normals, triangles.toArray());
+    }
+
+    private static void addFace(int[] face, int cornerCount, IntArray triangles) {
+        if (cornerCount < 3) throw new IllegalArgumentException("A face needs at least 3 vertices.");
+
+        for (int i = 2; i < cornerCount; ++i) {
+            triangles.add(face[0]);
+            triangles.add(face[i - 1]);
+            triangles.add(face[i]);
+        }
+    }
+
+    private enum PlyType {
+
+        CHAR(1), UCHAR(1), SHORT(2), USHORT(2), INT(4), UINT(4), FLOAT(4), DOUBLE(8);
+
+        private final int size;
+
+        PlyType(int size) {
+            this.size = size;
+        }
+
+        private static PlyType of(String name) {
+            switch (name) {
+                case "char": case "int8": return CHAR;
+                case "uchar": case "uint8": return UCHAR;
+                case "short": case "int16": return SHORT;
+                case "ushort": case "uint16": return USHORT;
+                case "int": case "int32": return INT;
+                case "uint": case "uint32": return UINT;
+                case "float": case "float32": return FLOAT;
+                case "double": case "float64": return DOUBLE;
+                default: throw new IllegalArgumentException("Unknown property type: " + name);
+            }
+        }
+    }
+
+    private static class PlyProperty {
+
+        private final String name;
+        // Null unless a list
+        private final PlyType countType;
+        private final PlyType type;
+
+        private PlyProperty(String name, PlyType countType, PlyType type) {
+            this.name = name;
+            this.countType = countType;
+            this.type = type;
+        }
+    }
+
+    private static class PlyElement {
+
+        private final String name;
+        private final int count;
+        private final List<PlyProperty> properties = new ArrayList<>();
+
+        private PlyElement(String name, int count) {
+            if (count < 0) throw new IllegalArgumentException("Negative element count: " + count);
+
+            this.name = name;
+            this.count = count;
+        }
+
+        /**
+         * @return the index of each of the properties, -1 for those there are not
+         */
+        private int[] indicesOf(String... names) {
+            int[] indices = new int[names.length];
+            Arrays.fill(indices, -1);
+            for (int i = 0; i < names.length; ++i) {
+                for (int p = 0; p < properties.size(); ++p) {
+                    if (properties.get(p).name.equals(names[i])) indices[i] = p;
+                }
+            }
+            return indices;
+        }
+    }
+
+    /**
+     * The bytes of a file read through a buffer refilled as it goes, either as the tokens of lines or as binary
+     * values.
+     */
+    private static class Input implements Closeable {
+
+        private static final float[] POWERS_OF_TEN = {
+                1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+        private final ReadableByteChannel channel;
+        private final Path file;
+        private final byte[] bytes = new byte[BUFFER_SIZE];
+        private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        private int position;
+        private int limit;
+        private boolean ended;
+        private int lineNumber = 1;
+        // Null while the values are text
+        private ByteOrder binaryOrder;
+
+        private byte[] token = new byte[64];
+        private int tokenLength;
+
+        private Input(ReadableByteChannel channel, Path file) {
+            this.channel = channel;
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private String describe() {
+            return binaryOrder != null ? (file + ": ") : (file + ":" + lineNumber + ": ");
+        }
+
+        private void setBinaryOrder(ByteOrder binaryOrder) {
+            this.binaryOrder = binaryOrder;
+            if (binaryOrder != null) buffer.order(binaryOrder);
+        }
+
+        /**
+         * @return whether there are at least the bytes left, reading more of the file if needed
+         */
+        private boolean ensure(int count) throws IOException {
+            while ((limit - position) < count) {
+                if (ended) return false;
+
+                System.arraycopy(bytes, position, bytes, 0, (limit - position));
+                limit -= position;
+                position = 0;
+                buffer.limit(bytes.length).position(limit);
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    ended = true;
+                } else {
+                    limit += read;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the next byte without taking it, or -1 at the end of the file
+         */
+        private int peek() throws IOException {
+            if (position == limit && ! ensure(1)) return -1;
+
+            return bytes[position];
+        }
+
+        /**
+         * Reads the next token of the line, the line ending with {@code #} comments.
+         *
+         * @return whether there is one
+         */
+        private boolean nextToken() throws IOException {
+            int c = peek();
+            while (c == ' ' || c == '\t' || c == '\r') {
+                ++position;
+                c = peek();
+            }
+            if (c < 0 || c == '\n' || c == '#') return false;
+
+            tokenLength = 0;
+            while (c >= 0 && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                if (tokenLength == token.length) token = Arrays.copyOf(token, (tokenLength * 2));
+                token[tokenLength] = (byte) c;
+                ++tokenLength;
+                ++position;
+                c = peek();
+            }
+            return true;
+        }
+
+        private String nextRequiredToken() throws IOException {
+            if (! nextToken()) throw new IllegalArgumentException("Missing value.");
+
+            return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Skips to the start of the next line.
+         *
+         * @return whether there is one
+         */
+        private boolean nextLine() throws IOException {
+            int c = peek();
+            while (c >= 0 && c != '\n') {
+                ++position;
+                c = peek();
+            }
+            if (c < 0) return false;
+
+            ++position;
+            ++lineNumber;
+            return true;
+        }
+
+        /**
+         * Like {@link #nextToken()}, but goes on over the ends of the lines.
+         */
+        private void nextWord() throws IOException {
+            while (! nextToken()) {
+                if (! nextLine()) throw new IllegalArgumentException("The file ends early.");
+            }
+        }
+
+        private boolean isToken(String text) {
+            if (tokenLength != text.length()) return false;
+            for (int i = 0; i < tokenLength; ++i) {
+                if (token[i] != text.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private float nextFloat() throws IOException {
+            if (! nextToken()) throw new IllegalArgumentException("Missing number.");
+
+            return parseFloat(0, tokenLength);
+        }
+
+        private int nextInt() throws IOException {
+            if (! nextToken()) throw new IllegalArgumentException("Missing number.");
+
+            return (int) parseLong(0, tokenLength);
+        }
+
+        /**
+         * Takes the part of the {@code v/vt/vn} token of an OBJ face, resolving the relative indices.
+         *
+         * @return the index from 0, or -1 if the part is not there
+         */
+        private int objIndex(int part, int count) {
+            int start = 0;
+            for (int i = 0; i < part; ++i) {
+                while (start < tokenLength && token[start] != '/') ++start;
+                if (start == tokenLength) return -1;
+                ++start;
+            }
+            int end = start;
+            while (end < tokenLength && token[end] != '/') ++end;
+            if (start == end) {
+                if (part == 0) throw new IllegalArgumentException("A face corner without a vertex.");
+                return -1;
+            }
+
+            long index = parseLong(start, end);
+            long resolved = index < 0 ? (count + index) : (index - 1);
+            if (index == 0 || resolved < 0 || resolved >= count) {
+                throw new IllegalArgumentException("There is no " + (part == 0 ? "vertex " : "normal ") + index + ".");
+            }
+            return (int) resolved;
+        }
+
+        private long parseLong(int start, int end) {
+            boolean negative = start < end && token[start] == '-';
+            int i = negative || (start < end && token[start] == '+') ? (start + 1) : start;
+            if (i == end || (end - i) > 18) throw new IllegalArgumentException("Not an integer: " + tokenText());
+
+            long value = 0;
+            for (; i < end; ++i) {
+                int digit = token[i] - '0';
+                if (digit < 0 || digit > 9) throw new IllegalArgumentException("Not an integer: " + tokenText());
+                value = (value * 10) + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private float parseFloat(int start, int end) {
+            // The plain decimals of up to 7 digits, most of the numbers of the files, are exact in float arithmetic
+            boolean negative = start < end && token[start] == '-';
+            int i = negative || (start < end && token[start] == '+') ? (start + 1) : start;
+            int mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean point = false;
+            boolean anyDigit = false;
+            for (; i < end; ++i) {
+                int c = token[i];
+                if (c == '.' && ! point) {
+                    point = true;
+                    continue;
+                }
+                int digit = c - '0';
+                if (digit < 0 || digit > 9 || digits >= 7) break;
+
+                mantissa = (mantissa * 10) + digit;
+                anyDigit = true;
+                if (mantissa > 0) ++digits;
+                if (point) ++scale;
+            }
+            if (i == end && anyDigit && scale < POWERS_OF_TEN.length) {
+                float value = mantissa / POWERS_OF_TEN[scale];
+                return negative ? -value : value;
+            }
+
+            try {
+                return Float.parseFloat(tokenText(start, end));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Not a number: " + tokenText(), ex);
+            }
+        }
+
+        private String tokenText() {
+            return tokenText(0, tokenLength);
+        }
+
+        private String tokenText(int start, int end) {
+            return new String(token, start, (end - start), StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Reads a value of a PLY property, either binary or as the next word of the text.
+         */
+        private double readPly(PlyType type) throws IOException {
+            if (binaryOrder == null) {
+                nextWord();
+                return type == PlyType.FLOAT || type == PlyType.DOUBLE
+                        ? parseDouble() : (double) parseLong(0, tokenLength);
+            }
+
+            if (! ensure(type.size)) throw new IllegalArgumentException("The file ends early.");
+            double value;
+            switch (type) {
+                case CHAR: value = bytes[position]; break;
+                case UCHAR: value = bytes[position] & 0xFF; break;
+                case SHORT: value = buffer.getShort(position); break;
+                case USHORT: value = buffer.getShort(position) & 0xFFFF; break;
+                case INT: value = buffer.getInt(position); break;
+                case UINT: value = buffer.getInt(position) & 0xFFFFFFFFL; break;
+                case FLOAT: value = buffer.getFloat(position); break;
+                default: value = buffer.getDouble(position); break;
+            }
+            position += type.size;
+            return value;
+        }
+
+        private double parseDouble() {
+            try {
+                return Double.parseDouble(tokenText());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Not a number: " + tokenText(), ex);
+            }
+        }
+    }
+
+    private static class FloatArray {
+
+        private float[] values = new float[1024];
+        private int size;
+
+        private void add(float value) {
+            if (size == values.length) values = Arrays.copyOf(values, (size * 2));
+            values[size] = value;
+            ++size;
+        }
+
+        private float get(int index) {
+            return values[index];
+        }
+
+        private float[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class IntArray {
+
+        private int[] values = new int[1024];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, (size * 2));
+            values[size] = value;
+            ++size;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private void set(int index, int value) {
+            values[index] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -9,6 +9,8 @@ public class ParallelogramPlanePositioning implements Positionable.Positioning {
     private final UnitVector3d directionX;
     private final UnitVector3d directionY;
 
+    private final UnitVector3d normal;
+
     public ParallelogramPlanePositioning(Vector3d origin, UnitVector3d directionX, UnitVector3d directionY) {
         Objects.requireNonNull(origin, "origin cannot be null.");
         Objects.requireNonNull(directionX, "directionX cannot be null.");
@@ -17,6 +19,7 @@ public class ParallelogramPlanePositioning implements Positionable.Positioning {
         this.origin = origin;
         this.directionX = directionX;
         this.directionY = directionY;
+        this.normal = directionX.cross(directionY).normalize();
     }
 
     @Override
@@ -39,4 +42,8 @@ public class ParallelogramPlanePositioning implements Positionable.Positioning {
     public UnitVector3d getDirectionY() {
         return directionY;
     }
+
+    public UnitVector3d getNormal() {
+        return normal;
+    }
 }
@@ -0,0 +1,37 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Waits for the images handed to a writer executor, for the renderers writing while they go on rendering.
+ */
+final class PendingWrites {
+
+    private PendingWrites() {
+    }
+
+    /**
+     * Waits for the write, and throws whatever it has failed with.
+     *
+     * @param write nothing to wait for if {@code null}
+     */
+    static void await(Future<?> write) throws IOException {
+        if (write == null) return;
+
+        try {
+            write.get();
+        } catch (InterruptedException ex) {
+            write.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the image.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes PFM, the RGB of the pixels as raw little endian floats between 0 and 1, or any other floats of 1 or 3
+ * channels through {@link #write(int, int, RowSource)}.
+ * <p>
+ * PFM stores the rows from the bottom up, so each band is written at its place in the file, which the header sizes
+ * up front.
+ */
+public class PfmWriter extends ScanlineWriter {
+
+    private final int channels;
+    private final long rowBytes;
+    private final long dataStart;
+
+    public PfmWriter(FileChannel channel, int width, int height) throws IOException {
+        this(channel, width, height, 3);
+    }
+
+    /**
+     * @param channels 3 for a color PFM, 1 for a grayscale one
+     */
+    public PfmWriter(FileChannel channel, int width, int height, int channels) throws IOException {
+        super(channel, width, height);
+        if (channels != 1 && channels != 3) throw new IllegalArgumentException("channels must be 1 or 3.");
+
+        this.channels = channels;
+        this.rowBytes = (long) width * channels * Float.BYTES;
+        // The negative scale means little endian
+        String type = channels == 3 ? "PF" : "Pf";
+        writeFully(ByteBuffer.wrap(asciiBytes(type + "\n" + width + " " + height + "\n-1.0\n")));
+        dataStart = channel.position();
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Writes the rows of a band of floats, which has the width of the image and follows the rows written so far.
+     */
+    public void write(int bandWidth, int bandHeight, RowSource source) throws IOException {
+        writeBand(bandWidth, bandHeight, firstRow -> writeRows(bandHeight, firstRow, source));
+    }
+
+    @Override
+    protected void writeRows(FrameBuffer band, int firstRow) throws IOException {
+        if (channels != 3) throw new IllegalStateException("The colors need the 3 channels of a color PFM.");
+
+        int[] pixels = band.getPixels();
+        int width = band.getWidth();
+        writeRows(band.getHeight(), firstRow, (buffer, row) -> {
+            for (int i = row * width; i < (row + 1) * width; ++i) {
+                int rgb = pixels[i];
+                buffer.putFloat(((rgb >> 16) & 0xFF) / 255f);
+                buffer.putFloat(((rgb >> 8) & 0xFF) / 255f);
+                buffer.putFloat((rgb & 0xFF) / 255f);
+            }
+        });
+    }
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        // The positional writes leave the position of the channel after the header
+        getChannel().position(dataStart + (getHeight() * rowBytes));
+    }
+
+    private void writeRows(int bandHeight, int firstRow, RowSource source) throws IOException {
+        ByteBuffer buffer = buffer((int) (bandHeight * rowBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int row = bandHeight - 1; row >= 0; --row) {
+            source.putRow(buffer, row);
+        }
+        buffer.flip();
+
+        int lastRow = firstRow + bandHeight - 1;
+        writeFully(buffer, dataStart + ((getHeight() - 1 - lastRow) * rowBytes));
+    }
+
+    public interface RowSource {
+
+        /**
+         * Puts the channels of each pixel of the row of the band into the buffer, from left to right.
+         */
+        void putRow(ByteBuffer buffer, int row);
+    }
+}
@@ -0,0 +1,102 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 8 bit RGB PNG, compressing the rows as they come in into {@code IDAT} chunks of a bounded size.
+ * <p>
+ * The rows take the "Sub" filter, which costs next to nothing and keeps the smooth shading compressing well, and are
+ * deflated for speed rather than size.
+ */
+public class PngWriter extends ScanlineWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 3;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private final byte[] row;
+    private final byte[] chunkData = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private boolean finishing;
+
+    public PngWriter(FileChannel channel, int width, int height) throws IOException {
+        super(channel, width, height);
+        row = new byte[1 + (width * BYTES_PER_PIXEL)];
+
+        writeFully(ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        // 8 bits per sample, RGB, deflate, adaptive filtering, no interlacing
+        header.put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk("IHDR", header.array(), header.position());
+    }
+
+    @Override
+    protected void writeRows(FrameBuffer band, int firstRow) throws IOException {
+        int[] pixels = band.getPixels();
+        int width = band.getWidth();
+        for (int j = 0; j < band.getHeight(); ++j) {
+            row[0] = FILTER_SUB;
+            int previousRgb = 0;
+            for (int i = 0; i < width; ++i) {
+                int rgb = pixels[(j * width) + i];
+                int offset = 1 + (i * BYTES_PER_PIXEL);
+                row[offset] = (byte) ((rgb >> 16) - (previousRgb >> 16));
+                row[offset + 1] = (byte) ((rgb >> 8) - (previousRgb >> 8));
+                row[offset + 2] = (byte) (rgb - previousRgb);
+                previousRgb = rgb;
+            }
+            deflater.setInput(row);
+            deflate();
+        }
+    }
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        try {
+            deflater.finish();
+            finishing = true;
+            deflate();
+            if (chunkLength > 0) flushChunk();
+            writeChunk("IEND", chunkData, 0);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void deflate() throws IOException {
+        while (true) {
+            chunkLength += deflater.deflate(chunkData, chunkLength, (chunkData.length - chunkLength));
+            if (chunkLength == chunkData.length) {
+                flushChunk();
+            } else if (deflater.finished() || (deflater.needsInput() && ! finishing)) {
+                return;
+            }
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        writeChunk("IDAT", chunkData, chunkLength);
+        chunkLength = 0;
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        ByteBuffer buffer = buffer(12 + length);
+        buffer.putInt(length).put(typeBytes).put(data, 0, length).putInt((int) crc.getValue());
+        buffer.flip();
+        writeFully(buffer);
+    }
+}
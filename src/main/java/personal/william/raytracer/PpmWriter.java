@@ -0,0 +1,29 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes binary PPM ({@code P6}), the 8 bit RGB of the pixels as they are without any compression.
+ */
+public class PpmWriter extends ScanlineWriter {
+
+    public PpmWriter(FileChannel channel, int width, int height) throws IOException {
+        super(channel, width, height);
+        writeFully(ByteBuffer.wrap(asciiBytes("P6\n" + width + " " + height + "\n255\n")));
+    }
+
+    @Override
+    protected void writeRows(FrameBuffer band, int firstRow) throws IOException {
+        int[] pixels = band.getPixels();
+        ByteBuffer buffer = buffer(pixels.length * 3);
+        for (int rgb : pixels) {
+            buffer.put((byte) (rgb >> 16));
+            buffer.put((byte) (rgb >> 8));
+            buffer.put((byte) rgb);
+        }
+        buffer.flip();
+        writeFully(buffer);
+    }
+}
@@ -0,0 +1,109 @@
+package personal.william.raytracer;
+
+/**
+ * A mutable ray meant to be reused by one thread for many casts, the direction is expected to be normalized.
+ */
+public class Ray {
+
+    private double originX;
+    private double originY;
+    private double originZ;
+
+    private double directionX;
+    private double directionY;
+    private double directionZ;
+
+    private double inverseDirectionX;
+    private double inverseDirectionY;
+    private double inverseDirectionZ;
+
+    public Ray() {
+    }
+
+    public Ray(Vector3d origin, UnitVector3d direction) {
+        set(origin, direction);
+    }
+
+    @Override
+    public String toString() {
+        return "Ray{" +
+                "origin={" + originX + ',' + originY + ',' + originZ + '}' +
+                ", direction={" + directionX + ',' + directionY + ',' + directionZ + '}' +
+                '}';
+    }
+
+    public Ray set(Vector3d origin, UnitVector3d direction) {
+        return set(
+                origin.getX(), origin.getY(), origin.getZ(),
+                direction.getX(), direction.getY(), direction.getZ());
+    }
+
+    public Ray set(
+            double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.directionX = directionX;
+        this.directionY = directionY;
+        this.directionZ = directionZ;
+        this.inverseDirectionX = 1 / directionX;
+        this.inverseDirectionY = 1 / directionY;
+        this.inverseDirectionZ = 1 / directionZ;
+        return this;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public double getOriginZ() {
+        return originZ;
+    }
+
+    public double getDirectionX() {
+        return directionX;
+    }
+
+    public double getDirectionY() {
+        return directionY;
+    }
+
+    public double getDirectionZ() {
+        return directionZ;
+    }
+
+    public double getInverseDirectionX() {
+        return inverseDirectionX;
+    }
+
+    public double getInverseDirectionY() {
+        return inverseDirectionY;
+    }
+
+    public double getInverseDirectionZ() {
+        return inverseDirectionZ;
+    }
+
+    public Vector3d getOrigin() {
+        return Vector3d.of(originX, originY, originZ);
+    }
+
+    public UnitVector3d getDirection() {
+        return UnitVector3d.ofNormalized(directionX, directionY, directionZ);
+    }
+
+    /**
+     * @return the euclidean distance from the origin to the point, the measure the hits are compared with
+     */
+    public double distanceTo(double x, double y, double z) {
+        double dx = x - originX;
+        double dy = y - originY;
+        double dz = z - originZ;
+        return Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+    }
+}
@@ -0,0 +1,149 @@
+package personal.william.raytracer;
+
+/**
+ * Up to {@link #MAX_SIZE} rays traced through a {@link BoundingVolumeHierarchy} together, each with its own distance
+ * limit, meant to be reused by one thread for many traversals. Only the active rays take part in a traversal.
+ * <p>
+ * The bounds of the origins and of the inverse directions of the active rays make up a frustum, which lets a
+ * traversal skip a node for all of the rays at once, as long as none of the direction components changes its sign
+ * within the packet.
+ */
+public class RayPacket {
+
+    public static final int MAX_SIZE = 16;
+
+    private final Ray[] rays = new Ray[MAX_SIZE];
+    private final double[] maxDistances = new double[MAX_SIZE];
+    private int activeMask;
+
+    private boolean frustumValid;
+    private double maxDistanceBound;
+    // x, y, z
+    private final double[] originMins = new double[3];
+    private final double[] originMaxes = new double[3];
+    private final double[] inverseDirectionMins = new double[3];
+    private final double[] inverseDirectionMaxes = new double[3];
+
+    public RayPacket() {
+        for (int i = 0; i < MAX_SIZE; ++i) rays[i] = new Ray();
+    }
+
+    @Override
+    public String toString() {
+        return "RayPacket{" +
+                "activeMask=" + Integer.toBinaryString(activeMask) +
+                '}';
+    }
+
+    public Ray getRay(int index) {
+        return rays[index];
+    }
+
+    public double getMaxDistance(int index) {
+        return maxDistances[index];
+    }
+
+    public void setMaxDistance(int index, double maxDistance) {
+        maxDistances[index] = maxDistance;
+    }
+
+    /**
+     * @return the bit {@code (1 << index)} is set for each active ray
+     */
+    public int getActiveMask() {
+        return activeMask;
+    }
+
+    /**
+     * Sets the ray at the index, which becomes active.
+     */
+    public void activate(int index, double maxDistance) {
+        maxDistances[index] = maxDistance;
+        activeMask |= (1 << index);
+    }
+
+    public void deactivate(int index) {
+        activeMask &= ~(1 << index);
+    }
+
+    public void deactivateAll() {
+        activeMask = 0;
+    }
+
+    /**
+     * Bounds the active rays for {@link #enterFrustum}, called at the start of every traversal.
+     */
+    void updateFrustum() {
+        frustumValid = activeMask != 0;
+        maxDistanceBound = 0;
+        for (int axis = 0; axis < 3; ++axis) {
+            originMins[axis] = Double.POSITIVE_INFINITY;
+            originMaxes[axis] = Double.NEGATIVE_INFINITY;
+            inverseDirectionMins[axis] = Double.POSITIVE_INFINITY;
+            inverseDirectionMaxes[axis] = Double.NEGATIVE_INFINITY;
+        }
+        for (int mask = activeMask; mask != 0; mask &= (mask - 1)) {
+            int index = Integer.numberOfTrailingZeros(mask);
+            Ray ray = rays[index];
+            maxDistanceBound = Math.max(maxDistanceBound, maxDistances[index]);
+            include(0, ray.getOriginX(), ray.getInverseDirectionX());
+            include(1, ray.getOriginY(), ray.getInverseDirectionY());
+            include(2, ray.getOriginZ(), ray.getInverseDirectionZ());
+        }
+        for (int axis = 0; axis < 3 && frustumValid; ++axis) {
+            double min = inverseDirectionMins[axis];
+            double max = inverseDirectionMaxes[axis];
+            // Otherwise the slabs are not bounded by the corners of the intervals
+            frustumValid = ! Double.isInfinite(min) && ! Double.isInfinite(max) && (min > 0 || max < 0);
+        }
+    }
+
+    private void include(int axis, double origin, double inverseDirection) {
+        originMins[axis] = Math.min(originMins[axis], origin);
+        originMaxes[axis] = Math.max(originMaxes[axis], origin);
+        inverseDirectionMins[axis] = Math.min(inverseDirectionMins[axis], inverseDirection);
+        inverseDirectionMaxes[axis] = Math.max(inverseDirectionMaxes[axis], inverseDirection);
+        if (Double.isNaN(origin) || Double.isNaN(inverseDirection)) frustumValid = false;
+    }
+
+    /**
+     * Bounds the slab test of every active ray against the box at once by interval arithmetic. Rounding is monotonic,
+     * so the corners of the intervals bound the rounded results of every single ray as well.
+     *
+     * @param bounds minX, minY, minZ, maxX, maxY, maxZ from the offset
+     * @return a distance no farther than where any active ray enters the box, or {@code Double.POSITIVE_INFINITY} if
+     * none of them can hit it within their distances
+     */
+    double enterFrustum(double[] bounds, int offset) {
+        if (! frustumValid) return 0;
+
+        // Every ray enters at the farthest of its near slabs, and leaves at the nearest of its far slabs
+        double near = 0;
+        double far = maxDistanceBound;
+        for (int axis = 0; axis < 3; ++axis) {
+            boolean positive = inverseDirectionMins[axis] > 0;
+            double nearPlane = bounds[offset + axis + (positive ? 0 : 3)];
+            double farPlane = bounds[offset + axis + (positive ? 3 : 0)];
+            near = Math.max(near, min4(
+                    (nearPlane - originMaxes[axis]) * inverseDirectionMins[axis],
+                    (nearPlane - originMaxes[axis]) * inverseDirectionMaxes[axis],
+                    (nearPlane - originMins[axis]) * inverseDirectionMins[axis],
+                    (nearPlane - originMins[axis]) * inverseDirectionMaxes[axis]));
+            far = Math.min(far, max4(
+                    (farPlane - originMaxes[axis]) * inverseDirectionMins[axis],
+                    (farPlane - originMaxes[axis]) * inverseDirectionMaxes[axis],
+                    (farPlane - originMins[axis]) * inverseDirectionMins[axis],
+                    (farPlane - originMins[axis]) * inverseDirectionMaxes[axis]));
+            if (near > far) return Double.POSITIVE_INFINITY;
+        }
+        return near;
+    }
+
+    private static double min4(double a, double b, double c, double d) {
+        return Math.min(Math.min(a, b), Math.min(c, d));
+    }
+
+    private static double max4(double a, double b, double c, double d) {
+        return Math.max(Math.max(a, b), Math.max(c, d));
+    }
+}
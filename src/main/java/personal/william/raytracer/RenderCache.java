@@ -0,0 +1,467 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Keeps the tiles rendered by the cameras using it, see {@link Camera#withRenderCache}, so that a tile is only
+ * rendered again once the scene has changed where its rays have gone. The images are told apart by the SHA-256 of the
+ * camera, the settings which change the pixels, the size of the image and the background of the scene, and the tiles
+ * by where they are in the image, so the renders of a region, or those cancelled halfway, leave the tiles they have
+ * finished for the next render to reuse.
+ * <p>
+ * Each tile keeps what it has been rendered from, a {@link SceneManifest} of the objects and the lights of the scene,
+ * along with the box its rays have swept and whether they have hit anything, see {@link TileDependencies}. A tile of
+ * another scene is still reused if none of the objects changed since has old or new bounds meeting the box, and the
+ * lights have not changed or it has not been lit by them, and is then kept as rendered from the new scene.
+ * <p>
+ * The tiles most recently used are kept in memory, and also in files if the cache has a directory, both up to their
+ * sizes, the least recently used being dropped first, and the manifests of the scenes along with them. The files are
+ * memory-mapped when read, and their modification times keep their order of use from one run to the next.
+ */
+public class RenderCache {
+
+    // Part of the keys of the images and the files, to be bumped whenever the renderer changes any pixel of the same
+    // image, or the files change
+    static final int VERSION = 2;
+
+    private static final String TILE_EXTENSION = ".tile";
+    private static final String SCENE_EXTENSION = ".scene";
+    // The hex key of the scene the tile has been rendered from, after the version
+    private static final int SCENE_KEY_BYTES = 64;
+    // Then the swept boxes, whether the tile has been lit, and the pixels
+    private static final int TILE_HEADER_BYTES =
+            Integer.BYTES + SCENE_KEY_BYTES + (TileDependencies.BOX_COUNT * 6 * Double.BYTES) + Integer.BYTES;
+    // The manifests kept in memory, each of the tiles of the others having to read theirs from its file
+    private static final int MAX_MEMORY_SCENE_COUNT = 8;
+
+    // Null for the cache kept in memory only
+    private final Path directory;
+    private final long maxMemorySize;
+    private final long maxDiskSize;
+
+    // The tiles by their keys, the least recently used first, their pixels either arrays or mapped files
+    private final Map<String, CachedTile> memoryTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, SceneManifest> memoryScenes = new LinkedHashMap<>(16, 0.75f, true);
+    // The sizes of the files by their names, in the same order
+    private final Map<String, Long> diskFiles = new LinkedHashMap<>(16, 0.75f, true);
+    // The changes to the scene of this key by the keys of the scenes changed from, empty if there is no manifest of
+    // the changed scene any more
+    private String diffedSceneKey;
+    private final Map<String, Optional<SceneManifest.Diff>> diffs = new HashMap<>();
+    // The scene whose file has been written or touched last
+    private String keptSceneKey;
+    private long memorySize;
+    private long diskSize;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxMemorySize the bytes of the tiles kept in memory
+     */
+    public RenderCache(long maxMemorySize) {
+        if (maxMemorySize < 0) throw new IllegalArgumentException("maxMemorySize cannot be negative.");
+
+        this.directory = null;
+        this.maxMemorySize = maxMemorySize;
+        this.maxDiskSize = 0;
+    }
+
+    /**
+     * Takes over the tiles and the scenes already in the directory, which may have been left by another run.
+     *
+     * @param maxMemorySize the bytes of the tiles kept in memory
+     * @param maxDiskSize the bytes of the files of the tiles and the scenes kept in the directory
+     */
+    public RenderCache(Path directory, long maxMemorySize, long maxDiskSize) throws IOException {
+        Objects.requireNonNull(directory, "directory cannot be null.");
+        if (maxMemorySize < 0) throw new IllegalArgumentException("maxMemorySize cannot be negative.");
+        if (maxDiskSize < 0) throw new IllegalArgumentException("maxDiskSize cannot be negative.");
+
+        this.directory = directory;
+        this.maxMemorySize = maxMemorySize;
+        this.maxDiskSize = maxDiskSize;
+
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        String glob = "*{" + TILE_EXTENSION + "," + SCENE_EXTENSION + "}";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) files.add(file);
+        }
+        List<FileTime> times = new ArrayList<>(files.size());
+        for (Path file : files) times.add(Files.getLastModifiedTime(file));
+        List<Integer> indices = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); ++i) indices.add(i);
+        indices.sort((a, b) -> times.get(a).compareTo(times.get(b)));
+        for (int index : indices) {
+            Path file = files.get(index);
+            long size = Files.size(file);
+            diskFiles.put(file.getFileName().toString(), size);
+            diskSize += size;
+        }
+        synchronized (this) {
+            evictFiles();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RenderCache{" +
+                "directory=" + directory +
+                ", memorySize=" + memorySize +
+                ", diskSize=" + diskSize +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                '}';
+    }
+
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    public synchronized long getDiskSize() {
+        return diskSize;
+    }
+
+    /**
+     * @return the tiles found in the cache instead of being rendered
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Copies the pixels of the tile of the image into the frame, if the cache has them as rendered from the scene of
+     * the manifest, or from another scene without any change the tile depends on.
+     *
+     * @param imageKey the key of the whole image
+     * @param frameX where the frame starts in the image
+     * @param frameY where the frame starts in the image
+     * @return whether the cache has had the tile
+     */
+    boolean read(String imageKey, SceneManifest manifest, Tile tile, FrameBuffer frame, int frameX, int frameY) {
+        String key = getTileKey(imageKey, tile);
+        CachedTile cached;
+        boolean onDisk;
+        synchronized (this) {
+            cached = memoryTiles.get(key);
+            onDisk = cached == null && diskFiles.get(key + TILE_EXTENSION) != null;
+        }
+        if (cached == null && onDisk) cached = map(key, tile);
+        if (cached != null && ! isCurrent(cached, manifest)) cached = null;
+        synchronized (this) {
+            if (cached == null) {
+                ++missCount;
+                return false;
+            }
+            ++hitCount;
+        }
+
+        // A view of its own, as the other threads may be reading the same tile
+        IntBuffer view = cached.pixels.duplicate();
+        int[] framePixels = frame.getPixels();
+        for (int y = 0; y < tile.getHeight(); ++y) {
+            view.get(framePixels, (((tile.getY() - frameY + y) * frame.getWidth()) + (tile.getX() - frameX)),
+                    tile.getWidth());
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the pixels of the tile of the image, which the frame holds, as rendered from the scene of the manifest.
+     */
+    void write(
+            String imageKey, SceneManifest manifest, Tile tile, TileDependencies dependencies, FrameBuffer frame,
+            int frameX, int frameY) {
+        String key = getTileKey(imageKey, tile);
+        int[] pixels = new int[tile.getWidth() * tile.getHeight()];
+        int[] framePixels = frame.getPixels();
+        for (int y = 0; y < tile.getHeight(); ++y) {
+            System.arraycopy(
+                    framePixels, (((tile.getY() - frameY + y) * frame.getWidth()) + (tile.getX() - frameX)),
+                    pixels, (y * tile.getWidth()), tile.getWidth());
+        }
+        // A copy, as the renderer goes on recording into its own for the next tile
+        CachedTile cached = new CachedTile(
+                IntBuffer.wrap(pixels), manifest.getKey(),
+                new TileDependencies(dependencies.getBoxes(), dependencies.isLit()));
+        keepScene(manifest);
+        synchronized (this) {
+            remember(key, cached);
+        }
+        if (directory == null) return;
+
+        try {
+            long size = writeTileFile(key, cached, pixels);
+            synchronized (this) {
+                Long oldSize = diskFiles.put(key + TILE_EXTENSION, size);
+                diskSize += size - (oldSize != null ? oldSize : 0);
+                evictFiles();
+            }
+        } catch (IOException ex) {
+            // The tile is still in memory, and is simply rendered again once dropped from there
+        }
+    }
+
+    /**
+     * Restamps the tile in memory as rendered from the scene of the manifest if none of the changes from its own scene
+     * affect it. Its file keeps the scene it has been rendered from, which the next run diffs from instead, as
+     * rewriting the files would cost about as much as rendering the tiles again.
+     *
+     * @return whether the tile is of the scene of the manifest
+     */
+    private boolean isCurrent(CachedTile cached, SceneManifest manifest) {
+        String sceneKey;
+        synchronized (this) {
+            sceneKey = cached.sceneKey;
+        }
+        if (sceneKey.equals(manifest.getKey())) return true;
+
+        SceneManifest.Diff diff = getDiff(sceneKey, manifest);
+        if (diff == null || cached.dependencies.isAffectedBy(diff)) return false;
+
+        keepScene(manifest);
+        synchronized (this) {
+            cached.sceneKey = manifest.getKey();
+        }
+        return true;
+    }
+
+    /**
+     * @return the changes from the scene of the key to the scene of the manifest, or null if there is no manifest of
+     * the former any more
+     */
+    private SceneManifest.Diff getDiff(String oldSceneKey, SceneManifest manifest) {
+        SceneManifest oldManifest;
+        boolean onDisk;
+        synchronized (this) {
+            if (! manifest.getKey().equals(diffedSceneKey)) {
+                diffedSceneKey = manifest.getKey();
+                diffs.clear();
+            }
+            Optional<SceneManifest.Diff> diff = diffs.get(oldSceneKey);
+            if (diff != null) return diff.orElse(null);
+
+            oldManifest = memoryScenes.get(oldSceneKey);
+            onDisk = oldManifest == null && diskFiles.get(oldSceneKey + SCENE_EXTENSION) != null;
+        }
+        // Diffed by each of the threads getting here first, which is only once for each of the old scenes
+        if (oldManifest == null && onDisk) oldManifest = readScene(oldSceneKey);
+        SceneManifest.Diff diff = oldManifest != null ? manifest.diff(oldManifest) : null;
+        synchronized (this) {
+            if (manifest.getKey().equals(diffedSceneKey)) diffs.put(oldSceneKey, Optional.ofNullable(diff));
+            // Kept as long as the files of the tiles rendered from it
+            touchDiskFile(oldSceneKey + SCENE_EXTENSION);
+        }
+        return diff;
+    }
+
+    /**
+     * Keeps the manifest in memory, and in its file if the cache has a directory, as the most recently used scene.
+     */
+    private void keepScene(SceneManifest manifest) {
+        String sceneKey = manifest.getKey();
+        String fileName = sceneKey + SCENE_EXTENSION;
+        synchronized (this) {
+            memoryScenes.put(sceneKey, manifest);
+            Iterator<SceneManifest> eldest = memoryScenes.values().iterator();
+            while (memoryScenes.size() > MAX_MEMORY_SCENE_COUNT) {
+                eldest.next();
+                eldest.remove();
+            }
+            if (directory == null) return;
+            if (touchDiskFile(fileName) && sceneKey.equals(keptSceneKey)) return;
+
+            // Written under the lock, so that the threads do not all write it at once
+            keptSceneKey = sceneKey;
+            Path file = directory.resolve(fileName);
+            try {
+                if (diskFiles.get(fileName) != null) {
+                    // Used now, as far as the next run can tell
+                    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                } else {
+                    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + manifest.getByteSize());
+                    buffer.putInt(VERSION);
+                    manifest.write(buffer);
+                    buffer.flip();
+                    long size = writeFile(fileName, buffer);
+                    diskFiles.put(fileName, size);
+                    diskSize += size;
+                    evictFiles();
+                }
+            } catch (IOException ex) {
+                // The tiles of the scene are only reused while it is in memory
+            }
+        }
+    }
+
+    /**
+     * @return the manifest of the scene read from its file, or null if the file is gone
+     */
+    private SceneManifest readScene(String sceneKey) {
+        Path file = directory.resolve(sceneKey + SCENE_EXTENSION);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != VERSION) throw new IOException("Broken scene: " + file);
+            SceneManifest manifest = SceneManifest.read(buffer);
+            if (buffer.hasRemaining() || ! manifest.getKey().equals(sceneKey)) {
+                throw new IOException("Broken scene: " + file);
+            }
+            // Used now, as far as the next run can tell
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return manifest;
+        } catch (IOException | RuntimeException ex) {
+            forgetFile(sceneKey + SCENE_EXTENSION);
+            return null;
+        }
+    }
+
+    /**
+     * @return the tile mapped into memory from its file, or null if the file is gone
+     */
+    private CachedTile map(String key, Tile tile) {
+        Path file = directory.resolve(key + TILE_EXTENSION);
+        long size = (long) tile.getWidth() * tile.getHeight() * Integer.BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != (TILE_HEADER_BYTES + size)) throw new IOException("Broken tile: " + file);
+
+            ByteBuffer header = ByteBuffer.allocate(TILE_HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) throw new IOException("Broken tile: " + file);
+            }
+            header.flip();
+            if (header.getInt() != VERSION) throw new IOException("Broken tile: " + file);
+            byte[] sceneKey = new byte[SCENE_KEY_BYTES];
+            header.get(sceneKey);
+            double[] boxes = new double[TileDependencies.BOX_COUNT * 6];
+            for (int i = 0; i < boxes.length; ++i) boxes[i] = header.getDouble();
+            boolean lit = header.getInt() != 0;
+
+            IntBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, TILE_HEADER_BYTES, size).asIntBuffer();
+            CachedTile cached = new CachedTile(
+                    pixels, new String(sceneKey, StandardCharsets.US_ASCII), new TileDependencies(boxes, lit));
+            // Used now, as far as the next run can tell
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                remember(key, cached);
+            }
+            return cached;
+        } catch (IOException | UncheckedIOException ex) {
+            forgetFile(key + TILE_EXTENSION);
+            return null;
+        }
+    }
+
+    private long writeTileFile(String key, CachedTile cached, int[] pixels) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TILE_HEADER_BYTES + (pixels.length * Integer.BYTES));
+        buffer.putInt(VERSION);
+        buffer.put(cached.sceneKey.getBytes(StandardCharsets.US_ASCII));
+        for (double bound : cached.dependencies.getBoxes()) buffer.putDouble(bound);
+        buffer.putInt(cached.dependencies.isLit() ? 1 : 0);
+        buffer.asIntBuffer().put(pixels);
+        buffer.rewind();
+        return writeFile(key + TILE_EXTENSION, buffer);
+    }
+
+    private long writeFile(String fileName, ByteBuffer buffer) throws IOException {
+        Path file = directory.resolve(fileName);
+        Path tempFile = Files.createTempFile(directory, fileName, ".tmp");
+        long size = buffer.remaining();
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return size;
+    }
+
+    // Guarded by the cache
+    private void remember(String key, CachedTile cached) {
+        CachedTile oldCached = memoryTiles.put(key, cached);
+        memorySize += ((long) cached.pixels.capacity() * Integer.BYTES)
+                - (oldCached != null ? ((long) oldCached.pixels.capacity() * Integer.BYTES) : 0);
+        Iterator<CachedTile> eldest = memoryTiles.values().iterator();
+        while (memorySize > maxMemorySize && eldest.hasNext()) {
+            memorySize -= (long) eldest.next().pixels.capacity() * Integer.BYTES;
+            eldest.remove();
+        }
+    }
+
+    // Guarded by the cache. Moves the file, if there is one, to the end of the order of use, the files being evicted by
+    // the order they have been looked up in
+    private boolean touchDiskFile(String fileName) {
+        return diskFiles.get(fileName) != null;
+    }
+
+    private void forgetFile(String fileName) {
+        synchronized (this) {
+            Long oldSize = diskFiles.remove(fileName);
+            if (oldSize != null) diskSize -= oldSize;
+        }
+        deleteQuietly(directory.resolve(fileName));
+    }
+
+    // Guarded by the cache
+    private void evictFiles() {
+        Iterator<Map.Entry<String, Long>> eldest = diskFiles.entrySet().iterator();
+        while (diskSize > maxDiskSize && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            diskSize -= entry.getValue();
+            eldest.remove();
+            // The tiles mapped from it stay readable until they are dropped from the memory as well
+            deleteQuietly(directory.resolve(entry.getKey()));
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            // Taken over as a file of unknown use by the next run, if still there
+        }
+    }
+
+    private static String getTileKey(String imageKey, Tile tile) {
+        return imageKey + "-" + tile.getX() + "-" + tile.getY() + "-" + tile.getWidth() + "x" + tile.getHeight();
+    }
+
+    private static class CachedTile {
+
+        private final IntBuffer pixels;
+        // Guarded by the cache, restamped whenever the tile is reused for another scene
+        private String sceneKey;
+        private final TileDependencies dependencies;
+
+        private CachedTile(IntBuffer pixels, String sceneKey, TileDependencies dependencies) {
+            this.pixels = pixels;
+            this.sceneKey = sceneKey;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package personal.william.raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders frames on {@link RenderWorker}s, each of which may run on a machine of its own. The scene and the camera
+ * are sent to every worker once per frame, then the tiles are handed out to the workers as they finish the earlier
+ * ones, and the pixels they send back are put together into the frame.
+ * <p>
+ * A few tiles are sent ahead to every worker, so that the next one is already there when a tile is done. The tiles of
+ * a worker which fails or goes away are handed out again to the others, the frame fails only once none of the
+ * workers is left.
+ */
+public class RenderCoordinator {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    // The tiles sent to a worker ahead of the one it is rendering
+    private static final int MAX_TILES_IN_FLIGHT = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    // A worker taking longer than this for a tile is taken for lost
+    private static final int READ_TIMEOUT_MILLIS = 600_000;
+    // How often the idle workers look for the tiles handed back by the failed ones
+    private static final long POLL_MILLIS = 100;
+
+    private final List<InetSocketAddress> workers;
+    private final int tileSize;
+
+    public RenderCoordinator(List<InetSocketAddress> workers) {
+        this(workers, DEFAULT_TILE_SIZE);
+    }
+
+    public RenderCoordinator(List<InetSocketAddress> workers, int tileSize) {
+        Objects.requireNonNull(workers, "workers cannot be null.");
+        if (workers.isEmpty()) throw new IllegalArgumentException("workers cannot be empty.");
+        if (tileSize <= 0) throw new IllegalArgumentException("tileSize must be positive.");
+        if (((long) tileSize * tileSize) > RenderWorker.MAX_TILE_PIXELS) {
+            throw new IllegalArgumentException("The workers do not take tiles of " + tileSize + "x" + tileSize + ".");
+        }
+
+        this.workers = Collections.unmodifiableList(new ArrayList<>(workers));
+        for (InetSocketAddress worker : this.workers) Objects.requireNonNull(worker, "worker cannot be null.");
+        this.tileSize = tileSize;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderCoordinator{" +
+                "workers=" + workers +
+                ", tileSize=" + tileSize +
+                '}';
+    }
+
+    /**
+     * Renders the scene the camera renders, as it is now, on the workers.
+     *
+     * @throws IllegalArgumentException if the scene cannot be written, see {@link SceneFile#write}
+     * @throws IOException if all of the workers have failed before the frame is done
+     */
+    public FrameBuffer render(Camera camera, int width, int height) throws IOException {
+        Objects.requireNonNull(camera, "camera cannot be null.");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image cannot be empty.");
+
+        ByteArrayOutputStream jobBytes = new ByteArrayOutputStream();
+        try (DataOutputStream job = new DataOutputStream(jobBytes)) {
+            ByteArrayOutputStream sceneBytes = new ByteArrayOutputStream();
+            try (DataOutputStream scene = new DataOutputStream(sceneBytes)) {
+                SceneFile.write(camera, scene);
+            }
+            job.writeInt(RenderWorker.MAGIC);
+            job.writeInt(RenderWorker.VERSION);
+            job.writeInt(sceneBytes.size());
+            sceneBytes.writeTo(job);
+            job.writeInt(width);
+            job.writeInt(height);
+        }
+
+        FrameBuffer frame = new FrameBuffer(width, height);
+        List<Tile> tiles = TileScheduler.createTiles(new Tile(0, 0, width, height), tileSize, TileOrder.SCANLINE);
+        BlockingQueue<Integer> pendingTiles = new LinkedBlockingQueue<>();
+        for (int i = 0; i < tiles.size(); ++i) pendingTiles.add(i);
+        AtomicInteger remainingCount = new AtomicInteger(tiles.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        IOException failure = null;
+        try {
+            List<Future<?>> connections = new ArrayList<>();
+            for (InetSocketAddress worker : workers) {
+                Connection connection =
+                        new Connection(worker, jobBytes.toByteArray(), tiles, pendingTiles, remainingCount, frame);
+                connections.add(executor.submit(() -> {
+                    connection.run();
+                    return null;
+                }));
+            }
+            for (Future<?> connection : connections) {
+                try {
+                    connection.get();
+                } catch (ExecutionException ex) {
+                    if (failure == null) failure = new IOException("All of the workers have failed.");
+                    failure.addSuppressed(ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering on the workers.");
+        } finally {
+            executor.shutdownNow();
+        }
+        if (remainingCount.get() > 0) {
+            throw failure != null ? failure : new IOException(remainingCount.get() + " tiles have not been rendered.");
+        }
+        return frame;
+    }
+
+    /**
+     * The job of one worker, which takes the tiles from the pending ones for as long as any tile is not done yet.
+     */
+    private static class Connection {
+
+        private final InetSocketAddress worker;
+        private final byte[] job;
+        private final List<Tile> tiles;
+        private final BlockingQueue<Integer> pendingTiles;
+        private final AtomicInteger remainingCount;
+        private final FrameBuffer frame;
+        private final Deque<Integer> tilesInFlight = new ArrayDeque<>();
+
+        private Connection(
+                InetSocketAddress worker, byte[] job, List<Tile> tiles, BlockingQueue<Integer> pendingTiles,
+                AtomicInteger remainingCount, FrameBuffer frame) {
+            this.worker = worker;
+            this.job = job;
+            this.tiles = tiles;
+            this.pendingTiles = pendingTiles;
+            this.remainingCount = remainingCount;
+            this.frame = frame;
+        }
+
+        private void run() throws IOException, InterruptedException {
+            try (Socket socket = new Socket()) {
+                socket.connect(worker, CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                out.write(job);
+
+                byte[] bytes = new byte[0];
+                while (remainingCount.get() > 0) {
+                    while (tilesInFlight.size() < MAX_TILES_IN_FLIGHT) {
+                        Integer tileIndex = tilesInFlight.isEmpty()
+                                ? pendingTiles.poll(POLL_MILLIS, TimeUnit.MILLISECONDS) : pendingTiles.poll();
+                        if (tileIndex == null) break;
+
+                        Tile tile = tiles.get(tileIndex);
+                        out.writeInt(tileIndex);
+                        out.writeInt(tile.getX());
+                        out.writeInt(tile.getY());
+                        out.writeInt(tile.getWidth());
+                        out.writeInt(tile.getHeight());
+                        tilesInFlight.addLast(tileIndex);
+                    }
+                    if (tilesInFlight.isEmpty()) continue;
+
+                    out.flush();
+                    int tileIndex = in.readInt();
+                    if (tileIndex != tilesInFlight.peekFirst()) {
+                        throw new IOException(worker + " has sent tile " + tileIndex + " out of order.");
+                    }
+                    Tile tile = tiles.get(tileIndex);
+                    int size = tile.getWidth() * tile.getHeight() * 4;
+                    if (bytes.length < size) bytes = new byte[size];
+                    in.readFully(bytes, 0, size);
+                    IntBuffer pixels = ByteBuffer.wrap(bytes, 0, size).asIntBuffer();
+                    for (int y = 0; y < tile.getHeight(); ++y) {
+                        pixels.get(frame.getPixels(), ((tile.getY() + y) * frame.getWidth()) + tile.getX(),
+                                tile.getWidth());
+                    }
+                    tilesInFlight.removeFirst();
+                    remainingCount.decrementAndGet();
+                }
+                out.writeInt(RenderWorker.END_OF_JOB);
+                out.flush();
+            } catch (IOException | InterruptedException | RuntimeException ex) {
+                pendingTiles.addAll(tilesInFlight);
+                tilesInFlight.clear();
+                throw ex;
+            }
+        }
+    }
+}
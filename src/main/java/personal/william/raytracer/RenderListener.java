@@ -0,0 +1,23 @@
+package personal.william.raytracer;
+
+/**
+ * Receives the progress of a render started by {@link Camera#renderAsync} or {@link Camera#renderProgressively}. The
+ * methods are called from the rendering threads, the frame is the one being rendered into.
+ */
+public interface RenderListener {
+
+    RenderListener NONE = new RenderListener() {
+    };
+
+    /**
+     * Called as soon as a tile of a pass is done, its pixels can then be read from the frame.
+     */
+    default void onTileRendered(FrameBuffer frame, Tile tile, int pass) {
+    }
+
+    /**
+     * Called once all the tiles of a pass are done, the last pass is {@code passCount - 1}.
+     */
+    default void onPassCompleted(FrameBuffer frame, int pass, int passCount) {
+    }
+}
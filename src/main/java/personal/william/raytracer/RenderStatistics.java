@@ -0,0 +1,358 @@
+package personal.william.raytracer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the renders of the cameras set up with it, see {@link Camera#withStatistics}, are doing: the rays of
+ * each kind, the intersection tests against each class of objects, the hits, the deepest path and the time spent on
+ * each tile. The counts add up over all of the renders until they are reset.
+ * <p>
+ * Each rendering thread counts on its own, and adds its counts to the totals once per tile, so the counting hardly
+ * slows the renders down, and the cameras without any statistics do not count at all. The totals can be watched over
+ * JMX once registered, see {@link #registerMBean}, and each tile is also recorded as an event by the JDK Flight
+ * Recorder while it is recording.
+ * <p>
+ * With the heatmap on, the intersection tests are also counted for each pixel of the last image rendered, see
+ * {@link #getHeatmap}, which shows where the scene is the most costly to render.
+ */
+public class RenderStatistics implements RenderStatisticsMXBean {
+
+    // The Flight Recorder has only come with Java 8u262
+    private static final boolean FLIGHT_RECORDER_AVAILABLE = isFlightRecorderAvailable();
+
+    private final boolean heatmapEnabled;
+
+    private final LongAdder primaryRays = new LongAdder();
+    private final LongAdder shadowRays = new LongAdder();
+    private final LongAdder reflectionRays = new LongAdder();
+    private final LongAdder refractionRays = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final ConcurrentMap<Class<?>, LongAdder> intersectionTests = new ConcurrentHashMap<>();
+    private final LongAccumulator maxRayDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder tileCount = new LongAdder();
+    private final LongAdder tileNanos = new LongAdder();
+    private final LongAccumulator maxTileNanos = new LongAccumulator(Math::max, 0);
+
+    private volatile Heatmap heatmap;
+    private ObjectName mBeanName;
+
+    public RenderStatistics() {
+        this(false);
+    }
+
+    /**
+     * @param heatmapEnabled whether the intersection tests are also counted for each pixel
+     */
+    public RenderStatistics(boolean heatmapEnabled) {
+        this.heatmapEnabled = heatmapEnabled;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderStatistics{" +
+                "primaryRays=" + getPrimaryRays() +
+                ", shadowRays=" + getShadowRays() +
+                ", reflectionRays=" + getReflectionRays() +
+                ", refractionRays=" + getRefractionRays() +
+                ", hits=" + getHits() +
+                ", intersectionTests=" + getIntersectionTestsByType() +
+                ", maxRayDepth=" + getMaxRayDepth() +
+                ", tileCount=" + getTileCount() +
+                ", totalTileNanos=" + getTotalTileNanos() +
+                ", maxTileNanos=" + getMaxTileNanos() +
+                '}';
+    }
+
+    public boolean isHeatmapEnabled() {
+        return heatmapEnabled;
+    }
+
+    @Override
+    public long getPrimaryRays() {
+        return primaryRays.sum();
+    }
+
+    @Override
+    public long getShadowRays() {
+        return shadowRays.sum();
+    }
+
+    @Override
+    public long getReflectionRays() {
+        return reflectionRays.sum();
+    }
+
+    @Override
+    public long getRefractionRays() {
+        return refractionRays.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getIntersectionTests() {
+        long sum = 0;
+        for (LongAdder tests : intersectionTests.values()) sum += tests.sum();
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getIntersectionTestsByType() {
+        Map<String, Long> tests = new TreeMap<>();
+        intersectionTests.forEach((type, count) -> tests.merge(type.getSimpleName(), count.sum(), Long::sum));
+        return tests;
+    }
+
+    /**
+     * @return the intersection tests against the objects of the class
+     */
+    public long getIntersectionTests(Class<?> type) {
+        LongAdder tests = intersectionTests.get(type);
+        return tests != null ? tests.sum() : 0;
+    }
+
+    @Override
+    public int getMaxRayDepth() {
+        return (int) maxRayDepth.get();
+    }
+
+    @Override
+    public long getTileCount() {
+        return tileCount.sum();
+    }
+
+    @Override
+    public long getTotalTileNanos() {
+        return tileNanos.sum();
+    }
+
+    @Override
+    public long getMaxTileNanos() {
+        return maxTileNanos.get();
+    }
+
+    /**
+     * Sets all of the counts back to zero, and drops the heatmap. The tiles being rendered meanwhile may still be
+     * added afterwards.
+     */
+    @Override
+    public void reset() {
+        primaryRays.reset();
+        shadowRays.reset();
+        reflectionRays.reset();
+        refractionRays.reset();
+        hits.reset();
+        intersectionTests.clear();
+        maxRayDepth.reset();
+        tileCount.reset();
+        tileNanos.reset();
+        maxTileNanos.reset();
+        heatmap = null;
+    }
+
+    /**
+     * Colors each pixel of the last image rendered by its intersection tests, from black for none through red and
+     * yellow to white for the most tested pixel of the image, on a square root scale so that the few pixels taking
+     * the most samples do not leave the rest of the image dark. Each pixel counts the tests of all of its rays, the
+     * shadow rays and the further samples of the anti-aliasing included, the tests of a ray packet are shared evenly
+     * among its pixels.
+     *
+     * @return nothing if the heatmap is off or nothing has been rendered since the last reset
+     */
+    public Optional<FrameBuffer> getHeatmap() {
+        Heatmap heatmap = this.heatmap;
+        if (heatmap == null) return Optional.empty();
+
+        int[] costs = heatmap.costs;
+        int maxCost = 0;
+        for (int cost : costs) maxCost = Math.max(maxCost, cost);
+        FrameBuffer frame = new FrameBuffer(heatmap.width, heatmap.height);
+        int[] pixels = frame.getPixels();
+        for (int i = 0; i < costs.length; ++i) {
+            double t = maxCost > 0 ? Math.sqrt(costs[i] / (double) maxCost) * 3 : 0;
+            int r = (int) ((Math.min(1, t) * 255) + 0.5);
+            int g = (int) ((Math.max(0, Math.min(1, (t - 1))) * 255) + 0.5);
+            int b = (int) ((Math.max(0, Math.min(1, (t - 2))) * 255) + 0.5);
+            pixels[i] = (r << 16) | (g << 8) | b;
+        }
+        return Optional.of(frame);
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server, under
+     * {@code personal.william.raytracer:type=RenderStatistics,name=<name>}.
+     *
+     * @throws IllegalStateException if already registered
+     * @throws JMException if the name is taken by other statistics, or the server refuses them
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        Objects.requireNonNull(name, "name cannot be null.");
+        if (mBeanName != null) throw new IllegalStateException("Already registered as " + mBeanName + ".");
+
+        ObjectName objectName =
+                new ObjectName("personal.william.raytracer:type=RenderStatistics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        mBeanName = objectName;
+        return objectName;
+    }
+
+    public synchronized void unregisterMBean() throws JMException {
+        if (mBeanName == null) return;
+
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+        mBeanName = null;
+    }
+
+    /**
+     * Starts counting the pixels of the region of the image of the size anew, keeping the rest of the heatmap if the
+     * last image was of the same size.
+     */
+    void startImage(int width, int height, Tile region) {
+        if (! heatmapEnabled) return;
+
+        Heatmap heatmap = this.heatmap;
+        if (heatmap == null || heatmap.width != width || heatmap.height != height) {
+            this.heatmap = new Heatmap(width, height);
+            return;
+        }
+        for (int y = region.getY(); y < (region.getY() + region.getHeight()); ++y) {
+            int start = (y * width) + region.getX();
+            Arrays.fill(heatmap.costs, start, (start + region.getWidth()), 0);
+        }
+    }
+
+    /**
+     * @return the heatmap of the image of the size being rendered, or {@code null} if the heatmap is off
+     */
+    Heatmap getHeatmap(int width, int height) {
+        Heatmap heatmap = this.heatmap;
+        return heatmap != null && heatmap.width == width && heatmap.height == height ? heatmap : null;
+    }
+
+    void startTile(Counters counters) {
+        counters.tileStartNanos = System.nanoTime();
+        counters.tileEvent = FLIGHT_RECORDER_AVAILABLE ? TileRenderedEvent.beginIfEnabled() : null;
+    }
+
+    /**
+     * Adds the counts of the tile to the totals, which starts the counters over.
+     */
+    void addTile(Counters counters, Tile tile, int pass) {
+        long nanos = System.nanoTime() - counters.tileStartNanos;
+        if (counters.tileEvent != null) TileRenderedEvent.commit(counters.tileEvent, tile, pass, counters);
+
+        primaryRays.add(counters.primaryRays);
+        shadowRays.add(counters.shadowRays);
+        reflectionRays.add(counters.reflectionRays);
+        refractionRays.add(counters.refractionRays);
+        hits.add(counters.hits);
+        for (int i = 0; i < counters.typeCount; ++i) {
+            intersectionTests.computeIfAbsent(counters.types[i], type -> new LongAdder()).add(counters.typeTests[i]);
+        }
+        maxRayDepth.accumulate(counters.maxRayDepth);
+        tileCount.increment();
+        tileNanos.add(nanos);
+        maxTileNanos.accumulate(nanos);
+        counters.clear();
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, RenderStatistics.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * The counts of the tile being rendered by a thread, never shared with the other threads.
+     */
+    static class Counters {
+
+        long primaryRays;
+        long shadowRays;
+        long reflectionRays;
+        long refractionRays;
+        long hits;
+        // All of the intersection tests, and those against each class of objects
+        long tests;
+        private Class<?>[] types = new Class<?>[4];
+        private long[] typeTests = new long[4];
+        private int typeCount;
+        int maxRayDepth;
+
+        private long tileStartNanos;
+        // Only while the Flight Recorder is recording
+        private Object tileEvent;
+
+        void countTests(Class<?> type, int count) {
+            tests += count;
+            for (int i = 0; i < typeCount; ++i) {
+                if (types[i] == type) {
+                    typeTests[i] += count;
+                    return;
+                }
+            }
+            if (typeCount == types.length) {
+                types = Arrays.copyOf(types, (typeCount * 2));
+                typeTests = Arrays.copyOf(typeTests, (typeCount * 2));
+            }
+            types[typeCount] = type;
+            typeTests[typeCount] = count;
+            ++typeCount;
+        }
+
+        void reachRayDepth(int depth) {
+            if (depth > maxRayDepth) maxRayDepth = depth;
+        }
+
+        private void clear() {
+            primaryRays = 0;
+            shadowRays = 0;
+            reflectionRays = 0;
+            refractionRays = 0;
+            hits = 0;
+            tests = 0;
+            Arrays.fill(types, 0, typeCount, null);
+            typeCount = 0;
+            maxRayDepth = 0;
+            tileEvent = null;
+        }
+    }
+
+    /**
+     * The intersection tests of each pixel of an image, each of which is only ever counted by one thread at a time.
+     */
+    static class Heatmap {
+
+        private final int width;
+        private final int height;
+        private final int[] costs;
+
+        private Heatmap(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.costs = new int[width * height];
+        }
+
+        void add(int x, int y, long cost) {
+            int index = (y * width) + x;
+            costs[index] = (int) Math.min(Integer.MAX_VALUE, (costs[index] + cost));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package personal.william.raytracer;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link RenderStatistics}, for watching the renders from JConsole or any other JMX
+ * client.
+ */
+public interface RenderStatisticsMXBean {
+
+    long getPrimaryRays();
+
+    long getShadowRays();
+
+    long getReflectionRays();
+
+    long getRefractionRays();
+
+    /**
+     * @return the primary, reflection and refraction rays which have hit anything, the shadow rays are not counted
+     */
+    long getHits();
+
+    long getIntersectionTests();
+
+    /**
+     * @return the intersection tests by the simple name of the class of the objects tested
+     */
+    Map<String, Long> getIntersectionTestsByType();
+
+    /**
+     * @return the most reflections and refractions any traced path has gone through
+     */
+    int getMaxRayDepth();
+
+    long getTileCount();
+
+    long getTotalTileNanos();
+
+    long getMaxTileNanos();
+
+    void reset();
+}
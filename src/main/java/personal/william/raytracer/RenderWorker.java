@@ -0,0 +1,229 @@
+package personal.william.raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders the tiles handed out by a {@link RenderCoordinator} over plain sockets, so that the cores of several
+ * machines can render one frame together.
+ * <p>
+ * Every connection is a job of its own: the coordinator sends the scene and the camera once, in the binary form of
+ * {@link SceneFile}, and the size of the image, then the tiles one after another. Each tile is answered by its pixels
+ * as soon as it is rendered, in the order the tiles have come in.
+ */
+public class RenderWorker {
+
+    static final int MAGIC = 0x54524A57;
+    static final int VERSION = 1;
+    // Sent in place of the index of a tile once there are no more tiles
+    static final int END_OF_JOB = -1;
+    static final int DEFAULT_MAX_SCENE_SIZE = 256 << 20;
+    // The pixels of a tile are all sent back at once, 4 bytes each
+    static final int MAX_TILE_PIXELS = 1 << 24;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: RenderWorker [options]",
+            "Renders the tiles of the coordinators connecting to it, until it is stopped.",
+            "Options:",
+            "  --bind <address>        the address to listen on, all of those of the machine by default",
+            "  --port <port>           the port to listen on, any free one by default",
+            "  --max-scene-size <megabytes>",
+            "                          the largest scene taken from a coordinator, "
+                    + (DEFAULT_MAX_SCENE_SIZE >> 20) + " by default",
+            "  --tile-size <pixels>    the size of the tiles each tile is split into, "
+                    + TileScheduler.DEFAULT_TILE_SIZE + " by default",
+            "  --threads <count>       the rendering threads, one per processor by default");
+
+    private final ServerSocket serverSocket;
+    private final TileScheduler scheduler;
+    private final int maxSceneSize;
+
+    /**
+     * @param scheduler renders each tile handed out, split into the smaller tiles of the scheduler
+     */
+    public RenderWorker(ServerSocket serverSocket, TileScheduler scheduler) {
+        this(serverSocket, scheduler, DEFAULT_MAX_SCENE_SIZE);
+    }
+
+    /**
+     * @param scheduler renders each tile handed out, split into the smaller tiles of the scheduler
+     * @param maxSceneSize the bytes of the largest scene taken, the jobs sending larger ones are dropped before any
+     *                     memory is taken for them
+     */
+    public RenderWorker(ServerSocket serverSocket, TileScheduler scheduler, int maxSceneSize) {
+        if (maxSceneSize <= 0) throw new IllegalArgumentException("maxSceneSize must be positive.");
+
+        this.serverSocket = Objects.requireNonNull(serverSocket, "serverSocket cannot be null.");
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+        this.maxSceneSize = maxSceneSize;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderWorker{" +
+                "address=" + serverSocket.getLocalSocketAddress() +
+                ", maxSceneSize=" + maxSceneSize +
+                '}';
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Materials are still made of "java.awt.Color", which must not go looking for a display
+        System.setProperty("java.awt.headless", "true");
+
+        InetAddress address = null;
+        int port = 0;
+        int maxSceneMegabytes = DEFAULT_MAX_SCENE_SIZE >> 20;
+        int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i == (args.length - 1)) throw new IllegalArgumentException("Missing the value of " + args[i] + ".");
+
+                switch (args[i]) {
+                    case "--bind":
+                        address = parseAddress(args[i + 1]);
+                        break;
+                    case "--port":
+                        port = parseNonNegative(args[i], args[i + 1]);
+                        break;
+                    case "--max-scene-size":
+                        maxSceneMegabytes = parseNonNegative(args[i], args[i + 1]);
+                        break;
+                    case "--tile-size":
+                        tileSize = parseNonNegative(args[i], args[i + 1]);
+                        break;
+                    case "--threads":
+                        threads = parseNonNegative(args[i], args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i] + ".");
+                }
+            }
+            if (maxSceneMegabytes == 0 || tileSize == 0 || threads == 0) {
+                throw new IllegalArgumentException("The sizes must be positive.");
+            }
+            if (maxSceneMegabytes > (Integer.MAX_VALUE >> 20)) {
+                throw new IllegalArgumentException("--max-scene-size cannot be over "
+                        + (Integer.MAX_VALUE >> 20) + ".");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.bind(new InetSocketAddress(address, port));
+            // The coordinators and the scripts starting the workers look for this line
+            System.out.println("Listening on port " + serverSocket.getLocalPort());
+            TileScheduler scheduler = new TileScheduler(tileSize, TileOrder.SCANLINE, pool, threads);
+            new RenderWorker(serverSocket, scheduler, (maxSceneMegabytes << 20)).serve();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Serves the coordinators connecting to the socket, each on a thread of its own, until the socket is closed.
+     */
+    public void serve() throws IOException {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException ex) {
+                if (serverSocket.isClosed()) return;
+                throw ex;
+            }
+            Thread thread = new Thread(() -> serveJob(socket), "RenderWorker-" + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serveJob(Socket connection) {
+        try (Socket socket = connection) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a coordinator of this version.");
+            }
+            int sceneSize = in.readInt();
+            if (sceneSize < 0 || sceneSize > maxSceneSize) {
+                throw new IOException("Bad scene size: " + sceneSize + ", at most " + maxSceneSize + " is taken.");
+            }
+            byte[] scene = new byte[sceneSize];
+            in.readFully(scene);
+            Camera camera = SceneFile.read(ByteBuffer.wrap(scene), String.valueOf(socket.getRemoteSocketAddress()));
+            int width = in.readInt();
+            int height = in.readInt();
+            if (width <= 0 || height <= 0) throw new IOException("Bad image size: " + width + "x" + height);
+
+            byte[] bytes = new byte[0];
+            while (true) {
+                int tileIndex = in.readInt();
+                if (tileIndex == END_OF_JOB) return;
+
+                Tile tile = readTile(in, width, height);
+                int[] pixels = camera.render(width, height, tile, scheduler).getPixels();
+                if (bytes.length < (pixels.length * 4)) bytes = new byte[pixels.length * 4];
+                ByteBuffer.wrap(bytes).asIntBuffer().put(pixels);
+                out.writeInt(tileIndex);
+                out.write(bytes, 0, (pixels.length * 4));
+                out.flush();
+            }
+        } catch (IOException | RuntimeException ex) {
+            // The coordinator hands the tiles of the job out again to the other workers
+            System.err.println("The job of " + connection.getRemoteSocketAddress() + " has failed: " + ex);
+        }
+    }
+
+    // Checked before anything is allocated for the tile, summed in longs so that no corner wraps around into the image
+    private static Tile readTile(DataInputStream in, int width, int height) throws IOException {
+        int x = in.readInt();
+        int y = in.readInt();
+        int tileWidth = in.readInt();
+        int tileHeight = in.readInt();
+        if (x < 0 || y < 0 || tileWidth <= 0 || tileHeight <= 0
+                || ((long) x + tileWidth) > width || ((long) y + tileHeight) > height
+                || ((long) tileWidth * tileHeight) > MAX_TILE_PIXELS) {
+            throw new IOException("Bad tile: " + tileWidth + "x" + tileHeight + " at " + x + ", " + y
+                    + " of the image of " + width + "x" + height);
+        }
+        return new Tile(x, y, tileWidth, tileHeight);
+    }
+
+    private static InetAddress parseAddress(String value) {
+        try {
+            return InetAddress.getByName(value);
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("--bind must be an address of the machine: " + value + ".");
+        }
+    }
+
+    private static int parseNonNegative(String option, String value) {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(option + " must be a number: " + value + ".");
+        }
+        if (number < 0) throw new IllegalArgumentException(option + " cannot be negative: " + value + ".");
+        return number;
+    }
+}
@@ -0,0 +1,125 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Writes an image into a file channel band by band from the top row, so that only a band of the image has to be in
+ * memory at a time. The image starts at the position of the channel when the writer is created.
+ */
+public abstract class ScanlineWriter {
+
+    private final FileChannel channel;
+    private final long start;
+    private final int width;
+    private final int height;
+
+    private int rowsWritten;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+    protected ScanlineWriter(FileChannel channel, int width, int height) throws IOException {
+        Objects.requireNonNull(channel, "channel cannot be null.");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image cannot be empty.");
+
+        this.channel = channel;
+        this.start = channel.position();
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Writes the rows of the band, which has the width of the image and follows the rows written so far.
+     */
+    public void write(FrameBuffer band) throws IOException {
+        Objects.requireNonNull(band, "band cannot be null.");
+
+        writeBand(band.getWidth(), band.getHeight(), firstRow -> writeRows(band, firstRow));
+    }
+
+    /**
+     * Writes whatever comes after the last row. The channel is left open.
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of the " + height + " rows have been written.");
+        }
+        writeTrailer();
+    }
+
+    protected abstract void writeRows(FrameBuffer band, int firstRow) throws IOException;
+
+    /**
+     * Checks the band like {@link #write(FrameBuffer)} does, and counts its rows as written once the rows are.
+     */
+    protected void writeBand(int bandWidth, int bandHeight, BandRows rows) throws IOException {
+        if (bandWidth != width) {
+            throw new IllegalArgumentException("The band is " + bandWidth + " wide instead of " + width + ".");
+        }
+        if ((rowsWritten + bandHeight) > height) {
+            throw new IllegalArgumentException("The band goes below the last row of the image.");
+        }
+
+        rows.write(rowsWritten);
+        rowsWritten += bandHeight;
+    }
+
+    protected void writeTrailer() throws IOException {
+    }
+
+    protected FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the position in the channel where the image starts
+     */
+    protected long getStart() {
+        return start;
+    }
+
+    /**
+     * @return a cleared buffer of at least the capacity, which is reused by the following calls
+     */
+    protected ByteBuffer buffer(int capacity) {
+        if (buffer.capacity() < capacity) buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.clear();
+        return buffer;
+    }
+
+    protected void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) channel.write(source);
+    }
+
+    protected void writeFully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    protected static byte[] asciiBytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    protected interface BandRows {
+
+        /**
+         * @param firstRow the row of the image the band starts at
+         */
+        void write(int firstRow) throws IOException;
+    }
+}
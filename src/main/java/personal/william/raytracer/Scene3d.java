@@ -2,19 +2,37 @@ package personal.william.raytracer;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveAction;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public class Scene3d implements Vector3dSpaceScene {
 
+    // Ignores the rays which go too far away
+    private static final double RAY_DISTANCE_LIMIT = 1000;
+    private static final int DEFAULT_MAX_RAY_DEPTH = 4;
+    // Lets the directions computed at run time, like those of a CameraPath, be off by their rounding errors
+    private static final double PERPENDICULAR_TOLERANCE = 1e-9;
+    // The ids of the objects start from 1
+    private static final int NO_OBJECT_ID = 0;
+
+    // The block sizes of the passes, each pass casts the pixels at the multiples of its block size
+    private static final int[] SINGLE_PASS_BLOCK_SIZES = {1};
+    private static final int[] PROGRESSIVE_BLOCK_SIZES = {4, 2, 1};
+
+    // The state below is guarded by the scene, the renders only read the RenderingScene prepared from it
     private Color bgColor = Color.BLACK;
     private double refractiveIndex = 1;
 
@@ -23,6 +41,12 @@ public class Scene3d implements Vector3dSpaceScene {
     private final Collection<Lighting> lights = new ArrayList<>();
     private final Map<VectorSpaceObjectIdentity, PositionedObject<?, ?>> objectMap = new HashMap<>();
 
+    // The scene prepared for the last render, and what has changed since then
+    private RenderingScene preparedScene;
+    private Map<VectorSpaceObjectIdentity, PositionedObject<?, ?>> changedObjects = new HashMap<>();
+    private boolean lightsChanged = false;
+    private boolean propertiesChanged = false;
+
     private static class Lighting {
 
         private final Vector3d position;
@@ -40,6 +64,10 @@ public class Scene3d implements Vector3dSpaceScene {
 
         private final P positioning;
         private final O object;
+        // Prepared along with the first scene it is rendered in, and kept for the later ones
+        private SceneObject.Prepared prepared;
+        // Hashed along with the first scene rendered with a cache, which may be done by several renders at once
+        private volatile OptionalLong contentHash;
 
         public PositionedObject(VectorSpaceObjectIdentity identity, P positioning, O object) {
             this.identity = identity;
@@ -55,6 +83,867 @@ public class Scene3d implements Vector3dSpaceScene {
                     ", object=" + object +
                     '}';
         }
+
+        private void prepare() {
+            if (prepared == null) prepared = object.prepare(positioning);
+        }
+
+        private boolean intersect(Ray ray, HitRecord hit) {
+            return prepared.intersect(ray, hit);
+        }
+
+        private Optional<BoundingBox> getBounds() {
+            return object.getBounds(positioning);
+        }
+    }
+
+    /**
+     * What a render needs of the scene, prepared for tracing and never changed afterwards, so the renders still going
+     * on keep tracing the scene they have started with however the scene is edited meanwhile.
+     */
+    private static class RenderingScene {
+
+        // Pads the bounds so the rounding errors in the intersection calculations never push a hit outside them
+        private static final double BOUNDS_MARGIN = 1e-6;
+        // Builds the hierarchies again once this fraction of their items has been refitted or removed
+        private static final double MAX_REFITTED_FRACTION = 0.25;
+        // Builds the hierarchies again once this many objects with bounds have been put, as every ray tests them
+        private static final int MAX_ADDED_COUNT = 32;
+
+        private final BoundingVolumeHierarchy<PositionedObject<?, ?>> hierarchy;
+        private final PackedSpheres spheres;
+        // Tested by every ray one by one, the objects without bounds and those put since the hierarchies were built
+        private final List<PositionedObject<?, ?>> linearObjects;
+        // The indices of the bounded objects in their hierarchies, kept by the refits
+        private final Map<VectorSpaceObjectIdentity, Integer> objectIndices;
+        private final Map<VectorSpaceObjectIdentity, Integer> sphereIndices;
+        private final int refittedCount;
+        // The linear objects with bounds
+        private final int addedCount;
+
+        private final Lighting[] lights;
+        private final LightHierarchy lightHierarchy;
+        private final float[] bgRgbComponents;
+        private final int bgRgb;
+        private final double refractiveIndex;
+
+        // Made by the first render with a cache, empty if the scene has an object it cannot be hashed for
+        private Optional<SceneManifest> manifest;
+
+        private RenderingScene(
+                Collection<PositionedObject<?, ?>> objects, Collection<Lighting> lights,
+                Color bgColor, double refractiveIndex) {
+            // Linked, so that the hierarchies come out the same every time
+            Map<PositionedObject<?, ?>, BoundingBox> boundsMap = new LinkedHashMap<>();
+            Map<PositionedObject<?, ?>, BoundingBox> sphereBoundsMap = new LinkedHashMap<>();
+            List<PositionedObject<?, ?>> linearObjects = new ArrayList<>();
+            for (PositionedObject<?, ?> object : objects) {
+                Optional<BoundingBox> optBounds = getPaddedBounds(object);
+                // The packed spheres are intersected by their own arrays
+                if (! isPackedSphere(object)) object.prepare();
+                if (optBounds.isPresent()) {
+                    (isPackedSphere(object) ? sphereBoundsMap : boundsMap).put(object, optBounds.get());
+                } else {
+                    linearObjects.add(object);
+                }
+            }
+            this.hierarchy = BoundingVolumeHierarchy.build(boundsMap.keySet(), boundsMap::get);
+            this.spheres = new PackedSpheres(
+                    BoundingVolumeHierarchy.build(
+                            sphereBoundsMap.keySet(), sphereBoundsMap::get,
+                            PackedSpheres.MAX_LEAF_SIZE, PackedSpheres.TRAVERSAL_COST));
+            this.linearObjects = linearObjects;
+            this.objectIndices = indexItems(hierarchy);
+            this.sphereIndices = indexItems(spheres.hierarchy);
+            this.refittedCount = 0;
+            this.addedCount = 0;
+
+            this.lights = lights.toArray(new Lighting[0]);
+            this.lightHierarchy = buildLightHierarchy(this.lights);
+            this.bgRgbComponents = bgColor.getRGBColorComponents(null);
+            this.bgRgb = bgColor.getRGB();
+            this.refractiveIndex = refractiveIndex;
+        }
+
+        private RenderingScene(
+                RenderingScene scene, BoundingVolumeHierarchy<PositionedObject<?, ?>> hierarchy,
+                PackedSpheres spheres, List<PositionedObject<?, ?>> linearObjects, int refittedCount, int addedCount,
+                Lighting[] lights, LightHierarchy lightHierarchy, Color bgColor, double refractiveIndex) {
+            this.hierarchy = hierarchy;
+            this.spheres = spheres;
+            this.linearObjects = linearObjects;
+            this.objectIndices = scene.objectIndices;
+            this.sphereIndices = scene.sphereIndices;
+            this.refittedCount = refittedCount;
+            this.addedCount = addedCount;
+
+            this.lights = lights;
+            this.lightHierarchy = lightHierarchy;
+            this.bgRgbComponents = bgColor.getRGBColorComponents(null);
+            this.bgRgb = bgColor.getRGB();
+            this.refractiveIndex = refractiveIndex;
+        }
+
+        /**
+         * Applies the changes of the objects by refitting the hierarchies, and adds the objects put since they were
+         * built to the linear objects, which takes time in the number of the changes rather than of all the objects.
+         * This scene is left as it is, and shares all that has not changed with the returned one.
+         *
+         * @param changes the changed and the put objects by their identities, null for the removed ones
+         * @param lights the lights of the scene, or null if they have not changed
+         * @return the changed scene, or null if the changes do not fit the hierarchies and they have to be built again
+         */
+        private RenderingScene update(
+                Map<VectorSpaceObjectIdentity, PositionedObject<?, ?>> changes, Collection<Lighting> lights,
+                Color bgColor, double refractiveIndex) {
+            int itemCount = hierarchy.getItemCount() + spheres.hierarchy.getItemCount();
+            int newRefittedCount = refittedCount + changes.size();
+            if (newRefittedCount > (itemCount * MAX_REFITTED_FRACTION)) return null;
+
+            Map<Integer, PositionedObject<?, ?>> objectChanges = new HashMap<>();
+            Map<Integer, PositionedObject<?, ?>> sphereChanges = new HashMap<>();
+            Map<PositionedObject<?, ?>, BoundingBox> boundsMap = new IdentityHashMap<>();
+            List<PositionedObject<?, ?>> newLinearObjects = linearObjects;
+            int newAddedCount = addedCount;
+            for (Map.Entry<VectorSpaceObjectIdentity, PositionedObject<?, ?>> entry : changes.entrySet()) {
+                PositionedObject<?, ?> object = entry.getValue();
+                Optional<BoundingBox> optBounds = object != null ? getPaddedBounds(object) : Optional.empty();
+                if (object != null && ! isPackedSphere(object)) object.prepare();
+                Integer objectIndex = objectIndices.get(entry.getKey());
+                Integer sphereIndex = sphereIndices.get(entry.getKey());
+                if (objectIndex != null || sphereIndex != null) {
+                    // Stays in the same hierarchy, or the hierarchies have to be built again
+                    if (object != null
+                            && (! optBounds.isPresent() || isPackedSphere(object) != (sphereIndex != null))) {
+                        return null;
+                    }
+                    if (object != null) boundsMap.put(object, optBounds.get());
+                    (sphereIndex != null ? sphereChanges : objectChanges)
+                            .put((sphereIndex != null ? sphereIndex : objectIndex), object);
+                } else {
+                    if (newLinearObjects == linearObjects) {
+                        newLinearObjects = new ArrayList<>(linearObjects);
+                    }
+                    if (object != null) {
+                        // Tested by the rays on their own, a packed sphere included
+                        object.prepare();
+                        if (optBounds.isPresent()) ++newAddedCount;
+                    }
+                    PositionedObject<?, ?> oldObject = replaceLinear(newLinearObjects, entry.getKey(), object);
+                    if (oldObject != null && oldObject.getBounds().isPresent()) --newAddedCount;
+                    if (newAddedCount > MAX_ADDED_COUNT) return null;
+                }
+            }
+
+            BoundingVolumeHierarchy<PositionedObject<?, ?>> newHierarchy =
+                    objectChanges.isEmpty() ? hierarchy : hierarchy.refit(objectChanges, boundsMap::get);
+            PackedSpheres newSpheres = sphereChanges.isEmpty() ? spheres : spheres.refit(sphereChanges, boundsMap::get);
+            Lighting[] newLights = lights != null ? lights.toArray(new Lighting[0]) : this.lights;
+            LightHierarchy newLightHierarchy = lights != null ? buildLightHierarchy(newLights) : lightHierarchy;
+            return new RenderingScene(
+                    this, newHierarchy, newSpheres, newLinearObjects, newRefittedCount, newAddedCount,
+                    newLights, newLightHierarchy, bgColor, refractiveIndex);
+        }
+
+        /**
+         * @return the objects in the order they have been put
+         */
+        private List<PositionedObject<?, ?>> getObjects() {
+            List<PositionedObject<?, ?>> objects = new ArrayList<>(linearObjects);
+            for (int i = 0; i < hierarchy.getItemCount(); ++i) {
+                if (hierarchy.getItem(i) != null) objects.add(hierarchy.getItem(i));
+            }
+            for (int i = 0; i < spheres.hierarchy.getItemCount(); ++i) {
+                if (spheres.hierarchy.getItem(i) != null) objects.add(spheres.hierarchy.getItem(i));
+            }
+            objects.sort((a, b) -> Integer.compare(a.identity.getId(), b.identity.getId()));
+            return objects;
+        }
+
+        /**
+         * @return the hashes of the objects and the lights the pixels are rendered from, along with the bounds of the
+         * objects, the ids of the objects included as the anti-aliasing looks for them, but not their names. Empty if
+         * the scene has an object there is no statement for in a scene file, which is all that can be hashed. The
+         * objects are hashed only by the first scene they are in.
+         */
+        private synchronized Optional<SceneManifest> getManifest() {
+            if (manifest != null) return manifest;
+
+            ContentDigest digest = new ContentDigest();
+            digest.putInt(lights.length);
+            for (Lighting lighting : lights) {
+                digest.putDouble(lighting.light.getIntensity());
+                putVector(digest, lighting.position);
+            }
+            long lightsHash = ByteBuffer.wrap(digest.finish()).getLong();
+            List<PositionedObject<?, ?>> objects = getObjects();
+            int[] ids = new int[objects.size()];
+            long[] hashes = new long[objects.size()];
+            double[] bounds = new double[objects.size() * 6];
+            for (int i = 0; i < objects.size(); ++i) {
+                PositionedObject<?, ?> object = objects.get(i);
+                OptionalLong hash = object.contentHash;
+                if (hash == null) {
+                    hash = putObject(digest, object)
+                            ? OptionalLong.of(ByteBuffer.wrap(digest.finish()).getLong())
+                            : OptionalLong.empty();
+                    object.contentHash = hash;
+                }
+                if (! hash.isPresent()) {
+                    manifest = Optional.empty();
+                    return manifest;
+                }
+                ids[i] = object.identity.getId();
+                hashes[i] = hash.getAsLong();
+                Optional<BoundingBox> optBounds = getPaddedBounds(object);
+                if (optBounds.isPresent()) {
+                    Vector3d min = optBounds.get().getMin();
+                    Vector3d max = optBounds.get().getMax();
+                    bounds[i * 6] = min.getX();
+                    bounds[(i * 6) + 1] = min.getY();
+                    bounds[(i * 6) + 2] = min.getZ();
+                    bounds[(i * 6) + 3] = max.getX();
+                    bounds[(i * 6) + 4] = max.getY();
+                    bounds[(i * 6) + 5] = max.getZ();
+                } else {
+                    // Tested by every ray
+                    Arrays.fill(bounds, (i * 6), ((i * 6) + 3), Double.NEGATIVE_INFINITY);
+                    Arrays.fill(bounds, ((i * 6) + 3), ((i + 1) * 6), Double.POSITIVE_INFINITY);
+                }
+            }
+            manifest = Optional.of(new SceneManifest(ids, hashes, bounds, lightsHash));
+            return manifest;
+        }
+
+        private static boolean putObject(ContentDigest digest, PositionedObject<?, ?> object) {
+            if (object.object.getClass() == Sphere.class) {
+                Sphere sphere = (Sphere) object.object;
+                digest.putInt(SceneBuilder.TAG_SPHERE);
+                putMaterial(digest, sphere.getMaterial());
+                digest.putDouble(sphere.getRadius());
+                putVector(digest, ((Sphere.Positioning) object.positioning).getCenter());
+            } else if (object.object.getClass() == GridPatternParallelogramPlane.class) {
+                GridPatternParallelogramPlane plane = (GridPatternParallelogramPlane) object.object;
+                ParallelogramPlanePositioning positioning = (ParallelogramPlanePositioning) object.positioning;
+                GridPatternParallelogramPlane.Pattern pattern = plane.getPattern();
+                digest.putInt(SceneBuilder.TAG_PLANE);
+                digest.putDouble(pattern.getBoxWidth()).putDouble(pattern.getBoxHeight());
+                digest.putInt(pattern.getColumnCount()).putInt(pattern.getRowCount());
+                for (int i = 0; i < pattern.getColumnCount(); ++i) {
+                    for (int j = 0; j < pattern.getRowCount(); ++j) putMaterial(digest, pattern.getMaterial(i, j));
+                }
+                digest.putDouble(plane.getWidth()).putDouble(plane.getHeight());
+                putVector(digest, positioning.getOrigin());
+                putVector(digest, positioning.getDirectionX());
+                putVector(digest, positioning.getDirectionY());
+            } else if (object.object.getClass() == TriangleMesh.class) {
+                TriangleMesh mesh = (TriangleMesh) object.object;
+                digest.putInt(SceneBuilder.TAG_MESH_OBJECT);
+                putMaterial(digest, mesh.getMaterial());
+                digest.putBytes(mesh.getContentHash());
+                putVector(digest, ((TriangleMesh.Positioning) object.positioning).getOrigin());
+            } else if (object.object.getClass() == TransformedObject.class
+                    && ((TransformedObject<?>) object.object).getObject().getClass() == TriangleMesh.class) {
+                TransformedObject<?> instanced = (TransformedObject<?>) object.object;
+                TriangleMesh mesh = (TriangleMesh) instanced.getObject();
+                TransformedObject.Transform transform = (TransformedObject.Transform) object.positioning;
+                digest.putInt(SceneBuilder.TAG_MESH_INSTANCE);
+                putMaterial(digest, mesh.getMaterial());
+                digest.putBytes(mesh.getContentHash());
+                putVector(digest, ((TriangleMesh.Positioning) instanced.getPositioning()).getOrigin());
+                for (int row = 0; row < 3; ++row) {
+                    for (int column = 0; column < 4; ++column) digest.putDouble(transform.get(row, column));
+                }
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        private static void putMaterial(ContentDigest digest, Material material) {
+            digest.putDouble(material.getSpecularAlbedo()).putDouble(material.getDiffuseAlbedo());
+            float[] color = material.getDiffuseRgbComponents();
+            if (color != null) {
+                digest.putFloats(color);
+            } else {
+                digest.putInt(-1);
+            }
+            digest.putDouble(material.getReflectionAlbedo()).putDouble(material.getSpecularExponent());
+            digest.putDouble(material.getRefractiveIndex()).putDouble(material.getRefractiveAlbedo());
+        }
+
+        private static void putVector(ContentDigest digest, Vector3d vector) {
+            digest.putDouble(vector.getX()).putDouble(vector.getY()).putDouble(vector.getZ());
+        }
+
+        /**
+         * Replaces the object of the identity in the objects, removes it if the object is null, or adds the object if
+         * there is none of the identity.
+         *
+         * @return the object replaced or removed, null if there has been none
+         */
+        private static PositionedObject<?, ?> replaceLinear(
+                List<PositionedObject<?, ?>> objects, VectorSpaceObjectIdentity identity,
+                PositionedObject<?, ?> object) {
+            for (int i = 0; i < objects.size(); ++i) {
+                if (! objects.get(i).identity.equals(identity)) continue;
+
+                return object != null ? objects.set(i, object) : objects.remove(i);
+            }
+            if (object != null) objects.add(object);
+            return null;
+        }
+
+        private static Optional<BoundingBox> getPaddedBounds(PositionedObject<?, ?> object) {
+            return object.getBounds().map(bounds -> {
+                double scale = Math.max(1, Math.max(maxAbs(bounds.getMin()), maxAbs(bounds.getMax())));
+                return bounds.expand(BOUNDS_MARGIN * scale);
+            });
+        }
+
+        // Only the plain spheres, the subclasses may intersect differently
+        private static boolean isPackedSphere(PositionedObject<?, ?> object) {
+            return object.object.getClass() == Sphere.class;
+        }
+
+        private static Map<VectorSpaceObjectIdentity, Integer> indexItems(
+                BoundingVolumeHierarchy<PositionedObject<?, ?>> hierarchy) {
+            Map<VectorSpaceObjectIdentity, Integer> indices = new HashMap<>();
+            for (int i = 0; i < hierarchy.getItemCount(); ++i) {
+                indices.put(hierarchy.getItem(i).identity, i);
+            }
+            return indices;
+        }
+
+        private static LightHierarchy buildLightHierarchy(Lighting[] lights) {
+            double[] lightPositions = new double[lights.length * 3];
+            double[] lightIntensities = new double[lights.length];
+            for (int i = 0; i < lights.length; ++i) {
+                lightPositions[i * 3] = lights[i].position.getX();
+                lightPositions[(i * 3) + 1] = lights[i].position.getY();
+                lightPositions[(i * 3) + 2] = lights[i].position.getZ();
+                lightIntensities[i] = lights[i].light.getIntensity();
+            }
+            return new LightHierarchy(lightPositions, lightIntensities);
+        }
+
+        private static double maxAbs(Vector3d vector) {
+            return Math.max(Math.abs(vector.getX()), Math.max(Math.abs(vector.getY()), Math.abs(vector.getZ())));
+        }
+    }
+
+    /**
+     * The spheres of the scene packed into parallel arrays in the order of their own hierarchy, so that each leaf is
+     * tested in a tight loop over a range of the arrays, instead of going through the object and the positioning of
+     * every sphere. The arrays are split into pages like the hierarchy, so a refit copies only the pages it changes.
+     */
+    private static class PackedSpheres {
+
+        // The packed spheres are cheap enough to be tested in groups of up to 8 instead of visiting more nodes
+        private static final int MAX_LEAF_SIZE = 8;
+        private static final double TRAVERSAL_COST = 4;
+        // The spheres in a page, a power of 2
+        private static final int PAGE_SHIFT = 8;
+        private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+        private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+        private final BoundingVolumeHierarchy<PositionedObject<?, ?>> hierarchy;
+        private final Page[] pages;
+
+        private PackedSpheres(BoundingVolumeHierarchy<PositionedObject<?, ?>> hierarchy) {
+            this.hierarchy = hierarchy;
+
+            int count = hierarchy.getItemCount();
+            this.pages = new Page[(count + PAGE_MASK) >>> PAGE_SHIFT];
+            for (int i = 0; i < pages.length; ++i) {
+                pages[i] = new Page(Math.min(PAGE_SIZE, (count - (i << PAGE_SHIFT))));
+            }
+            for (int i = 0; i < count; ++i) {
+                pages[i >>> PAGE_SHIFT].set((i & PAGE_MASK), hierarchy.getItem(i));
+            }
+        }
+
+        private PackedSpheres(
+                PackedSpheres spheres, BoundingVolumeHierarchy<PositionedObject<?, ?>> hierarchy,
+                Collection<Integer> changedIndices) {
+            this.hierarchy = hierarchy;
+            this.pages = spheres.pages.clone();
+            for (int i : changedIndices) {
+                int page = i >>> PAGE_SHIFT;
+                if (pages[page] == spheres.pages[page]) pages[page] = new Page(spheres.pages[page]);
+                pages[page].set((i & PAGE_MASK), hierarchy.getItem(i));
+            }
+        }
+
+        /**
+         * @param changes the new spheres by their indices of the hierarchy, null for the removed ones
+         */
+        private PackedSpheres refit(
+                Map<Integer, PositionedObject<?, ?>> changes,
+                Function<PositionedObject<?, ?>, BoundingBox> boundsFunction) {
+            return new PackedSpheres(this, hierarchy.refit(changes, boundsFunction), changes.keySet());
+        }
+
+        /**
+         * Writes for each sphere of the range, from index 0 of the arrays, the distance along the ray to the point
+         * nearest to the center, and the square of the half of the chord the ray cuts through the sphere, which is
+         * negative if the ray misses it. There are neither branches nor square roots in the loop, so that C2 can turn
+         * it into SIMD instructions, and the misses are thrown away before any square root is taken.
+         */
+        private void project(Ray ray, int start, int end, double[] rayToCenterDists, double[] halfChordSquares) {
+            double originX = ray.getOriginX();
+            double originY = ray.getOriginY();
+            double originZ = ray.getOriginZ();
+            double dirX = ray.getDirectionX();
+            double dirY = ray.getDirectionY();
+            double dirZ = ray.getDirectionZ();
+            // A leaf may run over into the next page
+            for (int first = start; first < end; ) {
+                Page page = pages[first >>> PAGE_SHIFT];
+                int pageStart = first & ~PAGE_MASK;
+                int last = Math.min(end, (pageStart + PAGE_SIZE));
+                double[] centerXs = page.centerXs;
+                double[] centerYs = page.centerYs;
+                double[] centerZs = page.centerZs;
+                double[] radiusSquares = page.radiusSquares;
+                int shift = pageStart - start;
+                for (int i = (first - pageStart); i < (last - pageStart); ++i) {
+                    double scX = centerXs[i] - originX;
+                    double scY = centerYs[i] - originY;
+                    double scZ = centerZs[i] - originZ;
+                    double rayToCenterDist = (dirX * scX) + (dirY * scY) + (dirZ * scZ);
+                    double centerDistSquare =
+                            ((scX * scX) + (scY * scY) + (scZ * scZ)) - (rayToCenterDist * rayToCenterDist);
+                    rayToCenterDists[i + shift] = rayToCenterDist;
+                    halfChordSquares[i + shift] = radiusSquares[i] - centerDistSquare;
+                }
+                first = last;
+            }
+        }
+
+        /**
+         * Like {@link #project}, but in single precision, which takes half of the memory per sphere and twice the
+         * spheres per SIMD instruction. The distance of the center from the ray is taken from the vector between
+         * them instead of as a difference of squares, which would cancel out most of the bits of a float.
+         */
+        private void projectInFloat(
+                Ray ray, int start, int end, float[] rayToCenterDists, float[] halfChordSquares) {
+            float originX = (float) ray.getOriginX();
+            float originY = (float) ray.getOriginY();
+            float originZ = (float) ray.getOriginZ();
+            float dirX = (float) ray.getDirectionX();
+            float dirY = (float) ray.getDirectionY();
+            float dirZ = (float) ray.getDirectionZ();
+            for (int first = start; first < end; ) {
+                Page page = pages[first >>> PAGE_SHIFT];
+                int pageStart = first & ~PAGE_MASK;
+                int last = Math.min(end, (pageStart + PAGE_SIZE));
+                float[] floatCenterXs = page.floatCenterXs;
+                float[] floatCenterYs = page.floatCenterYs;
+                float[] floatCenterZs = page.floatCenterZs;
+                float[] floatRadiusSquares = page.floatRadiusSquares;
+                int shift = pageStart - start;
+                for (int i = (first - pageStart); i < (last - pageStart); ++i) {
+                    float scX = floatCenterXs[i] - originX;
+                    float scY = floatCenterYs[i] - originY;
+                    float scZ = floatCenterZs[i] - originZ;
+                    float rayToCenterDist = (dirX * scX) + (dirY * scY) + (dirZ * scZ);
+                    float toRayX = scX - (dirX * rayToCenterDist);
+                    float toRayY = scY - (dirY * rayToCenterDist);
+                    float toRayZ = scZ - (dirZ * rayToCenterDist);
+                    rayToCenterDists[i + shift] = rayToCenterDist;
+                    halfChordSquares[i + shift] =
+                            floatRadiusSquares[i] - ((toRayX * toRayX) + (toRayY * toRayY) + (toRayZ * toRayZ));
+                }
+                first = last;
+            }
+        }
+
+        /**
+         * Follows the rest of the arithmetic of {@link Sphere#intersect} from what {@link #project} gives.
+         *
+         * @return the distance along the ray to the hit, or {@code Double.POSITIVE_INFINITY} if the sphere is missed
+         */
+        private static double hitDist(double rayToCenterDist, double halfChordSquare) {
+            // The same as "centerDistSquare > radiusSquare", the sign of a difference is always exact
+            if (halfChordSquare < 0) return Double.POSITIVE_INFINITY;
+
+            float intersectedDist = (float) Math.sqrt(halfChordSquare);
+            double hitDist = rayToCenterDist - intersectedDist;
+            if (hitDist < 0) hitDist = rayToCenterDist + intersectedDist;
+            return hitDist < 0 ? Double.POSITIVE_INFINITY : hitDist;
+        }
+
+        /**
+         * Writes the hit of the ray on the sphere at the distance along the ray into the record.
+         */
+        private void hit(Ray ray, int index, double hitDist, HitRecord hit) {
+            double hitX = ray.getOriginX() + (ray.getDirectionX() * hitDist);
+            double hitY = ray.getOriginY() + (ray.getDirectionY() * hitDist);
+            double hitZ = ray.getOriginZ() + (ray.getDirectionZ() * hitDist);
+            Page page = pages[index >>> PAGE_SHIFT];
+            int i = index & PAGE_MASK;
+            double normalX = hitX - page.centerXs[i];
+            double normalY = hitY - page.centerYs[i];
+            double normalZ = hitZ - page.centerZs[i];
+            double norm = Math.sqrt((normalX * normalX) + (normalY * normalY) + (normalZ * normalZ));
+            if (norm != 0) {
+                normalX /= norm;
+                normalY /= norm;
+                normalZ /= norm;
+            }
+            hit.set(
+                    ray.distanceTo(hitX, hitY, hitZ), hitX, hitY, hitZ, normalX, normalY, normalZ,
+                    page.materials[i], page.spheres[i]);
+        }
+
+        private static class Page {
+
+            private final double[] centerXs;
+            private final double[] centerYs;
+            private final double[] centerZs;
+            private final double[] radiusSquares;
+            // The same in single precision, for the cameras testing the spheres in it
+            private final float[] floatCenterXs;
+            private final float[] floatCenterYs;
+            private final float[] floatCenterZs;
+            private final float[] floatRadiusSquares;
+            private final Material[] materials;
+            private final Sphere[] spheres;
+
+            private Page(int size) {
+                this.centerXs = new double[size];
+                this.centerYs = new double[size];
+                this.centerZs = new double[size];
+                this.radiusSquares = new double[size];
+                this.floatCenterXs = new float[size];
+                this.floatCenterYs = new float[size];
+                this.floatCenterZs = new float[size];
+                this.floatRadiusSquares = new float[size];
+                this.materials = new Material[size];
+                this.spheres = new Sphere[size];
+            }
+
+            private Page(Page page) {
+                this.centerXs = page.centerXs.clone();
+                this.centerYs = page.centerYs.clone();
+                this.centerZs = page.centerZs.clone();
+                this.radiusSquares = page.radiusSquares.clone();
+                this.floatCenterXs = page.floatCenterXs.clone();
+                this.floatCenterYs = page.floatCenterYs.clone();
+                this.floatCenterZs = page.floatCenterZs.clone();
+                this.floatRadiusSquares = page.floatRadiusSquares.clone();
+                this.materials = page.materials.clone();
+                this.spheres = page.spheres.clone();
+            }
+
+            /**
+             * @param positionedObject null for a removed sphere
+             */
+            private void set(int index, PositionedObject<?, ?> positionedObject) {
+                if (positionedObject == null) {
+                    // Never hit by any ray
+                    radiusSquares[index] = Double.NEGATIVE_INFINITY;
+                    floatRadiusSquares[index] = Float.NEGATIVE_INFINITY;
+                    materials[index] = null;
+                    spheres[index] = null;
+                    return;
+                }
+
+                Sphere sphere = (Sphere) positionedObject.object;
+                Vector3d center = ((Sphere.Positioning) positionedObject.positioning).getCenter();
+                centerXs[index] = center.getX();
+                centerYs[index] = center.getY();
+                centerZs[index] = center.getZ();
+                radiusSquares[index] = sphere.getRadius() * sphere.getRadius();
+                floatCenterXs[index] = (float) centerXs[index];
+                floatCenterYs[index] = (float) centerYs[index];
+                floatCenterZs[index] = (float) centerZs[index];
+                floatRadiusSquares[index] = (float) radiusSquares[index];
+                materials[index] = sphere.getMaterial();
+                spheres[index] = sphere;
+            }
+        }
+    }
+
+    private static class HitSearch implements BoundingVolumeHierarchy.ItemIntersector<PositionedObject<?, ?>> {
+
+        private final PackedSpheres spheres;
+        private final BoundingVolumeHierarchy.RangeIntersector sphereIntersector = this::intersectSpheres;
+        // Null unless the camera counts its render statistics
+        private final RenderStatistics.Counters counters;
+        // Whether the packed spheres are tested in single precision
+        private final boolean floatPrecision;
+        private double[] rayToCenterDists = new double[0];
+        private double[] halfChordSquares = new double[0];
+        private float[] floatRayToCenterDists = new float[0];
+        private float[] floatHalfChordSquares = new float[0];
+
+        private Ray ray;
+
+        private HitRecord candidate = new HitRecord();
+        private HitRecord closest = new HitRecord();
+        private double shortestDist;
+        // What the closest hit is on, either a packed sphere or another object
+        private PositionedObject<?, ?> closestObject;
+        private int closestSphere;
+
+        private HitSearch(PackedSpheres spheres, RenderStatistics.Counters counters, boolean floatPrecision) {
+            this.spheres = spheres;
+            this.counters = counters;
+            this.floatPrecision = floatPrecision;
+        }
+
+        private void reset(Ray ray, double maxDist) {
+            this.ray = ray;
+            this.shortestDist = maxDist;
+        }
+
+        @Override
+        public double intersect(PositionedObject<?, ?> positionedObject) {
+            if (counters != null) counters.countTests(positionedObject.object.getClass(), 1);
+            if (! positionedObject.intersect(ray, candidate)) return Double.POSITIVE_INFINITY;
+
+            return acceptCandidate(positionedObject, -1);
+        }
+
+        private double intersectSpheres(int start, int end) {
+            if (counters != null) counters.countTests(Sphere.class, (end - start));
+            if (floatPrecision) {
+                if (floatRayToCenterDists.length < (end - start)) {
+                    floatRayToCenterDists = new float[end - start];
+                    floatHalfChordSquares = new float[end - start];
+                }
+                spheres.projectInFloat(ray, start, end, floatRayToCenterDists, floatHalfChordSquares);
+            } else {
+                if (rayToCenterDists.length < (end - start)) {
+                    rayToCenterDists = new double[end - start];
+                    halfChordSquares = new double[end - start];
+                }
+                spheres.project(ray, start, end, rayToCenterDists, halfChordSquares);
+            }
+
+            double shortestRangeDist = Double.POSITIVE_INFINITY;
+            for (int i = start; i < end; ++i) {
+                double hitDist = floatPrecision
+                        ? PackedSpheres.hitDist(floatRayToCenterDists[i - start], floatHalfChordSquares[i - start])
+                        : PackedSpheres.hitDist(rayToCenterDists[i - start], halfChordSquares[i - start]);
+                if (hitDist == Double.POSITIVE_INFINITY) continue;
+
+                spheres.hit(ray, i, hitDist, candidate);
+                double dist = acceptCandidate(null, i);
+                if (dist < shortestRangeDist) shortestRangeDist = dist;
+            }
+            return shortestRangeDist;
+        }
+
+        // The id of what the closest hit is on
+        private int getClosestId() {
+            PositionedObject<?, ?> object =
+                    closestObject != null ? closestObject : spheres.hierarchy.getItem(closestSphere);
+            return object.identity.getId();
+        }
+
+        private double acceptCandidate(PositionedObject<?, ?> object, int sphere) {
+            double hitDist = candidate.getDistance();
+            if (hitDist < shortestDist) {
+                shortestDist = hitDist;
+                closestObject = object;
+                closestSphere = sphere;
+                HitRecord swap = closest;
+                closest = candidate;
+                candidate = swap;
+            }
+            return hitDist;
+        }
+    }
+
+    /**
+     * How a camera renders beyond where it is, never changed once the camera has got it.
+     */
+    private static class RenderSettings {
+
+        private int packetSize = 1;
+        private int maxRayDepth = DEFAULT_MAX_RAY_DEPTH;
+        private double minRayWeight = 0;
+        private int maxLightsPerHit = Integer.MAX_VALUE;
+        // The edge pixels take up to this squared samples, 1 for no anti-aliasing
+        private int sampleGridSize = 1;
+        // How different the samples have to be for more of them
+        private double sampleThreshold = 0;
+        private boolean floatPrecision = false;
+        private RenderStatistics statistics;
+        private RenderCache renderCache;
+
+        private RenderSettings() {
+        }
+
+        private RenderSettings(RenderSettings other) {
+            this.packetSize = other.packetSize;
+            this.maxRayDepth = other.maxRayDepth;
+            this.minRayWeight = other.minRayWeight;
+            this.maxLightsPerHit = other.maxLightsPerHit;
+            this.sampleGridSize = other.sampleGridSize;
+            this.sampleThreshold = other.sampleThreshold;
+            this.floatPrecision = other.floatPrecision;
+            this.statistics = other.statistics;
+            this.renderCache = other.renderCache;
+        }
+    }
+
+    /**
+     * A hit on the path of a pixel, waiting for the colors of its branches.
+     */
+    private static class PathVertex {
+
+        private static final int REFLECTION = 0;
+        private static final int REFRACTION = 1;
+        private static final int BRANCH_COUNT = 2;
+
+        private Material material;
+        private double diffuseLightIntensity;
+        private double specularLightIntensity;
+        // There is no refraction ray under the total internal reflection
+        private boolean refracted;
+        // How much the colors of the branches count in the color of the pixel, before their albedos
+        private double weight;
+        // The branch to be traced next
+        private int branch;
+
+        // The source and the direction of the ray of each branch
+        private final double[] branchRays = new double[BRANCH_COUNT * 6];
+        // The RGB components of the color of each branch
+        private final float[] branchColors = new float[BRANCH_COUNT * 3];
+        private final float[] color = new float[3];
+    }
+
+    /**
+     * The scratch space of a rendering thread, which keeps the ray casts free from allocations.
+     */
+    private static class TraceContext {
+
+        private final Ray ray = new Ray();
+        private final HitSearch hitSearch;
+        // Null unless the camera counts its render statistics
+        private final RenderStatistics.Counters counters;
+        private final BoundingVolumeHierarchy.TraversalStack traversalStack =
+                new BoundingVolumeHierarchy.TraversalStack();
+
+        // The vertex at each depth of the path being traced
+        private final PathVertex[] path;
+
+        // For the packets, each ray of which has got its own hit search
+        private final RayPacket packet = new RayPacket();
+        private final HitSearch[] packetSearches = new HitSearch[RayPacket.MAX_SIZE];
+        private final BoundingVolumeHierarchy.PacketIntersector packetIntersector;
+        private final BoundingVolumeHierarchy.PacketIntersector packetSphereIntersector;
+        // The shadow rays of the packet are only tested for any hit, which any hit search can do
+        private final BoundingVolumeHierarchy.PacketIntersector shadowIntersector;
+        private final BoundingVolumeHierarchy.PacketIntersector shadowSphereIntersector;
+        private final int[] packetXs = new int[RayPacket.MAX_SIZE];
+        private final int[] packetYs = new int[RayPacket.MAX_SIZE];
+        private final int[] packetRgbs = new int[RayPacket.MAX_SIZE];
+        private final int[] packetIds = new int[RayPacket.MAX_SIZE];
+        // What the primary ray of each pixel of the packet hits, only for the geometry buffers
+        private final float[] packetDepths = new float[RayPacket.MAX_SIZE];
+        private final float[] packetNormals = new float[RayPacket.MAX_SIZE * 3];
+        private final int[] packetMaterialIds = new int[RayPacket.MAX_SIZE];
+        // The bit of each ray of the packet is set if the ray is in the shadow of the light
+        private final int[] shadowMasks;
+
+        // What has blocked the last shadow ray towards each light, which is likely to block the next one as well,
+        // either a packed sphere or another object
+        private final PositionedObject<?, ?>[] occluderObjects;
+        private final int[] occluderSpheres;
+
+        // Only if not all the lights are taken at every hit
+        private final LightHierarchy.Selection lightSelection;
+
+        // The id of the object hit by the last primary ray
+        private int primaryId;
+        // The colors, and the ids of the objects hit first, of the pixels being rendered
+        private int[] areaRgbs = new int[0];
+        private int[] areaIds = new int[0];
+        // The intersection tests of the pixels being rendered, only for the heatmap
+        private long[] areaCosts = new long[0];
+        // The same as those of the packet for the pixels being rendered, only for the geometry buffers
+        private float[] areaDepths = new float[0];
+        private float[] areaNormals = new float[0];
+        private int[] areaMaterialIds = new int[0];
+        // The RGB components of the samples of a pixel
+        private final float[] sampleSum = new float[3];
+        private final float[] sampleMin = new float[3];
+        private final float[] sampleMax = new float[3];
+
+        private TraceContext(RenderingScene scene, RenderSettings settings, RenderStatistics.Counters counters) {
+            this.counters = counters;
+            this.hitSearch = new HitSearch(scene.spheres, counters, settings.floatPrecision);
+            this.path = new PathVertex[settings.maxRayDepth + 1];
+            for (int i = 0; i < path.length; ++i) path[i] = new PathVertex();
+            for (int i = 0; i < RayPacket.MAX_SIZE; ++i) {
+                packetSearches[i] = new HitSearch(scene.spheres, counters, settings.floatPrecision);
+            }
+            this.packetIntersector = (ray, start, end) -> intersect(packetSearches[ray], scene, start, end);
+            this.packetSphereIntersector = (ray, start, end) -> packetSearches[ray].intersectSpheres(start, end);
+            this.shadowIntersector = (ray, start, end) -> {
+                hitSearch.reset(packet.getRay(ray), packet.getMaxDistance(ray));
+                return intersect(hitSearch, scene, start, end);
+            };
+            this.shadowSphereIntersector = (ray, start, end) -> {
+                hitSearch.reset(packet.getRay(ray), packet.getMaxDistance(ray));
+                return hitSearch.intersectSpheres(start, end);
+            };
+            this.shadowMasks = new int[scene.lights.length];
+            this.occluderObjects = new PositionedObject<?, ?>[scene.lights.length];
+            this.occluderSpheres = new int[scene.lights.length];
+            Arrays.fill(occluderSpheres, -1);
+            this.lightSelection = settings.maxLightsPerHit < scene.lights.length
+                    ? new LightHierarchy.Selection(settings.maxLightsPerHit)
+                    : null;
+        }
+
+        private void ensureAreaCapacity(int capacity, boolean costed, boolean geometric) {
+            if (costed && areaCosts.length < capacity) areaCosts = new long[capacity];
+            if (geometric && areaMaterialIds.length < capacity) {
+                areaDepths = new float[capacity];
+                areaNormals = new float[capacity * 3];
+                areaMaterialIds = new int[capacity];
+            }
+            if (areaRgbs.length >= capacity) return;
+
+            areaRgbs = new int[capacity];
+            areaIds = new int[capacity];
+        }
+
+        /**
+         * @return whether the ray of the search hits the last occluder of the light within the distance
+         */
+        private boolean hitsOccluder(int light, double maxDist) {
+            PositionedObject<?, ?> object = occluderObjects[light];
+            int sphere = occluderSpheres[light];
+            if (object != null) return hitSearch.intersect(object) < maxDist;
+            return sphere >= 0 && hitSearch.intersectSpheres(sphere, (sphere + 1)) < maxDist;
+        }
+
+        /**
+         * Takes what the closest hit of the search is on as the last occluder of the light.
+         */
+        private void rememberOccluder(int light) {
+            occluderObjects[light] = hitSearch.closestObject;
+            occluderSpheres[light] = hitSearch.closestSphere;
+        }
+
+        private static double intersect(HitSearch search, RenderingScene scene, int start, int end) {
+            double shortestRangeDist = Double.POSITIVE_INFINITY;
+            for (int i = start; i < end; ++i) {
+                PositionedObject<?, ?> object = scene.hierarchy.getItem(i);
+                if (object == null) continue;
+
+                double dist = search.intersect(object);
+                if (dist < shortestRangeDist) shortestRangeDist = dist;
+            }
+            return shortestRangeDist;
+        }
     }
 
     private class PositionedCamera implements Camera {
@@ -63,13 +952,25 @@ public class Scene3d implements Vector3dSpaceScene {
         private final UnitVector3d faceDirection;
         private final UnitVector3d downDirection;
         private final double fieldOfView;
+        private final RenderSettings settings;
+        // Null for the camera rendering the scene as it is at the start of each render
+        private final RenderingScene snapshot;
 
         public PositionedCamera(
-                Vector3d position, UnitVector3d faceDirection, UnitVector3d downDirection, double fieldOfView) {
+                Vector3d position, UnitVector3d faceDirection, UnitVector3d downDirection, double fieldOfView,
+                RenderingScene snapshot) {
+            this(position, faceDirection, downDirection, fieldOfView, new RenderSettings(), snapshot);
+        }
+
+        private PositionedCamera(
+                Vector3d position, UnitVector3d faceDirection, UnitVector3d downDirection, double fieldOfView,
+                RenderSettings settings, RenderingScene snapshot) {
             this.position = Objects.requireNonNull(position, "position cannot be null.");
             this.faceDirection = Objects.requireNonNull(faceDirection, "faceDirection cannot be null.");
             this.downDirection = Objects.requireNonNull(downDirection, "downDirection cannot be null.");
             this.fieldOfView = fieldOfView;
+            this.settings = settings;
+            this.snapshot = snapshot;
         }
 
         @Override
@@ -79,16 +980,258 @@ public class Scene3d implements Vector3dSpaceScene {
 
         @Override
         public BufferedImage renderAsImage(int width, int height) {
-            try {
-                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-                ProjectionInfo projectionInfo = new ProjectionInfo(width, height);
-                Renderer renderer = new Renderer(image, projectionInfo);
-                ForkJoinPool.commonPool().submit(renderer);
-                renderer.get();
-                return image;
-            } catch (InterruptedException | ExecutionException ex) {
-                throw new RuntimeException(ex);
+            return renderAsImage(width, height, TileScheduler.ofCommonPool());
+        }
+
+        @Override
+        public BufferedImage renderAsImage(int width, int height, TileScheduler scheduler) {
+            return render(width, height, scheduler).toImage();
+        }
+
+        @Override
+        public FrameBuffer render(int width, int height) {
+            return render(width, height, TileScheduler.ofCommonPool());
+        }
+
+        @Override
+        public FrameBuffer render(int width, int height, TileScheduler scheduler) {
+            return render(width, height, new Tile(0, 0, width, height), scheduler);
+        }
+
+        @Override
+        public FrameBuffer render(int width, int height, Tile region, TileScheduler scheduler) {
+            Objects.requireNonNull(region, "region cannot be null.");
+            Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+            if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image cannot be empty.");
+            if (region.getX() < 0 || region.getY() < 0
+                    || (region.getX() + region.getWidth()) > width || (region.getY() + region.getHeight()) > height) {
+                throw new IllegalArgumentException("region " + region + " is outside of the image.");
+            }
+
+            return render(
+                    width, height, region, scheduler, new FrameBuffer(region.getWidth(), region.getHeight()), null);
+        }
+
+        @Override
+        public FrameBuffer render(
+                int width, int height, Tile region, TileScheduler scheduler, GeometryBuffer geometry) {
+            Objects.requireNonNull(region, "region cannot be null.");
+            Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+            Objects.requireNonNull(geometry, "geometry cannot be null.");
+            if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image cannot be empty.");
+            if (region.getX() < 0 || region.getY() < 0
+                    || (region.getX() + region.getWidth()) > width || (region.getY() + region.getHeight()) > height) {
+                throw new IllegalArgumentException("region " + region + " is outside of the image.");
+            }
+            if (geometry.getWidth() != region.getWidth() || geometry.getHeight() != region.getHeight()) {
+                throw new IllegalArgumentException("The geometry is not of the size of the region " + region + ".");
+            }
+
+            return render(
+                    width, height, region, scheduler, new FrameBuffer(region.getWidth(), region.getHeight()),
+                    geometry);
+        }
+
+        @Override
+        public FrameBuffer render(FrameBuffer frame, TileScheduler scheduler) {
+            Objects.requireNonNull(frame, "frame cannot be null.");
+            Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            return render(width, height, new Tile(0, 0, width, height), scheduler, frame, null);
+        }
+
+        @Override
+        public FrameBuffer render(FrameBuffer frame, TileScheduler scheduler, GeometryBuffer geometry) {
+            Objects.requireNonNull(frame, "frame cannot be null.");
+            Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+            Objects.requireNonNull(geometry, "geometry cannot be null.");
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            if (geometry.getWidth() != width || geometry.getHeight() != height) {
+                throw new IllegalArgumentException("The geometry is not of the size of the frame.");
             }
+
+            return render(width, height, new Tile(0, 0, width, height), scheduler, frame, geometry);
+        }
+
+        private FrameBuffer render(
+                int width, int height, Tile region, TileScheduler scheduler, FrameBuffer frame,
+                GeometryBuffer geometry) {
+            ProjectionInfo projectionInfo = new ProjectionInfo(width, height);
+            RenderingScene scene = snapshot != null ? snapshot : prepareScene();
+            if (settings.statistics != null) settings.statistics.startImage(width, height, region);
+            // The cache has only the colors
+            String imageKey = geometry == null ? getImageKey(scene, width, height) : null;
+            scheduler.execute(
+                    scheduler.createTiles(region),
+                    () -> new Renderer(
+                            frame, geometry, region, projectionInfo, scene, imageKey, 0, SINGLE_PASS_BLOCK_SIZES,
+                            RenderListener.NONE));
+            return frame;
+        }
+
+        @Override
+        public CompletableFuture<FrameBuffer> renderAsync(
+                int width, int height, TileScheduler scheduler, RenderListener listener) {
+            return renderInPasses(width, height, scheduler, listener, SINGLE_PASS_BLOCK_SIZES);
+        }
+
+        @Override
+        public CompletableFuture<FrameBuffer> renderProgressively(
+                int width, int height, TileScheduler scheduler, RenderListener listener) {
+            return renderInPasses(width, height, scheduler, listener, PROGRESSIVE_BLOCK_SIZES);
+        }
+
+        @Override
+        public Camera withRayPackets(int packetSize) {
+            if (packetSize < 1 || (packetSize * packetSize) > RayPacket.MAX_SIZE) {
+                throw new IllegalArgumentException("packetSize must be between 1 and 4: " + packetSize + ".");
+            }
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.packetSize = packetSize;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withMaxRayDepth(int maxRayDepth) {
+            if (maxRayDepth < 0) throw new IllegalArgumentException("maxRayDepth cannot be negative.");
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.maxRayDepth = maxRayDepth;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withMinRayWeight(double minRayWeight) {
+            if (! (minRayWeight >= 0 && minRayWeight <= 1)) {
+                throw new IllegalArgumentException("minRayWeight must be between 0 and 1: " + minRayWeight + ".");
+            }
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.minRayWeight = minRayWeight;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withMaxLightsPerHit(int maxLightsPerHit) {
+            if (maxLightsPerHit <= 0) throw new IllegalArgumentException("maxLightsPerHit must be positive.");
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.maxLightsPerHit = maxLightsPerHit;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withAntiAliasing(int maxSamples, double threshold) {
+            int gridSize = (int) Math.round(Math.sqrt(maxSamples));
+            if (maxSamples != 1 && ((gridSize * gridSize) != maxSamples || gridSize < 2 || gridSize > 8)) {
+                throw new IllegalArgumentException(
+                        "maxSamples must be 1, or a square from 4 to 64: " + maxSamples + ".");
+            }
+            if (! (threshold >= 0 && threshold <= 1)) {
+                throw new IllegalArgumentException("threshold must be between 0 and 1: " + threshold + ".");
+            }
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.sampleGridSize = maxSamples == 1 ? 1 : gridSize;
+            settings.sampleThreshold = threshold;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withFloatPrecision(boolean floatPrecision) {
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.floatPrecision = floatPrecision;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withStatistics(RenderStatistics statistics) {
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.statistics = statistics;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        @Override
+        public Camera withRenderCache(RenderCache renderCache) {
+            RenderSettings settings = new RenderSettings(this.settings);
+            settings.renderCache = renderCache;
+            return new PositionedCamera(position, faceDirection, downDirection, fieldOfView, settings, snapshot);
+        }
+
+        /**
+         * @return the key of the image of the size in the render cache of the settings, or null if there is no cache
+         * or the scene cannot be hashed. The objects and the lights are left to the manifest of the scene, which the
+         * tiles are checked against one by one, but the background and the refractive index of the scene reach all
+         * of the pixels.
+         */
+        private String getImageKey(RenderingScene scene, int width, int height) {
+            if (settings.renderCache == null || ! scene.getManifest().isPresent()) return null;
+
+            // The packets leave the pixels the same, so the images are shared by the packet sizes
+            ContentDigest digest = new ContentDigest().putInt(RenderCache.VERSION);
+            for (float component : scene.bgRgbComponents) digest.putDouble(component);
+            digest.putDouble(scene.refractiveIndex);
+            digest.putDouble(position.getX()).putDouble(position.getY()).putDouble(position.getZ());
+            digest.putDouble(faceDirection.getX()).putDouble(faceDirection.getY()).putDouble(faceDirection.getZ());
+            digest.putDouble(downDirection.getX()).putDouble(downDirection.getY()).putDouble(downDirection.getZ());
+            digest.putDouble(fieldOfView);
+            digest.putInt(settings.maxRayDepth).putDouble(settings.minRayWeight).putInt(settings.maxLightsPerHit);
+            digest.putInt(settings.sampleGridSize).putDouble(settings.sampleThreshold);
+            digest.putInt(settings.floatPrecision ? 1 : 0);
+            digest.putInt(width).putInt(height);
+            return ContentDigest.toHex(digest.finish());
+        }
+
+        private CompletableFuture<FrameBuffer> renderInPasses(
+                int width, int height, TileScheduler scheduler, RenderListener listener, int[] blockSizes) {
+            Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+            Objects.requireNonNull(listener, "listener cannot be null.");
+
+            FrameBuffer frame = new FrameBuffer(width, height);
+            ProjectionInfo projectionInfo = new ProjectionInfo(width, height);
+            RenderingScene scene = snapshot != null ? snapshot : prepareScene();
+            if (settings.statistics != null) {
+                settings.statistics.startImage(width, height, new Tile(0, 0, width, height));
+            }
+            List<Tile> tiles = scheduler.createTiles(width, height);
+            // The coarse passes are never cached, only the full pixels are
+            String imageKey = blockSizes.length == 1 ? getImageKey(scene, width, height) : null;
+            CompletableFuture<FrameBuffer> result = new CompletableFuture<>();
+            renderPass(0, frame, projectionInfo, scene, imageKey, tiles, scheduler, listener, blockSizes, result);
+            return result;
+        }
+
+        private void renderPass(
+                int pass, FrameBuffer frame, ProjectionInfo projectionInfo, RenderingScene scene, String imageKey,
+                List<Tile> tiles, TileScheduler scheduler, RenderListener listener, int[] blockSizes,
+                CompletableFuture<FrameBuffer> result) {
+            if (result.isDone()) return;
+
+            Tile region = new Tile(0, 0, frame.getWidth(), frame.getHeight());
+            CompletableFuture<Void> passFuture = scheduler.executeAsync(
+                    tiles,
+                    () -> new Renderer(
+                            frame, null, region, projectionInfo, scene, imageKey, pass, blockSizes, listener));
+            // Cancelling (or failing) the render stops the pass in progress
+            result.whenComplete((f, ex) -> passFuture.cancel(false));
+            passFuture.whenComplete((v, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                    return;
+                }
+                try {
+                    listener.onPassCompleted(frame, pass, blockSizes.length);
+                } catch (RuntimeException listenerEx) {
+                    result.completeExceptionally(listenerEx);
+                    return;
+                }
+                if (pass == (blockSizes.length - 1)) {
+                    result.complete(frame);
+                } else {
+                    renderPass(
+                            (pass + 1), frame, projectionInfo, scene, imageKey, tiles, scheduler, listener, blockSizes,
+                            result);
+                }
+            });
         }
 
         private class ProjectionInfo {
@@ -99,269 +1242,1066 @@ public class Scene3d implements Vector3dSpaceScene {
             private final UnitVector3d screenYDir = downDirection;
             private final double xFactor;
             private final double yFactor =  fovSideWidth;
+            private final int width;
+            private final int height;
 
             private ProjectionInfo(int width, int height) {
+                this.width = width;
+                this.height = height;
                 screenRatio = width / (double) height;
                 xFactor =  fovSideWidth * screenRatio;
             }
         }
 
-        private class Renderer extends RecursiveAction {
-
-            private final int THRESHOLD = 100;
+        /*
+         * The ray casts work on primitive components with the scratch space of the thread instead of "Vector3d"s,
+         * while following the exact same arithmetic as the "Vector3d" operations do, so that the rendered pixels are
+         * also exactly the same.
+         */
+        private class Renderer implements TileScheduler.TileRenderer {
 
-            private final BufferedImage image;
+            private final FrameBuffer frame;
+            // Null unless the render fills the geometry of the primary hits as well, of the size of the frame
+            private final GeometryBuffer geometry;
+            // The frame holds only the region of the image starting here
+            private final int frameX;
+            private final int frameY;
 
             private final ProjectionInfo projectionInfo;
-            private final int x0;
-            private final int y0;
-            private final int x1;
-            private final int y1;
+            private final RenderingScene scene;
+            // The key of the image in the render cache, null if the tiles are not cached
+            private final String imageKey;
+            // Null as well if the tiles are not cached, the dependencies recorded for the tile being rendered
+            private final SceneManifest manifest;
+            private final TileDependencies dependencies;
 
-            private Renderer(BufferedImage image, ProjectionInfo projectionInfo) {
-                this(image, projectionInfo, 0, 0, (image.getWidth() - 1), (image.getHeight() - 1));
-            }
+            private final int pass;
+            private final int blockSize;
+            // The pixels at the multiples of the previous block size have been cast already
+            private final int castBlockSize;
+            private final RenderListener listener;
 
-            private Renderer(BufferedImage image, ProjectionInfo projectionInfo, int x0, int y0, int x1, int y1) {
-                this.image = image;
-                this.projectionInfo = projectionInfo;
+            // Owned by the worker thread for all of its tiles
+            private final TraceContext context;
+            // Null unless the statistics of the camera count the intersection tests of each pixel
+            private final RenderStatistics.Heatmap heatmap;
 
-                this.x0 = x0;
-                this.y0 = y0;
-                this.x1 = x1;
-                this.y1 = y1;
+            private Renderer(
+                    FrameBuffer frame, GeometryBuffer geometry, Tile region, ProjectionInfo projectionInfo,
+                    RenderingScene scene, String imageKey, int pass, int[] blockSizes, RenderListener listener) {
+                this.frame = frame;
+                this.geometry = geometry;
+                this.frameX = region.getX();
+                this.frameY = region.getY();
+                this.projectionInfo = projectionInfo;
+                this.scene = scene;
+                this.imageKey = imageKey;
+                this.manifest = imageKey != null ? scene.getManifest().get() : null;
+                this.dependencies = imageKey != null ? new TileDependencies() : null;
+                this.pass = pass;
+                this.blockSize = blockSizes[pass];
+                this.castBlockSize = pass > 0 ? blockSizes[pass - 1] : 0;
+                this.listener = listener;
+                this.context = new TraceContext(
+                        scene, settings, settings.statistics != null ? new RenderStatistics.Counters() : null);
+                this.heatmap = settings.statistics != null
+                        ? settings.statistics.getHeatmap(projectionInfo.width, projectionInfo.height)
+                        : null;
             }
 
             @Override
-            protected void compute() {
-                int width = x1 - x0;
-                int height = y1 - y0;
-                int count = width * height;
-                if (count <= THRESHOLD) {
-                    render();
+            public void render(Tile tile) {
+                if (imageKey != null && settings.renderCache.read(imageKey, manifest, tile, frame, frameX, frameY)) {
+                    listener.onTileRendered(frame, tile, pass);
                     return;
                 }
+                if (dependencies != null) dependencies.reset();
 
-                int x01 = x1;
-                int y01 = y1;
-                int x10 = x0;
-                int y10 = y0;
-                if (width >= height) {
-                    x01 = x0 + (width / 2);
-                    x10 = x01 + 1;
-                } else {
-                    y01 = y0 + (height / 2);
-                    y10 = y01 + 1;
-                }
-
-                Renderer renderer0 = new Renderer(image, projectionInfo, x0, y0, x01, y01);
-                Renderer renderer1 = new Renderer(image, projectionInfo, x10, y10, x1, y1);
-                invokeAll(renderer0, renderer1);
-            }
-
-            private void render() {
-                for (int i = x0; i <= x1; ++i) {
-                    for (int j = y0; j <= y1; ++j) {
-                        double x = ((2.0 * ((i + 0.5) / (double) image.getWidth()) - 1) * projectionInfo.xFactor);
-                        double y = ((2.0 * ((j + 0.5) / (double) image.getHeight()) - 1) * projectionInfo.yFactor);
-                        Vector3d pixel =
-                                projectionInfo.screenCenter
-                                        .plus(projectionInfo.screenXDir.times(x))
-                                        .plus(projectionInfo.screenYDir.times(y));
-                        UnitVector3d ray = pixel.minus(position).normalize();
-                        int rgb = castRay(position, ray, 0).map(Color::getRGB).orElse(bgColor.getRGB());
-                        image.setRGB(i, j, rgb);
+                RenderStatistics.Counters counters = context.counters;
+                if (counters != null) settings.statistics.startTile(counters);
+                int tileX1 = tile.getX() + tile.getWidth();
+                int tileY1 = tile.getY() + tile.getHeight();
+                // The edges are found against the neighbours, which the pixels at the borders of the tile have
+                // outside of it
+                boolean antiAliased = settings.sampleGridSize > 1 && blockSize == 1 && castBlockSize == 0;
+                int margin = antiAliased ? 1 : 0;
+                int areaX0 = Math.max(0, (tile.getX() - margin));
+                int areaY0 = Math.max(0, (tile.getY() - margin));
+                int areaX1 = Math.min(projectionInfo.width, (tileX1 + margin));
+                int areaY1 = Math.min(projectionInfo.height, (tileY1 + margin));
+                castArea(areaX0, areaY0, areaX1, areaY1);
+
+                int areaWidth = areaX1 - areaX0;
+                for (int j = alignUp(tile.getY(), blockSize); j < tileY1; j += blockSize) {
+                    for (int i = alignUp(tile.getX(), blockSize); i < tileX1; i += blockSize) {
+                        if (isCast(i, j)) continue;
+
+                        int index = ((j - areaY0) * areaWidth) + (i - areaX0);
+                        int rgb = context.areaRgbs[index];
+                        long tests = counters != null ? counters.tests : 0;
+                        if (antiAliased && isEdge(i, j, areaX0, areaY0, areaX1, areaY1)) rgb = castSamples(i, j);
+                        fillBlock(i, j, tileX1, tileY1, rgb);
+                        if (geometry != null) fillGeometryBlock(i, j, tileX1, tileY1, index);
+                        // The neighbours cast outside of the tile only count in the totals
+                        if (heatmap != null) heatmap.add(i, j, (context.areaCosts[index] + (counters.tests - tests)));
                     }
                 }
+                if (counters != null) settings.statistics.addTile(counters, tile, pass);
+                if (imageKey != null) {
+                    settings.renderCache.write(imageKey, manifest, tile, dependencies, frame, frameX, frameY);
+                }
+                listener.onTileRendered(frame, tile, pass);
             }
 
-            private Optional<Color> castRay(Vector3d source, UnitVector3d ray, final int depth) {
-                if (depth > 4) return Optional.empty();
+            /**
+             * Casts the pixels of the pass within the area, in squares of the packet size. The colors, and the ids of
+             * the objects hit first, go into the area of the context row by row, along with the geometry of the hits
+             * if the render has a geometry buffer.
+             */
+            private void castArea(int areaX0, int areaY0, int areaX1, int areaY1) {
+                int areaWidth = areaX1 - areaX0;
+                context.ensureAreaCapacity(areaWidth * (areaY1 - areaY0), (heatmap != null), (geometry != null));
+                int packetStride = blockSize * settings.packetSize;
+                int[] xs = context.packetXs;
+                int[] ys = context.packetYs;
+                for (int packetJ = alignUp(areaY0, blockSize); packetJ < areaY1; packetJ += packetStride) {
+                    for (int packetI = alignUp(areaX0, blockSize); packetI < areaX1; packetI += packetStride) {
+                        int count = 0;
+                        for (int j = packetJ; j < Math.min((packetJ + packetStride), areaY1); j += blockSize) {
+                            for (int i = packetI; i < Math.min((packetI + packetStride), areaX1); i += blockSize) {
+                                if (isCast(i, j)) continue;
 
-                Optional<SurfacePoint> optSurface = intersectScene(source, ray);
-                if (! optSurface.isPresent()) return Optional.empty();
+                                xs[count] = i;
+                                ys[count] = j;
+                                ++count;
+                            }
+                        }
+                        if (count == 0) continue;
 
-                SurfacePoint surface = optSurface.get();
-                double diffuseLightIntensity = 0;
-                double specularLightIntensity = 0;
+                        long tests = heatmap != null ? context.counters.tests : 0;
+                        if (count > 1) {
+                            castPacket(count);
+                        } else {
+                            context.packetRgbs[0] = castPixel(xs[0], ys[0]);
+                            context.packetIds[0] = context.primaryId;
+                        }
+                        for (int k = 0; k < count; ++k) {
+                            int index = ((ys[k] - areaY0) * areaWidth) + (xs[k] - areaX0);
+                            context.areaRgbs[index] = context.packetRgbs[k];
+                            context.areaIds[index] = context.packetIds[k];
+                            if (heatmap != null) context.areaCosts[index] = (context.counters.tests - tests) / count;
+                            if (geometry != null) {
+                                context.areaDepths[index] = context.packetDepths[k];
+                                System.arraycopy(context.packetNormals, (k * 3), context.areaNormals, (index * 3), 3);
+                                context.areaMaterialIds[index] = context.packetMaterialIds[k];
+                            }
+                        }
+                    }
+                }
+            }
 
-                UnitVector3d reflectDir = reflect(ray, surface.getNormal());
-
-                Optional<UnitVector3d> optRefractDir =
-                        refract(ray, surface.getNormal(), surface.getMaterial().getRefractiveIndex());
-                Vector3d reflectSrc =
-                        reflectDir.dot(surface.getNormal()) < 0
-                                ? surface.getPoint().minus(surface.getNormal().times(1e-3))
-                                : surface.getPoint().plus(surface.getNormal().times(1e-3));
-                Color reflectColor = castRay(reflectSrc, reflectDir, (depth + 1)).orElse(bgColor);
-                Color refractColor = optRefractDir.flatMap(v -> {
-                            Vector3d refractSrc =
-                                    v.dot(surface.getNormal()) < 0
-                                            ? surface.getPoint().minus(surface.getNormal().times(1e-3))
-                                            : surface.getPoint().plus(surface.getNormal().times(1e-3));
-                            return castRay(refractSrc, v, (depth + 1));
-                        })
-                        .orElse(bgColor);
-
-                for (Lighting lighting : lights) {
-                    UnitVector3d lightDir = lighting.position.minus(surface.getPoint()).normalize();
-
-                    if (checkPointAtShadow(surface.getPoint(), surface.getNormal(), lighting.position, lightDir)) {
-                        continue;
+            /**
+             * @return whether the pixel hits another object than any of its neighbours, or differs from any of them
+             * by more than the threshold in any of the RGB components
+             */
+            private boolean isEdge(int i, int j, int areaX0, int areaY0, int areaX1, int areaY1) {
+                int areaWidth = areaX1 - areaX0;
+                int index = ((j - areaY0) * areaWidth) + (i - areaX0);
+                int rgb = context.areaRgbs[index];
+                int id = context.areaIds[index];
+                int maxDifference = (int) (settings.sampleThreshold * 255);
+                for (int y = Math.max(areaY0, (j - 1)); y < Math.min(areaY1, (j + 2)); ++y) {
+                    for (int x = Math.max(areaX0, (i - 1)); x < Math.min(areaX1, (i + 2)); ++x) {
+                        int neighbour = ((y - areaY0) * areaWidth) + (x - areaX0);
+                        if (context.areaIds[neighbour] != id
+                                || difference(context.areaRgbs[neighbour], rgb) > maxDifference) {
+                            return true;
+                        }
                     }
+                }
+                return false;
+            }
 
-                    diffuseLightIntensity +=
-                            lighting.light.getIntensity() * Math.max(0f, lightDir.dot(surface.getNormal()));
-                    specularLightIntensity +=
-                            calculateSpecularIntensity(
-                                    ray, lightDir, surface.getNormal(),
-                                    lighting.light, surface.getMaterial());
+            private int difference(int rgb1, int rgb2) {
+                int r = Math.abs(((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF));
+                int g = Math.abs(((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF));
+                int b = Math.abs((rgb1 & 0xFF) - (rgb2 & 0xFF));
+                return Math.max(r, Math.max(g, b));
+            }
+
+            /**
+             * Casts a 2x2 grid of samples over the pixel first, then the full grid of the settings only if those
+             * samples still hit different objects or differ by more than the threshold.
+             *
+             * @return the average of the samples of the last grid
+             */
+            private int castSamples(int i, int j) {
+                float[] sum = context.sampleSum;
+                if (castSampleGrid(i, j, 2) && settings.sampleGridSize > 2) {
+                    castSampleGrid(i, j, settings.sampleGridSize);
                 }
-                return Optional.of(
-                        calculateFinalColor(
-                                surface.getMaterial(), diffuseLightIntensity, specularLightIntensity,
-                                reflectColor, refractColor));
+                return toRgb(sum, 0);
             }
 
-            private Optional<SurfacePoint> intersectScene(Vector3d source, UnitVector3d dir) {
-                double shortestDist = Double.MAX_VALUE;
-                SurfacePoint surface = null;
-                for (PositionedObject positionedObject : objectMap.values()) {
-                    // The type should've already been checked in the construction time of "PositionedObject", therefore
-                    // it is safe here to assume the type of the "PositionedObject.positioning" match.
-                    @SuppressWarnings("unchecked")
-                    Optional<SurfacePoint> optSurface =
-                            positionedObject.object.cast(positionedObject.positioning, source, dir);
-                    if (! optSurface.isPresent()) continue;
+            /**
+             * Writes the average of the grid of samples over the pixel into the sample sum of the context.
+             *
+             * @return whether the samples hit different objects or differ by more than the threshold
+             */
+            private boolean castSampleGrid(int i, int j, int gridSize) {
+                float[] sum = context.sampleSum;
+                float[] min = context.sampleMin;
+                float[] max = context.sampleMax;
+                Arrays.fill(sum, 0f);
+                Arrays.fill(min, Float.POSITIVE_INFINITY);
+                Arrays.fill(max, Float.NEGATIVE_INFINITY);
+                int firstId = 0;
+                boolean differentIds = false;
+                for (int y = 0; y < gridSize; ++y) {
+                    for (int x = 0; x < gridSize; ++x) {
+                        float[] color = castSample((i + ((x + 0.5) / gridSize)), (j + ((y + 0.5) / gridSize)))
+                                ? context.path[0].color
+                                : scene.bgRgbComponents;
+                        for (int c = 0; c < 3; ++c) {
+                            sum[c] += color[c];
+                            min[c] = Math.min(min[c], color[c]);
+                            max[c] = Math.max(max[c], color[c]);
+                        }
+                        if (x == 0 && y == 0) {
+                            firstId = context.primaryId;
+                        } else if (context.primaryId != firstId) {
+                            differentIds = true;
+                        }
+                    }
+                }
+                float maxDifference = 0;
+                for (int c = 0; c < 3; ++c) {
+                    sum[c] /= (gridSize * gridSize);
+                    maxDifference = Math.max(maxDifference, (max[c] - min[c]));
+                }
+                return differentIds || maxDifference > settings.sampleThreshold;
+            }
+
+            private boolean isCast(int i, int j) {
+                return castBlockSize > 0 && (i % castBlockSize) == 0 && (j % castBlockSize) == 0;
+            }
+
+            private void fillBlock(int i, int j, int tileX1, int tileY1, int rgb) {
+                int[] pixels = frame.getPixels();
+                int width = frame.getWidth();
+                rgb &= 0xFFFFFF;
+                if (blockSize == 1) {
+                    pixels[((j - frameY) * width) + (i - frameX)] = rgb;
+                    return;
+                }
+                for (int y = j; y < Math.min((j + blockSize), tileY1); ++y) {
+                    for (int x = i; x < Math.min((i + blockSize), tileX1); ++x) {
+                        pixels[((y - frameY) * width) + (x - frameX)] = rgb;
+                    }
+                }
+            }
 
-                    SurfacePoint objSurface = optSurface.get();
-                    double hitDist = Math.abs(objSurface.getPoint().minus(source).norm());
-                    if (hitDist >= shortestDist) continue;
+            private void fillGeometryBlock(int i, int j, int tileX1, int tileY1, int areaIndex) {
+                float depth = context.areaDepths[areaIndex];
+                float normalX = context.areaNormals[areaIndex * 3];
+                float normalY = context.areaNormals[(areaIndex * 3) + 1];
+                float normalZ = context.areaNormals[(areaIndex * 3) + 2];
+                int objectId = context.areaIds[areaIndex];
+                int materialId = context.areaMaterialIds[areaIndex];
+                int width = geometry.getWidth();
+                for (int y = j; y < Math.min((j + blockSize), tileY1); ++y) {
+                    for (int x = i; x < Math.min((i + blockSize), tileX1); ++x) {
+                        geometry.set(
+                                (((y - frameY) * width) + (x - frameX)),
+                                depth, normalX, normalY, normalZ, objectId, materialId);
+                    }
+                }
+            }
 
-                    shortestDist = hitDist;
-                    surface = objSurface;
+            /**
+             * Keeps what the primary ray hits at the place of the packet of the context, for the geometry buffer.
+             *
+             * @param hit null if the ray hits nothing
+             */
+            private void recordGeometry(int k, HitRecord hit, Ray ray) {
+                if (hit == null) {
+                    context.packetDepths[k] = Float.POSITIVE_INFINITY;
+                    Arrays.fill(context.packetNormals, (k * 3), ((k * 3) + 3), 0f);
+                    context.packetMaterialIds[k] = 0;
+                    return;
                 }
+                UnitVector3d face = faceDirection;
+                double cosine = (ray.getDirectionX() * face.getX()) + (ray.getDirectionY() * face.getY())
+                        + (ray.getDirectionZ() * face.getZ());
+                context.packetDepths[k] = (float) (hit.getDistance() * cosine);
+                context.packetNormals[k * 3] = (float) hit.getNormalX();
+                context.packetNormals[(k * 3) + 1] = (float) hit.getNormalY();
+                context.packetNormals[(k * 3) + 2] = (float) hit.getNormalZ();
+                context.packetMaterialIds[k] = hit.getMaterial().getContentId();
+            }
 
-                // Ignores the rays which go too far away
-                return shortestDist < 1000 ? Optional.ofNullable(surface) : Optional.empty();
+            private int alignUp(int value, int alignment) {
+                return ((value + alignment - 1) / alignment) * alignment;
             }
 
-            private boolean checkPointAtShadow(
-                    Vector3d point, UnitVector3d normal, Vector3d lightPos, UnitVector3d lightDir) {
-                double lightDist = lightPos.minus(point).norm();
-                Vector3d shadowSrc = normal.dot(lightDir) < 0
-                        ? point.minus(normal.times(1e-3)) : point.plus(normal.times(1e-3));
-                Optional<SurfacePoint> optSurface = intersectScene(shadowSrc, lightDir);
-                return optSurface.map(sf -> sf.getPoint().minus(shadowSrc).norm() < lightDist).orElse(Boolean.FALSE);
+            private int castPixel(int i, int j) {
+                return castSample((i + 0.5), (j + 0.5)) ? toRgb(context.path[0].color, 0) : scene.bgRgb;
+            }
+
+            /**
+             * Casts the primary ray through the point of the image, in pixels from its top left corner. The id of
+             * the object hit first goes into the context, and its geometry into the first place of the packet of the
+             * context if the render has a geometry buffer.
+             *
+             * @return whether the ray hits anything, in which case the color is written into the first vertex of the
+             * path of the context
+             */
+            private boolean castSample(double x, double y) {
+                if (context.counters != null) ++context.counters.primaryRays;
+                Ray ray = setPrimaryRay(context.ray, x, y);
+                if (! intersectScene(
+                        context, ray.getOriginX(), ray.getOriginY(), ray.getOriginZ(),
+                        ray.getDirectionX(), ray.getDirectionY(), ray.getDirectionZ())) {
+                    context.primaryId = NO_OBJECT_ID;
+                    if (geometry != null) recordGeometry(0, null, ray);
+                    return false;
+                }
+                context.primaryId = context.hitSearch.getClosestId();
+                if (geometry != null) recordGeometry(0, context.hitSearch.closest, ray);
+                trace(
+                        context, context.hitSearch.closest,
+                        ray.getDirectionX(), ray.getDirectionY(), ray.getDirectionZ(), null, 0);
+                return true;
+            }
+
+            private Ray setPrimaryRay(Ray ray, double imageX, double imageY) {
+                int width = projectionInfo.width;
+                int height = projectionInfo.height;
+                Vector3d center = projectionInfo.screenCenter;
+                UnitVector3d xDir = projectionInfo.screenXDir;
+                UnitVector3d yDir = projectionInfo.screenYDir;
+                double x = ((2.0 * (imageX / (double) width) - 1) * projectionInfo.xFactor);
+                double y = ((2.0 * (imageY / (double) height) - 1) * projectionInfo.yFactor);
+                double rayX = (center.getX() + (xDir.getX() * x) + (yDir.getX() * y)) - position.getX();
+                double rayY = (center.getY() + (xDir.getY() * x) + (yDir.getY() * y)) - position.getY();
+                double rayZ = (center.getZ() + (xDir.getZ() * x) + (yDir.getZ() * y)) - position.getZ();
+                double norm = Math.sqrt((rayX * rayX) + (rayY * rayY) + (rayZ * rayZ));
+                if (norm != 0) {
+                    rayX /= norm;
+                    rayY /= norm;
+                    rayZ /= norm;
+                }
+                return ray.set(position.getX(), position.getY(), position.getZ(), rayX, rayY, rayZ);
             }
 
-            private UnitVector3d reflect(UnitVector3d ray, UnitVector3d normal) {
-                return ray.minus(normal.times(2.0).times(ray.dot(normal))).normalize();
+            /**
+             * Casts the pixels of the context at once, the primary rays of them and then the shadow rays from their
+             * hits are traced as packets, the rest of the rays one by one. The colors, and the ids of the objects hit
+             * first, go into the context.
+             */
+            private void castPacket(int count) {
+                RayPacket packet = context.packet;
+                HitSearch[] searches = context.packetSearches;
+                List<PositionedObject<?, ?>> linearObjects = scene.linearObjects;
+
+                packet.deactivateAll();
+                for (int k = 0; k < count; ++k) {
+                    Ray ray = setPrimaryRay(packet.getRay(k), (context.packetXs[k] + 0.5), (context.packetYs[k] + 0.5));
+                    HitSearch search = searches[k];
+                    search.reset(ray, RAY_DISTANCE_LIMIT);
+                    for (int i = 0; i < linearObjects.size(); ++i) {
+                        search.intersect(linearObjects.get(i));
+                    }
+                    packet.activate(k, search.shortestDist);
+                }
+                scene.hierarchy.traverseClosest(packet, context.packetIntersector, context.traversalStack);
+                scene.spheres.hierarchy.traverseClosest(
+                        packet, context.packetSphereIntersector, context.traversalStack);
+
+                int hitMask = 0;
+                for (int k = 0; k < count; ++k) {
+                    boolean hit = searches[k].shortestDist < RAY_DISTANCE_LIMIT;
+                    if (hit) hitMask |= (1 << k);
+                    context.packetIds[k] = hit ? searches[k].getClosestId() : NO_OBJECT_ID;
+                    if (dependencies != null) dependencies.sweep(packet.getRay(k), searches[k].shortestDist);
+                    if (geometry != null) recordGeometry(k, (hit ? searches[k].closest : null), packet.getRay(k));
+                }
+                if (context.counters != null) {
+                    context.counters.primaryRays += count;
+                    context.counters.hits += Integer.bitCount(hitMask);
+                }
+                if (dependencies != null && hitMask != 0) dependencies.setLit();
+                // Otherwise each hit picks its own lights, and traces its own shadow rays
+                int[] shadowMasks = context.lightSelection == null ? context.shadowMasks : null;
+                for (int l = 0; shadowMasks != null && l < scene.lights.length; ++l) {
+                    shadowMasks[l] = traceShadowPacket(hitMask, l);
+                }
+
+                for (int k = 0; k < count; ++k) {
+                    if ((hitMask & (1 << k)) == 0) {
+                        context.packetRgbs[k] = scene.bgRgb;
+                        continue;
+                    }
+                    // The shadow rays have taken over the packet, the primary directions are still in the projection
+                    Ray ray = setPrimaryRay(packet.getRay(k), (context.packetXs[k] + 0.5), (context.packetYs[k] + 0.5));
+                    trace(
+                            context, searches[k].closest,
+                            ray.getDirectionX(), ray.getDirectionY(), ray.getDirectionZ(),
+                            shadowMasks, (1 << k));
+                    context.packetRgbs[k] = toRgb(context.path[0].color, 0);
+                }
             }
 
-            private Optional<UnitVector3d> refract(UnitVector3d ray, UnitVector3d normal, double refractiveIndex) {
-                double c = -ray.dot(normal);
+            /**
+             * @return the mask of the hits of the packet which are in the shadow of the light
+             */
+            private int traceShadowPacket(int hitMask, int light) {
+                Vector3d lightPos = scene.lights[light].position;
+                RayPacket packet = context.packet;
+                List<PositionedObject<?, ?>> linearObjects = scene.linearObjects;
+                // The primary rays are done with, the hits are kept by the searches
+                packet.deactivateAll();
+                if (context.counters != null) context.counters.shadowRays += Integer.bitCount(hitMask);
+                int shadowMask = 0;
+                for (int mask = hitMask; mask != 0; mask &= (mask - 1)) {
+                    int k = Integer.numberOfTrailingZeros(mask);
+                    Ray ray = packet.getRay(k);
+                    double maxDist = Math.min(
+                            setShadowRay(ray, context.packetSearches[k].closest, lightPos), RAY_DISTANCE_LIMIT);
+                    if (dependencies != null) dependencies.sweepShadow(ray, maxDist, light);
+                    HitSearch search = context.hitSearch;
+                    search.reset(ray, maxDist);
+                    boolean blocked = context.hitsOccluder(light, maxDist);
+                    for (int i = 0; i < linearObjects.size() && ! blocked; ++i) {
+                        blocked = search.intersect(linearObjects.get(i)) < maxDist;
+                        if (blocked) context.rememberOccluder(light);
+                    }
+                    if (blocked) {
+                        shadowMask |= (1 << k);
+                    } else {
+                        packet.activate(k, maxDist);
+                    }
+                }
+
+                int blockedMask =
+                        scene.hierarchy.traverseAny(packet, context.shadowIntersector, context.traversalStack);
+                for (int mask = blockedMask; mask != 0; mask &= (mask - 1)) {
+                    packet.deactivate(Integer.numberOfTrailingZeros(mask));
+                }
+                blockedMask |= scene.spheres.hierarchy.traverseAny(
+                        packet, context.shadowSphereIntersector, context.traversalStack);
+                // The last hit accepted by the search has blocked one of the rays
+                if (blockedMask != 0) context.rememberOccluder(light);
+                return shadowMask | blockedMask;
+            }
+
+            /**
+             * Follows the reflections and the refractions from the hit of the ray depth first, with the path so far
+             * on the context instead of the call stack, and writes the color into the first vertex of the path.
+             * <p>
+             * A branch whose albedo is zero cannot add anything to the color, so it is never traced. Past the depth
+             * limit, or once the weight of the branch in the color of the pixel falls below the minimum, the branch
+             * takes the background color instead.
+             *
+             * @param shadowMasks whether the hit is in the shadow of each light, at the bit of the hit, or
+             *                    {@code null} to trace the shadow rays here
+             */
+            private void trace(
+                    TraceContext context, HitRecord hit, double rayX, double rayY, double rayZ,
+                    int[] shadowMasks, int shadowBit) {
+                PathVertex[] path = context.path;
+                enterVertex(context, path[0], hit, rayX, rayY, rayZ, 1, shadowMasks, shadowBit);
+                int depth = 0;
+                while (true) {
+                    PathVertex vertex = path[depth];
+                    if (vertex.branch < PathVertex.BRANCH_COUNT) {
+                        int branch = vertex.branch++;
+                        int colorOffset = branch * 3;
+                        double albedo = branch == PathVertex.REFLECTION
+                                ? vertex.material.getReflectionAlbedo()
+                                : vertex.material.getRefractiveAlbedo();
+                        if (albedo == 0) {
+                            Arrays.fill(vertex.branchColors, colorOffset, (colorOffset + 3), 0f);
+                            continue;
+                        }
+
+                        double weight = vertex.weight * albedo;
+                        double[] rays = vertex.branchRays;
+                        int rayOffset = branch * 6;
+                        if ((branch == PathVertex.REFRACTION && ! vertex.refracted)
+                                || depth == settings.maxRayDepth
+                                || Math.abs(weight) < settings.minRayWeight
+                                || ! castBranch(context, branch, rays, rayOffset)) {
+                            System.arraycopy(scene.bgRgbComponents, 0, vertex.branchColors, colorOffset, 3);
+                            continue;
+                        }
+                        ++depth;
+                        if (context.counters != null) context.counters.reachRayDepth(depth);
+                        enterVertex(
+                                context, path[depth], context.hitSearch.closest,
+                                rays[rayOffset + 3], rays[rayOffset + 4], rays[rayOffset + 5], weight, null, 0);
+                        continue;
+                    }
+
+                    float[] branchColors = vertex.branchColors;
+                    calculateFinalColor(
+                            vertex.material, vertex.diffuseLightIntensity, vertex.specularLightIntensity,
+                            branchColors[0], branchColors[1], branchColors[2],
+                            branchColors[3], branchColors[4], branchColors[5],
+                            vertex.color, 0);
+                    if (depth == 0) return;
+
+                    --depth;
+                    PathVertex parent = path[depth];
+                    System.arraycopy(vertex.color, 0, parent.branchColors, ((parent.branch - 1) * 3), 3);
+                }
+            }
+
+            /**
+             * Starts the vertex at the hit of the ray: lights it up and sets out the rays of its branches.
+             */
+            private void enterVertex(
+                    TraceContext context, PathVertex vertex,
+                    HitRecord hit, double rayX, double rayY, double rayZ, double weight,
+                    int[] shadowMasks, int shadowBit) {
+                // The hit record is reused by the following casts
+                double pointX = hit.getPointX();
+                double pointY = hit.getPointY();
+                double pointZ = hit.getPointZ();
+                double normalX = hit.getNormalX();
+                double normalY = hit.getNormalY();
+                double normalZ = hit.getNormalZ();
+                Material material = hit.getMaterial();
+
+                double diffuseLightIntensity = 0;
+                double specularLightIntensity = 0;
+
+                // reflect(ray, normal)
+                double rayDotNormal = (rayX * normalX) + (rayY * normalY) + (rayZ * normalZ);
+                double reflectX = rayX - ((normalX * 2.0) * rayDotNormal);
+                double reflectY = rayY - ((normalY * 2.0) * rayDotNormal);
+                double reflectZ = rayZ - ((normalZ * 2.0) * rayDotNormal);
+                double reflectNorm = Math.sqrt((reflectX * reflectX) + (reflectY * reflectY) + (reflectZ * reflectZ));
+                if (reflectNorm != 0) {
+                    reflectX /= reflectNorm;
+                    reflectY /= reflectNorm;
+                    reflectZ /= reflectNorm;
+                }
+
+                // refract(ray, normal, material.getRefractiveIndex())
+                double c = -rayDotNormal;
                 if (c > 1) c = 1;
                 else if (c < -1) c = -1;
-
-                double idx1 = Scene3d.this.refractiveIndex;
-                double idx2 = refractiveIndex;
+                double refractNormalX = normalX;
+                double refractNormalY = normalY;
+                double refractNormalZ = normalZ;
+                double idx1 = scene.refractiveIndex;
+                double idx2 = material.getRefractiveIndex();
                 if (c < 0) {
                     c = -c;
-                    normal = normal.negate();
+                    refractNormalX = -refractNormalX;
+                    refractNormalY = -refractNormalY;
+                    refractNormalZ = -refractNormalZ;
                     double idx = idx1;
                     idx1 = idx2;
                     idx2 = idx;
                 }
                 double r = idx1 / idx2;
                 double nFactor = 1 - (r * r * (1 - (c * c)));
-                return nFactor >= 0
-                        ? Optional.of(ray.times(r).plus(normal.times((r * c) - Math.sqrt(nFactor))).normalize())
-                        : Optional.empty();
+                boolean refracted = nFactor >= 0;
+                double refractX = 0;
+                double refractY = 0;
+                double refractZ = 0;
+                if (refracted) {
+                    double normalFactor = (r * c) - Math.sqrt(nFactor);
+                    refractX = (rayX * r) + (refractNormalX * normalFactor);
+                    refractY = (rayY * r) + (refractNormalY * normalFactor);
+                    refractZ = (rayZ * r) + (refractNormalZ * normalFactor);
+                    double refractNorm =
+                            Math.sqrt((refractX * refractX) + (refractY * refractY) + (refractZ * refractZ));
+                    if (refractNorm != 0) {
+                        refractX /= refractNorm;
+                        refractY /= refractNorm;
+                        refractZ /= refractNorm;
+                    }
+                }
+
+                double[] rays = vertex.branchRays;
+                double reflectSign = ((reflectX * normalX) + (reflectY * normalY) + (reflectZ * normalZ)) < 0 ? -1 : 1;
+                rays[0] = pointX + (reflectSign * (normalX * 1e-3));
+                rays[1] = pointY + (reflectSign * (normalY * 1e-3));
+                rays[2] = pointZ + (reflectSign * (normalZ * 1e-3));
+                rays[3] = reflectX;
+                rays[4] = reflectY;
+                rays[5] = reflectZ;
+                if (refracted) {
+                    double refractSign =
+                            ((refractX * normalX) + (refractY * normalY) + (refractZ * normalZ)) < 0 ? -1 : 1;
+                    rays[6] = pointX + (refractSign * (normalX * 1e-3));
+                    rays[7] = pointY + (refractSign * (normalY * 1e-3));
+                    rays[8] = pointZ + (refractSign * (normalZ * 1e-3));
+                    rays[9] = refractX;
+                    rays[10] = refractY;
+                    rays[11] = refractZ;
+                }
+
+                LightHierarchy.Selection lightSelection = context.lightSelection;
+                int lightCount = lightSelection == null
+                        ? scene.lights.length
+                        : scene.lightHierarchy.select(pointX, pointY, pointZ, lightSelection);
+                for (int i = 0; i < lightCount; ++i) {
+                    int l = lightSelection == null ? i : lightSelection.getLight(i);
+                    Lighting lighting = scene.lights[l];
+                    double lightDist = setShadowRay(
+                            context.ray, pointX, pointY, pointZ, normalX, normalY, normalZ, lighting.position);
+                    boolean shadowed = shadowMasks == null
+                            ? checkPointAtShadow(context, context.ray, lightDist, l)
+                            : (shadowMasks[l] & shadowBit) != 0;
+                    if (shadowed) continue;
+
+                    double lightDirX = context.ray.getDirectionX();
+                    double lightDirY = context.ray.getDirectionY();
+                    double lightDirZ = context.ray.getDirectionZ();
+                    double lightDotNormal = (lightDirX * normalX) + (lightDirY * normalY) + (lightDirZ * normalZ);
+
+                    diffuseLightIntensity += lighting.light.getIntensity() * Math.max(0f, lightDotNormal);
+                    specularLightIntensity +=
+                            calculateSpecularIntensity(
+                                    rayX, rayY, rayZ, lightDirX, lightDirY, lightDirZ, normalX, normalY, normalZ,
+                                    lighting.light, material);
+                }
+
+                vertex.material = material;
+                vertex.diffuseLightIntensity = diffuseLightIntensity;
+                vertex.specularLightIntensity = specularLightIntensity;
+                vertex.refracted = refracted;
+                vertex.weight = weight;
+                vertex.branch = PathVertex.REFLECTION;
+            }
+
+            private boolean castBranch(TraceContext context, int branch, double[] rays, int rayOffset) {
+                if (context.counters != null) {
+                    if (branch == PathVertex.REFLECTION) {
+                        ++context.counters.reflectionRays;
+                    } else {
+                        ++context.counters.refractionRays;
+                    }
+                }
+                return intersectScene(
+                        context,
+                        rays[rayOffset], rays[rayOffset + 1], rays[rayOffset + 2],
+                        rays[rayOffset + 3], rays[rayOffset + 4], rays[rayOffset + 5]);
+            }
+
+            /**
+             * @return whether the ray hits anything, in which case the closest hit is in the hit search of the
+             * context
+             */
+            private boolean intersectScene(
+                    TraceContext context,
+                    double sourceX, double sourceY, double sourceZ, double dirX, double dirY, double dirZ) {
+                Ray ray = context.ray.set(sourceX, sourceY, sourceZ, dirX, dirY, dirZ);
+                HitSearch search = context.hitSearch;
+                search.reset(ray, RAY_DISTANCE_LIMIT);
+                List<PositionedObject<?, ?>> linearObjects = scene.linearObjects;
+                for (int i = 0; i < linearObjects.size(); ++i) {
+                    search.intersect(linearObjects.get(i));
+                }
+                scene.hierarchy.traverseClosest(ray, search.shortestDist, search, context.traversalStack);
+                scene.spheres.hierarchy.traverseClosest(
+                        ray, search.shortestDist, search.sphereIntersector, context.traversalStack);
+                boolean hit = search.shortestDist < RAY_DISTANCE_LIMIT;
+                if (hit && context.counters != null) ++context.counters.hits;
+                if (dependencies != null) {
+                    dependencies.sweep(ray, search.shortestDist);
+                    if (hit) dependencies.setLit();
+                }
+                return hit;
+            }
+
+            private double setShadowRay(Ray ray, HitRecord hit, Vector3d lightPos) {
+                return setShadowRay(
+                        ray, hit.getPointX(), hit.getPointY(), hit.getPointZ(),
+                        hit.getNormalX(), hit.getNormalY(), hit.getNormalZ(), lightPos);
+            }
+
+            /**
+             * Points the ray from just off the point, on the side of the light, towards the light.
+             *
+             * @return the distance from the point to the light
+             */
+            private double setShadowRay(
+                    Ray ray,
+                    double pointX, double pointY, double pointZ, double normalX, double normalY, double normalZ,
+                    Vector3d lightPos) {
+                double toLightX = lightPos.getX() - pointX;
+                double toLightY = lightPos.getY() - pointY;
+                double toLightZ = lightPos.getZ() - pointZ;
+                double lightDist = Math.sqrt((toLightX * toLightX) + (toLightY * toLightY) + (toLightZ * toLightZ));
+                double lightDirX = toLightX;
+                double lightDirY = toLightY;
+                double lightDirZ = toLightZ;
+                if (lightDist != 0) {
+                    lightDirX /= lightDist;
+                    lightDirY /= lightDist;
+                    lightDirZ /= lightDist;
+                }
+
+                double lightDotNormal = (lightDirX * normalX) + (lightDirY * normalY) + (lightDirZ * normalZ);
+                double sign = lightDotNormal < 0 ? -1 : 1;
+                ray.set(
+                        pointX + (sign * (normalX * 1e-3)),
+                        pointY + (sign * (normalY * 1e-3)),
+                        pointZ + (sign * (normalZ * 1e-3)),
+                        lightDirX, lightDirY, lightDirZ);
+                return lightDist;
+            }
+
+            private boolean checkPointAtShadow(TraceContext context, Ray ray, double lightDist, int light) {
+                // Any hit nearer than the light is enough to block it, which spares the search of the closest one
+                double maxDist = Math.min(lightDist, RAY_DISTANCE_LIMIT);
+                HitSearch search = context.hitSearch;
+                search.reset(ray, maxDist);
+                if (context.counters != null) ++context.counters.shadowRays;
+                // Swept all the way to the light, as the ray stops at any of the occluders
+                if (dependencies != null) dependencies.sweepShadow(ray, maxDist, light);
+                // The nearby points tend to be in the shadow of the same object
+                if (context.hitsOccluder(light, maxDist)) return true;
+
+                boolean blocked = false;
+                List<PositionedObject<?, ?>> linearObjects = scene.linearObjects;
+                for (int i = 0; i < linearObjects.size() && ! blocked; ++i) {
+                    blocked = search.intersect(linearObjects.get(i)) < maxDist;
+                }
+                blocked = blocked
+                        || scene.hierarchy.traverseAny(ray, maxDist, search, context.traversalStack)
+                        || scene.spheres.hierarchy.traverseAny(
+                                ray, maxDist, search.sphereIntersector, context.traversalStack);
+                if (blocked) context.rememberOccluder(light);
+                return blocked;
             }
 
             private double calculateSpecularIntensity(
-                    UnitVector3d ray, UnitVector3d lightDir, UnitVector3d normal,
+                    double rayX, double rayY, double rayZ,
+                    double lightDirX, double lightDirY, double lightDirZ,
+                    double normalX, double normalY, double normalZ,
                     Light light, Material material) {
-                Vector3d reflect = reflect(lightDir.negate(), normal);
-                double reflectIntensity = reflect.dot(ray.negate());
+                // reflect(lightDir.negate(), normal)
+                double incidentDotNormal = (-lightDirX * normalX) + (-lightDirY * normalY) + (-lightDirZ * normalZ);
+                double reflectX = -lightDirX - ((normalX * 2.0) * incidentDotNormal);
+                double reflectY = -lightDirY - ((normalY * 2.0) * incidentDotNormal);
+                double reflectZ = -lightDirZ - ((normalZ * 2.0) * incidentDotNormal);
+                double reflectNorm = Math.sqrt((reflectX * reflectX) + (reflectY * reflectY) + (reflectZ * reflectZ));
+                if (reflectNorm != 0) {
+                    reflectX /= reflectNorm;
+                    reflectY /= reflectNorm;
+                    reflectZ /= reflectNorm;
+                }
+
+                double reflectIntensity = (reflectX * -rayX) + (reflectY * -rayY) + (reflectZ * -rayZ);
                 if (reflectIntensity <= 0) return 0f;
                 return light.getIntensity() * Math.pow(reflectIntensity, material.getSpecularExponent());
             }
 
-            private Color calculateFinalColor(
+            private void calculateFinalColor(
                     Material material, double diffuseLightIntensity, double specularLightIntensity,
-                    Color reflectColor, Color refractColor) {
+                    float reflectR, float reflectG, float reflectB,
+                    float refractR, float refractG, float refractB,
+                    float[] colors, int offset) {
                 double specular = specularLightIntensity * material.getSpecularAlbedo();
-                float[] diffuseRgbParts = material.getDiffuseColor().getRGBColorComponents(null);
-                float[] reflectRgbParts = reflectColor.getRGBColorComponents(null);
-                float[] refractRgbParts =
-                        refractColor == null ? new float[]{0f, 0f, 0f} : refractColor.getRGBColorComponents(null);
+                float[] diffuseRgbParts = material.getDiffuseRgbComponents();
                 double r =
                         (diffuseRgbParts[0] * diffuseLightIntensity * material.getDiffuseAlbedo())
                                 + specular
-                                + (reflectRgbParts[0] * material.getReflectionAlbedo())
-                                + (refractRgbParts[0] * material.getRefractiveAlbedo());
+                                + (reflectR * material.getReflectionAlbedo())
+                                + (refractR * material.getRefractiveAlbedo());
                 double g =
                         (diffuseRgbParts[1] * diffuseLightIntensity * material.getDiffuseAlbedo())
                                 + specular
-                                + (reflectRgbParts[1] * material.getReflectionAlbedo())
-                                + (refractRgbParts[1] * material.getRefractiveAlbedo());
+                                + (reflectG * material.getReflectionAlbedo())
+                                + (refractG * material.getRefractiveAlbedo());
                 double b =
                         (diffuseRgbParts[2] * diffuseLightIntensity * material.getDiffuseAlbedo())
                                 + specular
-                                + (reflectRgbParts[2] * material.getReflectionAlbedo())
-                                + (refractRgbParts[2] * material.getRefractiveAlbedo());
+                                + (reflectB * material.getReflectionAlbedo())
+                                + (refractB * material.getRefractiveAlbedo());
                 double max = Math.max(r, Math.max(g, b));
                 if (max > 1) {
                     r = r / max;
                     g = g / max;
                     b = b / max;
                 }
-                return new Color((float) r, (float) g, (float) b);
+                colors[offset] = (float) r;
+                colors[offset + 1] = (float) g;
+                colors[offset + 2] = (float) b;
             }
+
+            // The same as "new Color(r, g, b).getRGB()"
+            private int toRgb(float[] colors, int offset) {
+                int r = (int) ((colors[offset] * 255) + 0.5);
+                int g = (int) ((colors[offset + 1] * 255) + 0.5);
+                int b = (int) ((colors[offset + 2] * 255) + 0.5);
+                return (0xFF << 24) | ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * An immutable scene, which the cameras set up on it render from any thread while the scene goes on changing.
+     */
+    private class Snapshot implements SceneSnapshot {
+
+        private final RenderingScene scene;
+
+        private Snapshot(RenderingScene scene) {
+            this.scene = scene;
+        }
+
+        @Override
+        public Camera setupCamera(
+                Vector3d position, UnitVector3d faceDirection, UnitVector3d upDirection, double fieldOfView) {
+            checkPerpendicular(faceDirection, upDirection);
+            return new PositionedCamera(position, faceDirection, upDirection, fieldOfView, scene);
+        }
+
+        @Override
+        public Vector3dSpaceScene getScene() {
+            return Scene3d.this;
         }
     }
 
     @Override
     public Camera setupCamera(
             Vector3d position, UnitVector3d faceDirection, UnitVector3d upDirection, double fieldOfView) {
-        if (faceDirection.dot(upDirection) != 0) {
+        checkPerpendicular(faceDirection, upDirection);
+        return new PositionedCamera(position, faceDirection, upDirection, fieldOfView, null);
+    }
+
+    /**
+     * Puts the scene the camera renders, as it is now, and the camera with its settings into the builder.
+     *
+     * @throws IllegalArgumentException if the camera is not one of a {@code Scene3d}, or the scene has an object the
+     * builder has no statement for
+     */
+    static void record(Camera camera, SceneBuilder builder) throws IOException {
+        if (! (camera instanceof PositionedCamera)) {
+            throw new IllegalArgumentException("Not a camera of a Scene3d: " + camera + ".");
+        }
+        PositionedCamera positionedCamera = (PositionedCamera) camera;
+        RenderingScene scene = positionedCamera.snapshot != null
+                ? positionedCamera.snapshot : ((Scene3d) positionedCamera.getScene()).prepareScene();
+
+        builder.background(scene.bgRgbComponents[0], scene.bgRgbComponents[1], scene.bgRgbComponents[2]);
+        builder.refractiveIndex((float) scene.refractiveIndex);
+        for (Lighting lighting : scene.lights) {
+            builder.light(
+                    lighting.light.getIntensity(),
+                    lighting.position.getX(), lighting.position.getY(), lighting.position.getZ());
+        }
+
+        // In the order they have been put, so that the scene is built up the same way again
+        List<PositionedObject<?, ?>> objects = scene.getObjects();
+        Map<Material, Integer> materialIndices = new IdentityHashMap<>();
+        Map<GridPatternParallelogramPlane.Pattern, Integer> patternIndices = new IdentityHashMap<>();
+        Map<TriangleMesh, Integer> meshIndices = new IdentityHashMap<>();
+        for (PositionedObject<?, ?> object : objects) {
+            if (object.object.getClass() == Sphere.class) {
+                Sphere sphere = (Sphere) object.object;
+                Vector3d center = ((Sphere.Positioning) object.positioning).getCenter();
+                builder.sphere(
+                        recordMaterial(sphere.getMaterial(), builder, materialIndices), sphere.getRadius(),
+                        center.getX(), center.getY(), center.getZ(), object.identity.getName());
+            } else if (object.object.getClass() == GridPatternParallelogramPlane.class) {
+                GridPatternParallelogramPlane plane = (GridPatternParallelogramPlane) object.object;
+                ParallelogramPlanePositioning positioning = (ParallelogramPlanePositioning) object.positioning;
+                builder.plane(
+                        recordPattern(plane.getPattern(), builder, materialIndices, patternIndices),
+                        plane.getWidth(), plane.getHeight(),
+                        positioning.getOrigin().getX(), positioning.getOrigin().getY(), positioning.getOrigin().getZ(),
+                        positioning.getDirectionX().getX(), positioning.getDirectionX().getY(),
+                        positioning.getDirectionX().getZ(),
+                        positioning.getDirectionY().getX(), positioning.getDirectionY().getY(),
+                        positioning.getDirectionY().getZ(),
+                        object.identity.getName());
+            } else if (object.object.getClass() == TriangleMesh.class) {
+                TriangleMesh mesh = (TriangleMesh) object.object;
+                Vector3d origin = ((TriangleMesh.Positioning) object.positioning).getOrigin();
+                Integer meshIndex = meshIndices.get(mesh);
+                if (meshIndex == null) {
+                    meshIndex = builder.mesh(
+                            recordMaterial(mesh.getMaterial(), builder, materialIndices),
+                            mesh.getVertices(), mesh.getNormals(), mesh.getTriangles());
+                    meshIndices.put(mesh, meshIndex);
+                }
+                builder.meshObject(meshIndex, origin.getX(), origin.getY(), origin.getZ(), object.identity.getName());
+            } else if (object.object.getClass() == TransformedObject.class
+                    && ((TransformedObject<?>) object.object).getObject().getClass() == TriangleMesh.class) {
+                TransformedObject<?> instanced = (TransformedObject<?>) object.object;
+                TriangleMesh mesh = (TriangleMesh) instanced.getObject();
+                // The origin of the mesh in its own space goes into the transform
+                Vector3d meshOrigin = ((TriangleMesh.Positioning) instanced.getPositioning()).getOrigin();
+                TransformedObject.Transform transform = TransformedObject.Transform
+                        .translation(meshOrigin.getX(), meshOrigin.getY(), meshOrigin.getZ())
+                        .then((TransformedObject.Transform) object.positioning);
+                Integer meshIndex = meshIndices.get(mesh);
+                if (meshIndex == null) {
+                    meshIndex = builder.mesh(
+                            recordMaterial(mesh.getMaterial(), builder, materialIndices),
+                            mesh.getVertices(), mesh.getNormals(), mesh.getTriangles());
+                    meshIndices.put(mesh, meshIndex);
+                }
+                builder.meshInstance(
+                        meshIndex, transform.get(0, 3), transform.get(1, 3), transform.get(2, 3),
+                        transform.get(0, 0), transform.get(1, 0), transform.get(2, 0),
+                        transform.get(0, 1), transform.get(1, 1), transform.get(2, 1),
+                        transform.get(0, 2), transform.get(1, 2), transform.get(2, 2),
+                        object.identity.getName());
+            } else {
+                throw new IllegalArgumentException("There is no statement for " + object + ".");
+            }
+        }
+
+        Vector3d position = positionedCamera.position;
+        builder.camera(
+                position.getX(), position.getY(), position.getZ(),
+                positionedCamera.faceDirection.getX(), positionedCamera.faceDirection.getY(),
+                positionedCamera.faceDirection.getZ(),
+                positionedCamera.downDirection.getX(), positionedCamera.downDirection.getY(),
+                positionedCamera.downDirection.getZ(),
+                positionedCamera.fieldOfView);
+        RenderSettings settings = positionedCamera.settings;
+        builder.cameraSettings(
+                settings.packetSize, settings.maxRayDepth, settings.minRayWeight, settings.maxLightsPerHit,
+                (settings.sampleGridSize * settings.sampleGridSize), settings.sampleThreshold,
+                settings.floatPrecision);
+    }
+
+    private static int recordMaterial(
+            Material material, SceneBuilder builder, Map<Material, Integer> materialIndices) throws IOException {
+        Integer index = materialIndices.get(material);
+        if (index != null) return index;
+        if (material.getDiffuseColor() == null) {
+            throw new IllegalArgumentException("There is no statement for a material without a color.");
+        }
+
+        float[] color = material.getDiffuseColor().getRGBColorComponents(null);
+        index = builder.material(
+                material.getSpecularAlbedo(), material.getDiffuseAlbedo(), color[0], color[1], color[2],
+                material.getReflectionAlbedo(), material.getSpecularExponent(),
+                material.getRefractiveIndex(), material.getRefractiveAlbedo());
+        materialIndices.put(material, index);
+        return index;
+    }
+
+    private static int recordPattern(
+            GridPatternParallelogramPlane.Pattern pattern, SceneBuilder builder,
+            Map<Material, Integer> materialIndices, Map<GridPatternParallelogramPlane.Pattern, Integer> patternIndices)
+            throws IOException {
+        Integer index = patternIndices.get(pattern);
+        if (index != null) return index;
+
+        int columns = pattern.getColumnCount();
+        int rows = pattern.getRowCount();
+        int[] gridIndices = new int[columns * rows];
+        for (int i = 0; i < columns; ++i) {
+            for (int j = 0; j < rows; ++j) {
+                gridIndices[(i * rows) + j] = recordMaterial(pattern.getMaterial(i, j), builder, materialIndices);
+            }
+        }
+        index = builder.pattern(pattern.getBoxWidth(), pattern.getBoxHeight(), columns, rows, gridIndices);
+        patternIndices.put(pattern, index);
+        return index;
+    }
+
+    private static void checkPerpendicular(UnitVector3d faceDirection, UnitVector3d upDirection) {
+        if (Math.abs(faceDirection.dot(upDirection)) > PERPENDICULAR_TOLERANCE) {
             throw new IllegalArgumentException(
                     "The faceDirection and upDirection are not perpendicular to each other.");
         }
-        return new PositionedCamera(position, faceDirection, upDirection, fieldOfView);
     }
 
     @Override
-    public void setBackgroundColor(Color color) {
+    public synchronized SceneSnapshot compile() {
+        return new Snapshot(prepareScene());
+    }
+
+    @Override
+    public synchronized void setBackgroundColor(Color color) {
         this.bgColor = color;
+        propertiesChanged = true;
     }
 
     @Override
-    public void setRefractiveIndex(float index) {
+    public synchronized void setRefractiveIndex(float index) {
         this.refractiveIndex = index;
+        propertiesChanged = true;
     }
 
     @Override
-    public void putLight(Light light, Vector3d position) {
+    public synchronized void putLight(Light light, Vector3d position) {
         lights.add(new Lighting(position, light));
+        lightsChanged = true;
     }
 
     @Override
-    public <P extends Positionable.Positioning> VectorSpaceObjectIdentity putObject(
+    public synchronized <P extends Positionable.Positioning> VectorSpaceObjectIdentity putObject(
             SceneObject<P> object, P positioning) {
         VectorSpaceObjectIdentity identity =
                 new VectorSpaceObjectIdentity(++idCounter, object.toString());
-        objectMap.put(identity, new PositionedObject<>(identity, positioning, object));
+        PositionedObject<?, ?> positionedObject = new PositionedObject<>(identity, positioning, object);
+        objectMap.put(identity, positionedObject);
+        changedObjects.put(identity, positionedObject);
         return identity;
     }
 
     @Override
-    public <P extends Positionable.Positioning> VectorSpaceObjectIdentity putObject(
+    public synchronized <P extends Positionable.Positioning> VectorSpaceObjectIdentity putObject(
             SceneObject<P> object, P positioning, String name) {
         VectorSpaceObjectIdentity identity = new VectorSpaceObjectIdentity(++idCounter, name);
-        objectMap.put(identity, new PositionedObject<>(identity, positioning, object));
+        PositionedObject<?, ?> positionedObject = new PositionedObject<>(identity, positioning, object);
+        objectMap.put(identity, positionedObject);
+        changedObjects.put(identity, positionedObject);
         return identity;
     }
+
+    @Override
+    public synchronized <P extends Positionable.Positioning> void updateObject(
+            VectorSpaceObjectIdentity identity, SceneObject<P> object, P positioning) {
+        Objects.requireNonNull(identity, "identity cannot be null.");
+        Objects.requireNonNull(object, "object cannot be null.");
+        Objects.requireNonNull(positioning, "positioning cannot be null.");
+        if (! objectMap.containsKey(identity)) throw new IllegalArgumentException("No such object: " + identity + ".");
+
+        PositionedObject<?, ?> positionedObject = new PositionedObject<>(identity, positioning, object);
+        objectMap.put(identity, positionedObject);
+        changedObjects.put(identity, positionedObject);
+    }
+
+    @Override
+    public synchronized boolean removeObject(VectorSpaceObjectIdentity identity) {
+        Objects.requireNonNull(identity, "identity cannot be null.");
+        if (objectMap.remove(identity) == null) return false;
+
+        changedObjects.put(identity, null);
+        return true;
+    }
+
+    /**
+     * Brings the scene prepared for the last render up to date, by refitting it to the objects changed since then, and
+     * adding those put, when it can. The renders still going on keep the scene they have started with.
+     */
+    private synchronized RenderingScene prepareScene() {
+        if (preparedScene != null && (! changedObjects.isEmpty() || lightsChanged || propertiesChanged)) {
+            preparedScene = preparedScene.update(
+                    changedObjects, (lightsChanged ? lights : null), bgColor, refractiveIndex);
+        }
+        if (preparedScene == null) {
+            preparedScene = new RenderingScene(objectMap.values(), lights, bgColor, refractiveIndex);
+        }
+        // Not cleared, which would go through the table grown by all of the objects put before the first render
+        if (! changedObjects.isEmpty()) changedObjects = new HashMap<>();
+        lightsChanged = false;
+        propertiesChanged = false;
+        return preparedScene;
+    }
 }
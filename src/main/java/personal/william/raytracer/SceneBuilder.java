@@ -0,0 +1,348 @@
+package personal.william.raytracer;
+
+import java.awt.Color;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts the statements of a scene file into a new scene, whether they come from the text or from the binary form. If
+ * there is a recorder, every statement is also written into it in the binary form, which {@link SceneFile} reads
+ * back by calling the same methods.
+ */
+class SceneBuilder {
+
+    static final int TAG_END = 0;
+    static final int TAG_BACKGROUND = 1;
+    static final int TAG_REFRACTIVE_INDEX = 2;
+    static final int TAG_MATERIAL = 3;
+    static final int TAG_LIGHT = 4;
+    static final int TAG_PATTERN = 5;
+    static final int TAG_SPHERE = 6;
+    static final int TAG_PLANE = 7;
+    static final int TAG_CAMERA = 8;
+    // Only written by SceneFile#write, the text form has no settings
+    static final int TAG_CAMERA_SETTINGS = 9;
+    static final int TAG_MESH = 10;
+    static final int TAG_MESH_OBJECT = 11;
+    static final int TAG_MESH_INSTANCE = 12;
+
+    private final Vector3dSpaceScene scene = new Scene3d();
+    private final List<Material> materials = new ArrayList<>();
+    private final List<GridPatternParallelogramPlane.Pattern> patterns = new ArrayList<>();
+    private final List<TriangleMesh> meshes = new ArrayList<>();
+    // The object each mesh is transformed as, shared by all of its instances
+    private final Map<Integer, TransformedObject<TriangleMesh.Positioning>> meshInstances = new HashMap<>();
+    private final DataOutput recorder;
+
+    private Camera camera;
+
+    SceneBuilder(DataOutput recorder) {
+        this.recorder = recorder;
+    }
+
+    int getMaterialCount() {
+        return materials.size();
+    }
+
+    int getPatternCount() {
+        return patterns.size();
+    }
+
+    int getMeshCount() {
+        return meshes.size();
+    }
+
+    void background(float red, float green, float blue) throws IOException {
+        scene.setBackgroundColor(new Color(red, green, blue));
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_BACKGROUND);
+        recorder.writeFloat(red);
+        recorder.writeFloat(green);
+        recorder.writeFloat(blue);
+    }
+
+    void refractiveIndex(float index) throws IOException {
+        scene.setRefractiveIndex(index);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_REFRACTIVE_INDEX);
+        recorder.writeFloat(index);
+    }
+
+    /**
+     * @return the index of the material
+     */
+    int material(
+            double specularAlbedo, double diffuseAlbedo, float red, float green, float blue,
+            double reflectionAlbedo, double specularExponent, double refractiveIndex, double refractiveAlbedo)
+            throws IOException {
+        materials.add(new Material(
+                specularAlbedo, diffuseAlbedo, new Color(red, green, blue),
+                reflectionAlbedo, specularExponent, refractiveIndex, refractiveAlbedo));
+
+        if (recorder != null) {
+            recorder.writeByte(TAG_MATERIAL);
+            recorder.writeDouble(specularAlbedo);
+            recorder.writeDouble(diffuseAlbedo);
+            recorder.writeFloat(red);
+            recorder.writeFloat(green);
+            recorder.writeFloat(blue);
+            recorder.writeDouble(reflectionAlbedo);
+            recorder.writeDouble(specularExponent);
+            recorder.writeDouble(refractiveIndex);
+            recorder.writeDouble(refractiveAlbedo);
+        }
+        return materials.size() - 1;
+    }
+
+    void light(double intensity, double x, double y, double z) throws IOException {
+        scene.putLight(new Light(intensity), Vector3d.of(x, y, z));
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_LIGHT);
+        recorder.writeDouble(intensity);
+        writeDoubles(x, y, z);
+    }
+
+    /**
+     * @param materialIndices the materials of the grid column by column, i.e. {@code [x][y]} with y running first
+     * @return the index of the pattern
+     */
+    int pattern(double boxWidth, double boxHeight, int columns, int rows, int[] materialIndices) throws IOException {
+        if (columns <= 0 || rows <= 0) throw new IllegalArgumentException("The grid cannot be empty.");
+        if (materialIndices.length != columns * rows) {
+            throw new IllegalArgumentException(
+                    "The grid needs " + (columns * rows) + " materials instead of " + materialIndices.length + ".");
+        }
+
+        Material[][] grid = new Material[columns][rows];
+        for (int i = 0; i < columns; ++i) {
+            for (int j = 0; j < rows; ++j) {
+                grid[i][j] = materials.get(materialIndices[(i * rows) + j]);
+            }
+        }
+        patterns.add(new GridPatternParallelogramPlane.Pattern(boxWidth, boxHeight, grid));
+
+        if (recorder != null) {
+            recorder.writeByte(TAG_PATTERN);
+            recorder.writeDouble(boxWidth);
+            recorder.writeDouble(boxHeight);
+            recorder.writeInt(columns);
+            recorder.writeInt(rows);
+            for (int materialIndex : materialIndices) recorder.writeInt(materialIndex);
+        }
+        return patterns.size() - 1;
+    }
+
+    void sphere(int materialIndex, double radius, double x, double y, double z, String name) throws IOException {
+        putObject(new Sphere(materials.get(materialIndex), radius), new Sphere.Positioning(x, y, z), name);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_SPHERE);
+        recorder.writeInt(materialIndex);
+        recorder.writeDouble(radius);
+        writeDoubles(x, y, z);
+        writeName(name);
+    }
+
+    void plane(
+            int patternIndex, double width, double height,
+            double x, double y, double z,
+            double directionXx, double directionXy, double directionXz,
+            double directionYx, double directionYy, double directionYz,
+            String name) throws IOException {
+        putObject(
+                new GridPatternParallelogramPlane(width, height, patterns.get(patternIndex)),
+                new ParallelogramPlanePositioning(
+                        Vector3d.of(x, y, z),
+                        UnitVector3d.normalize(directionXx, directionXy, directionXz),
+                        UnitVector3d.normalize(directionYx, directionYy, directionYz)),
+                name);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_PLANE);
+        recorder.writeInt(patternIndex);
+        recorder.writeDouble(width);
+        recorder.writeDouble(height);
+        writeDoubles(x, y, z);
+        writeDoubles(directionXx, directionXy, directionXz);
+        writeDoubles(directionYx, directionYy, directionYz);
+        writeName(name);
+    }
+
+    /**
+     * Loads the mesh of the file, whose size and modification time are recorded along with it, so that the binary
+     * form can tell whether the file has changed since.
+     *
+     * @param file the file as the scene file names it
+     * @param directory what the file is relative to
+     * @return the index of the mesh
+     */
+    int mesh(int materialIndex, String file, Path directory) throws IOException {
+        Path path = directory.resolve(file);
+        TriangleMesh mesh = MeshFile.load(path, materials.get(materialIndex));
+        meshes.add(mesh);
+
+        if (recorder != null) {
+            recorder.writeByte(TAG_MESH);
+            recorder.writeInt(materialIndex);
+            writeName(file);
+            recorder.writeLong(Files.size(path));
+            recorder.writeLong(Files.getLastModifiedTime(path).toMillis());
+            writeMesh(mesh);
+        }
+        return meshes.size() - 1;
+    }
+
+    /**
+     * @param normals {@code null} for the triangles to be flat
+     * @return the index of the mesh
+     */
+    int mesh(int materialIndex, float[] vertices, float[] normals, int[] triangles) throws IOException {
+        TriangleMesh mesh = new TriangleMesh(materials.get(materialIndex), vertices, normals, triangles);
+        meshes.add(mesh);
+
+        if (recorder != null) {
+            recorder.writeByte(TAG_MESH);
+            recorder.writeInt(materialIndex);
+            writeName(null);
+            writeMesh(mesh);
+        }
+        return meshes.size() - 1;
+    }
+
+    void meshObject(int meshIndex, double x, double y, double z, String name) throws IOException {
+        putObject(meshes.get(meshIndex), new TriangleMesh.Positioning(x, y, z), name);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_MESH_OBJECT);
+        recorder.writeInt(meshIndex);
+        writeDoubles(x, y, z);
+        writeName(name);
+    }
+
+    /**
+     * Puts the mesh with its origin at the point and its axes along the axes given.
+     */
+    void meshInstance(
+            int meshIndex, double x, double y, double z,
+            double axisXx, double axisXy, double axisXz,
+            double axisYx, double axisYy, double axisYz,
+            double axisZx, double axisZy, double axisZz,
+            String name) throws IOException {
+        TriangleMesh mesh = meshes.get(meshIndex);
+        TransformedObject<TriangleMesh.Positioning> instanced = meshInstances.computeIfAbsent(
+                meshIndex, index -> new TransformedObject<>(mesh, new TriangleMesh.Positioning(0, 0, 0)));
+        putObject(
+                instanced,
+                new TransformedObject.Transform(
+                        Vector3d.of(x, y, z), Vector3d.of(axisXx, axisXy, axisXz),
+                        Vector3d.of(axisYx, axisYy, axisYz), Vector3d.of(axisZx, axisZy, axisZz)),
+                name);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_MESH_INSTANCE);
+        recorder.writeInt(meshIndex);
+        writeDoubles(x, y, z);
+        writeDoubles(axisXx, axisXy, axisXz);
+        writeDoubles(axisYx, axisYy, axisYz);
+        writeDoubles(axisZx, axisZy, axisZz);
+        writeName(name);
+    }
+
+    void camera(
+            double x, double y, double z,
+            double faceX, double faceY, double faceZ,
+            double downX, double downY, double downZ,
+            double fieldOfView) throws IOException {
+        if (camera != null) throw new IllegalArgumentException("The scene has more than one camera.");
+
+        camera = scene.setupCamera(
+                Vector3d.of(x, y, z),
+                UnitVector3d.normalize(faceX, faceY, faceZ), UnitVector3d.normalize(downX, downY, downZ),
+                fieldOfView);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_CAMERA);
+        writeDoubles(x, y, z);
+        writeDoubles(faceX, faceY, faceZ);
+        writeDoubles(downX, downY, downZ);
+        recorder.writeDouble(fieldOfView);
+    }
+
+    void cameraSettings(
+            int packetSize, int maxRayDepth, double minRayWeight, int maxLightsPerHit,
+            int maxSamples, double sampleThreshold, boolean floatPrecision) throws IOException {
+        if (camera == null) throw new IllegalArgumentException("The camera settings come before the camera.");
+
+        camera = camera.withRayPackets(packetSize)
+                .withMaxRayDepth(maxRayDepth)
+                .withMinRayWeight(minRayWeight)
+                .withMaxLightsPerHit(maxLightsPerHit)
+                .withAntiAliasing(maxSamples, sampleThreshold)
+                .withFloatPrecision(floatPrecision);
+
+        if (recorder == null) return;
+        recorder.writeByte(TAG_CAMERA_SETTINGS);
+        recorder.writeInt(packetSize);
+        recorder.writeInt(maxRayDepth);
+        recorder.writeDouble(minRayWeight);
+        recorder.writeInt(maxLightsPerHit);
+        recorder.writeInt(maxSamples);
+        recorder.writeDouble(sampleThreshold);
+        recorder.writeBoolean(floatPrecision);
+    }
+
+    Camera build() throws IOException {
+        if (camera == null) throw new IllegalArgumentException("The scene has no camera.");
+
+        if (recorder != null) recorder.writeByte(TAG_END);
+        return camera;
+    }
+
+    private <P extends Positionable.Positioning> void putObject(SceneObject<P> object, P positioning, String name) {
+        if (name == null) {
+            scene.putObject(object, positioning);
+        } else {
+            scene.putObject(object, positioning, name);
+        }
+    }
+
+    private void writeDoubles(double x, double y, double z) throws IOException {
+        recorder.writeDouble(x);
+        recorder.writeDouble(y);
+        recorder.writeDouble(z);
+    }
+
+    private void writeMesh(TriangleMesh mesh) throws IOException {
+        float[] vertices = mesh.getVertices();
+        recorder.writeInt(vertices.length);
+        for (float value : vertices) recorder.writeFloat(value);
+        float[] normals = mesh.getNormals();
+        recorder.writeBoolean(normals != null);
+        if (normals != null) {
+            for (float value : normals) recorder.writeFloat(value);
+        }
+        int[] triangles = mesh.getTriangles();
+        recorder.writeInt(triangles.length);
+        for (int index : triangles) recorder.writeInt(index);
+    }
+
+    private void writeName(String name) throws IOException {
+        if (name == null) {
+            recorder.writeInt(-1);
+            return;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        recorder.writeInt(bytes.length);
+        recorder.write(bytes);
+    }
+}
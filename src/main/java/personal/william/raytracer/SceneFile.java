@@ -0,0 +1,567 @@
+package personal.william.raytracer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Loads scenes from text files, one statement per line, the lines starting with {@code #} being comments:
+ * <pre>
+ * background &lt;color&gt;
+ * refractive-index &lt;index&gt;
+ * material &lt;name&gt; &lt;specular albedo&gt; &lt;diffuse albedo&gt; &lt;diffuse color&gt; &lt;reflection albedo&gt;
+ *          &lt;specular exponent&gt; &lt;refractive index&gt; &lt;refractive albedo&gt;
+ * light &lt;intensity&gt; &lt;x&gt; &lt;y&gt; &lt;z&gt;
+ * pattern &lt;name&gt; &lt;box width&gt; &lt;box height&gt; &lt;columns&gt; &lt;rows&gt; &lt;material&gt;...
+ * sphere &lt;material&gt; &lt;radius&gt; &lt;x&gt; &lt;y&gt; &lt;z&gt; [&lt;object name&gt;]
+ * plane &lt;pattern&gt; &lt;width&gt; &lt;height&gt; &lt;x&gt; &lt;y&gt; &lt;z&gt; &lt;x direction&gt;
+ *       &lt;y direction&gt; [&lt;object name&gt;]
+ * mesh &lt;name&gt; &lt;material&gt; &lt;OBJ or PLY file&gt;
+ * mesh-object &lt;mesh&gt; &lt;x&gt; &lt;y&gt; &lt;z&gt; [&lt;object name&gt;]
+ * mesh-instance &lt;mesh&gt; &lt;x&gt; &lt;y&gt; &lt;z&gt; &lt;x axis&gt; &lt;y axis&gt; &lt;z axis&gt;
+ *               [&lt;object name&gt;]
+ * camera &lt;x&gt; &lt;y&gt; &lt;z&gt; &lt;face direction&gt; &lt;down direction&gt; &lt;field of view in degrees&gt;
+ * </pre>
+ * The colors are either {@code #RRGGBB} or {@code red,green,blue} between 0 and 1, the directions and the axes are
+ * three numbers each, and the object names take the rest of the line. The materials of a pattern go column by
+ * column, and the materials, the patterns and the meshes must be declared before they are used. The mesh files, see
+ * {@link MeshFile}, take the rest of the line and are relative to the scene file, each mesh is loaded once however
+ * many objects it is put as. An instance of a mesh puts its origin at the point and its axes along the axes given,
+ * whose lengths scale it, see {@link TransformedObject}. There must be exactly one camera.
+ * <p>
+ * The text is parsed as it is read, so the scenes can be as large as the memory the objects themselves take. The
+ * cached form is the same statements in binary, named after the SHA-256 of the text file, which is memory-mapped and
+ * read without any parsing the next time the same file is loaded. The meshes are cached along with the scene, and
+ * loaded again from their files once the files have changed.
+ */
+public class SceneFile {
+
+    private static final int MAGIC = 0x54524A53;
+    private static final int VERSION = 3;
+    private static final String CACHE_EXTENSION = ".trjs";
+
+    private SceneFile() {
+    }
+
+    /**
+     * @return the camera of the scene, which the scene is reachable from
+     */
+    public static Camera load(Path file) throws IOException {
+        Objects.requireNonNull(file, "file cannot be null.");
+
+        return parse(file, new SceneBuilder(null));
+    }
+
+    /**
+     * Like {@link #load(Path)}, but reads the binary form in the cache directory instead if the same text has been
+     * loaded before, or otherwise writes it there. Only the header of a cached file is checked before the rest is
+     * trusted, so nobody else may be able to write into the directory.
+     */
+    public static Camera load(Path file, Path cacheDirectory) throws IOException {
+        Objects.requireNonNull(file, "file cannot be null.");
+        Objects.requireNonNull(cacheDirectory, "cacheDirectory cannot be null.");
+
+        String hash = sha256(file);
+        Path cacheFile = cacheDirectory.resolve(hash + CACHE_EXTENSION);
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                return read(cacheFile, getDirectory(file));
+            } catch (SceneFormatException ex) {
+                // Written by another version, or its meshes have changed since, so it is simply written again
+            }
+        }
+
+        Files.createDirectories(cacheDirectory);
+        Path tempFile = Files.createTempFile(cacheDirectory, hash, ".tmp");
+        try {
+            Camera camera;
+            try (DataOutputStream recorder =
+                         new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                recorder.writeInt(MAGIC);
+                recorder.writeInt(VERSION);
+                camera = parse(file, new SceneBuilder(recorder));
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return camera;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static Camera parse(Path file, SceneBuilder builder) throws IOException {
+        Map<String, Integer> materials = new HashMap<>();
+        Map<String, Integer> patterns = new HashMap<>();
+        Map<String, Integer> meshes = new HashMap<>();
+        Path directory = getDirectory(file);
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                ++lineNumber;
+                Line line = new Line(text);
+                String keyword = line.nextToken();
+                if (keyword == null) continue;
+
+                try {
+                    parseStatement(keyword, line, builder, materials, patterns, meshes, directory);
+                } catch (IllegalArgumentException ex) {
+                    throw new SceneFormatException(file + ":" + lineNumber + ": " + ex.getMessage(), ex);
+                }
+            }
+            return builder.build();
+        } catch (IllegalArgumentException ex) {
+            throw new SceneFormatException(file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private static Path getDirectory(Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        return directory != null ? directory : file.toAbsolutePath();
+    }
+
+    private static void parseStatement(
+            String keyword, Line line, SceneBuilder builder, Map<String, Integer> materials,
+            Map<String, Integer> patterns, Map<String, Integer> meshes, Path directory) throws IOException {
+        switch (keyword) {
+            case "background": {
+                float[] color = line.nextColor();
+                line.expectEnd();
+                builder.background(color[0], color[1], color[2]);
+                break;
+            }
+            case "refractive-index": {
+                float index = line.nextFloat();
+                line.expectEnd();
+                builder.refractiveIndex(index);
+                break;
+            }
+            case "material": {
+                String name = line.nextRequiredToken();
+                if (materials.containsKey(name)) throw new IllegalArgumentException("Duplicate material: " + name);
+                double specularAlbedo = line.nextDouble();
+                double diffuseAlbedo = line.nextDouble();
+                float[] color = line.nextColor();
+                double reflectionAlbedo = line.nextDouble();
+                double specularExponent = line.nextDouble();
+                double refractiveIndex = line.nextDouble();
+                double refractiveAlbedo = line.nextDouble();
+                line.expectEnd();
+                materials.put(name, builder.material(
+                        specularAlbedo, diffuseAlbedo, color[0], color[1], color[2],
+                        reflectionAlbedo, specularExponent, refractiveIndex, refractiveAlbedo));
+                break;
+            }
+            case "light": {
+                double intensity = line.nextDouble();
+                double x = line.nextDouble();
+                double y = line.nextDouble();
+                double z = line.nextDouble();
+                line.expectEnd();
+                builder.light(intensity, x, y, z);
+                break;
+            }
+            case "pattern": {
+                String name = line.nextRequiredToken();
+                if (patterns.containsKey(name)) throw new IllegalArgumentException("Duplicate pattern: " + name);
+                double boxWidth = line.nextDouble();
+                double boxHeight = line.nextDouble();
+                int columns = line.nextInt();
+                int rows = line.nextInt();
+                if (columns <= 0 || rows <= 0) throw new IllegalArgumentException("The grid cannot be empty.");
+                int[] materialIndices = new int[columns * rows];
+                for (int i = 0; i < materialIndices.length; ++i) {
+                    materialIndices[i] = lookUp(materials, line.nextRequiredToken(), "material");
+                }
+                line.expectEnd();
+                patterns.put(name, builder.pattern(boxWidth, boxHeight, columns, rows, materialIndices));
+                break;
+            }
+            case "sphere": {
+                int material = lookUp(materials, line.nextRequiredToken(), "material");
+                double radius = line.nextDouble();
+                double x = line.nextDouble();
+                double y = line.nextDouble();
+                double z = line.nextDouble();
+                builder.sphere(material, radius, x, y, z, line.rest());
+                break;
+            }
+            case "plane": {
+                int pattern = lookUp(patterns, line.nextRequiredToken(), "pattern");
+                double width = line.nextDouble();
+                double height = line.nextDouble();
+                double x = line.nextDouble();
+                double y = line.nextDouble();
+                double z = line.nextDouble();
+                double directionXx = line.nextDouble();
+                double directionXy = line.nextDouble();
+                double directionXz = line.nextDouble();
+                double directionYx = line.nextDouble();
+                double directionYy = line.nextDouble();
+                double directionYz = line.nextDouble();
+                builder.plane(
+                        pattern, width, height, x, y, z,
+                        directionXx, directionXy, directionXz, directionYx, directionYy, directionYz,
+                        line.rest());
+                break;
+            }
+            case "mesh": {
+                String name = line.nextRequiredToken();
+                if (meshes.containsKey(name)) throw new IllegalArgumentException("Duplicate mesh: " + name);
+                int material = lookUp(materials, line.nextRequiredToken(), "material");
+                String meshFile = line.rest();
+                if (meshFile == null) throw new IllegalArgumentException("The statement is incomplete.");
+                meshes.put(name, builder.mesh(material, meshFile, directory));
+                break;
+            }
+            case "mesh-object": {
+                int mesh = lookUp(meshes, line.nextRequiredToken(), "mesh");
+                double x = line.nextDouble();
+                double y = line.nextDouble();
+                double z = line.nextDouble();
+                builder.meshObject(mesh, x, y, z, line.rest());
+                break;
+            }
+            case "mesh-instance": {
+                int mesh = lookUp(meshes, line.nextRequiredToken(), "mesh");
+                double[] values = new double[12];
+                for (int i = 0; i < values.length; ++i) values[i] = line.nextDouble();
+                builder.meshInstance(
+                        mesh, values[0], values[1], values[2], values[3], values[4], values[5],
+                        values[6], values[7], values[8], values[9], values[10], values[11], line.rest());
+                break;
+            }
+            case "camera": {
+                double x = line.nextDouble();
+                double y = line.nextDouble();
+                double z = line.nextDouble();
+                double faceX = line.nextDouble();
+                double faceY = line.nextDouble();
+                double faceZ = line.nextDouble();
+                double downX = line.nextDouble();
+                double downY = line.nextDouble();
+                double downZ = line.nextDouble();
+                double fieldOfView = line.nextDouble();
+                line.expectEnd();
+                builder.camera(x, y, z, faceX, faceY, faceZ, downX, downY, downZ, Math.toRadians(fieldOfView));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown statement: " + keyword);
+        }
+    }
+
+    private static int lookUp(Map<String, Integer> indices, String name, String kind) {
+        Integer index = indices.get(name);
+        if (index == null) throw new IllegalArgumentException("Unknown " + kind + ": " + name);
+        return index;
+    }
+
+    /**
+     * Writes the scene the camera renders as it is now, and the camera with its settings, in the binary form of the
+     * cache, which {@link #read(ByteBuffer, String)} reads back. Only the scenes of {@link Scene3d} made of spheres,
+     * grid pattern planes and triangle meshes can be written.
+     */
+    public static void write(Camera camera, DataOutput out) throws IOException {
+        Objects.requireNonNull(camera, "camera cannot be null.");
+        Objects.requireNonNull(out, "out cannot be null.");
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        SceneBuilder builder = new SceneBuilder(out);
+        Scene3d.record(camera, builder);
+        builder.build();
+    }
+
+    /**
+     * @param sceneDirectory what the mesh files of the scene file are relative to
+     */
+    private static Camera read(Path cacheFile, Path sceneDirectory) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new SceneFormatException("The cache is too large to map.");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(buffer, cacheFile.toString(), sceneDirectory);
+    }
+
+    /**
+     * Reads the binary form from the position of the buffer, like the one {@link #write} writes.
+     *
+     * @param source where the buffer comes from, for the error messages
+     * @return the camera of the scene, which the scene is reachable from
+     */
+    public static Camera read(ByteBuffer buffer, String source) throws SceneFormatException {
+        Objects.requireNonNull(buffer, "buffer cannot be null.");
+
+        return read(buffer, source, null);
+    }
+
+    /**
+     * @param sceneDirectory what the mesh files of the scene file are relative to, to check whether they have changed,
+     * or {@code null} for the meshes to be taken as they are
+     */
+    private static Camera read(ByteBuffer buffer, String source, Path sceneDirectory) throws SceneFormatException {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new SceneFormatException("Not a scene cache of this version: " + source);
+            }
+
+            SceneBuilder builder = new SceneBuilder(null);
+            while (true) {
+                int tag = buffer.get();
+                switch (tag) {
+                    case SceneBuilder.TAG_END:
+                        return builder.build();
+                    case SceneBuilder.TAG_BACKGROUND:
+                        builder.background(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                        break;
+                    case SceneBuilder.TAG_REFRACTIVE_INDEX:
+                        builder.refractiveIndex(buffer.getFloat());
+                        break;
+                    case SceneBuilder.TAG_MATERIAL:
+                        builder.material(
+                                buffer.getDouble(), buffer.getDouble(),
+                                buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+                        break;
+                    case SceneBuilder.TAG_LIGHT:
+                        builder.light(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+                        break;
+                    case SceneBuilder.TAG_PATTERN: {
+                        double boxWidth = buffer.getDouble();
+                        double boxHeight = buffer.getDouble();
+                        int columns = buffer.getInt();
+                        int rows = buffer.getInt();
+                        int[] materialIndices = new int[columns * rows];
+                        for (int i = 0; i < materialIndices.length; ++i) materialIndices[i] = buffer.getInt();
+                        builder.pattern(boxWidth, boxHeight, columns, rows, materialIndices);
+                        break;
+                    }
+                    case SceneBuilder.TAG_SPHERE:
+                        builder.sphere(
+                                buffer.getInt(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), readName(buffer));
+                        break;
+                    case SceneBuilder.TAG_PLANE:
+                        builder.plane(
+                                buffer.getInt(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                readName(buffer));
+                        break;
+                    case SceneBuilder.TAG_MESH: {
+                        int material = buffer.getInt();
+                        String meshFile = readName(buffer);
+                        if (meshFile != null) {
+                            long size = buffer.getLong();
+                            long modifiedTime = buffer.getLong();
+                            if (sceneDirectory != null
+                                    && isChanged(sceneDirectory.resolve(meshFile), size, modifiedTime)) {
+                                throw new SceneFormatException("The mesh file has changed: " + meshFile);
+                            }
+                        }
+                        float[] vertices = new float[buffer.getInt()];
+                        readFloats(buffer, vertices);
+                        float[] normals = null;
+                        if (buffer.get() != 0) {
+                            normals = new float[vertices.length];
+                            readFloats(buffer, normals);
+                        }
+                        int[] triangles = new int[buffer.getInt()];
+                        buffer.asIntBuffer().get(triangles);
+                        buffer.position(buffer.position() + (triangles.length * 4));
+                        builder.mesh(material, vertices, normals, triangles);
+                        break;
+                    }
+                    case SceneBuilder.TAG_MESH_OBJECT:
+                        builder.meshObject(
+                                buffer.getInt(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                readName(buffer));
+                        break;
+                    case SceneBuilder.TAG_MESH_INSTANCE:
+                        builder.meshInstance(
+                                buffer.getInt(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                readName(buffer));
+                        break;
+                    case SceneBuilder.TAG_CAMERA:
+                        builder.camera(
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                buffer.getDouble());
+                        break;
+                    case SceneBuilder.TAG_CAMERA_SETTINGS:
+                        builder.cameraSettings(
+                                buffer.getInt(), buffer.getInt(), buffer.getDouble(),
+                                buffer.getInt(), buffer.getInt(), buffer.getDouble(), buffer.get() != 0);
+                        break;
+                    default:
+                        throw new SceneFormatException("Unknown tag " + tag + " in " + source);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException ex) {
+            throw new SceneFormatException("Broken scene cache: " + source, ex);
+        } catch (IOException ex) {
+            // There is no recorder to fail
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void readFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + (values.length * 4));
+    }
+
+    private static boolean isChanged(Path file, long size, long modifiedTime) {
+        try {
+            return Files.size(file) != size || Files.getLastModifiedTime(file).toMillis() != modifiedTime;
+        } catch (IOException ex) {
+            // Gone, the scene file itself will tell
+            return true;
+        }
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return ContentDigest.toHex(digest.digest());
+    }
+
+    /**
+     * The tokens of a line, taken one by one without splitting the whole line up front.
+     */
+    private static class Line {
+
+        private final String text;
+        private final int end;
+        private int position;
+
+        private Line(String text) {
+            this.text = text;
+            this.end = text.trim().startsWith("#") ? 0 : text.length();
+        }
+
+        private String nextToken() {
+            while (position < end && Character.isWhitespace(text.charAt(position))) ++position;
+            if (position == end) return null;
+
+            int start = position;
+            while (position < end && ! Character.isWhitespace(text.charAt(position))) ++position;
+            return text.substring(start, position);
+        }
+
+        private String nextRequiredToken() {
+            String token = nextToken();
+            if (token == null) throw new IllegalArgumentException("The statement is incomplete.");
+            return token;
+        }
+
+        private double nextDouble() {
+            String token = nextRequiredToken();
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Not a number: " + token);
+            }
+        }
+
+        private float nextFloat() {
+            String token = nextRequiredToken();
+            try {
+                return Float.parseFloat(token);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Not a number: " + token);
+            }
+        }
+
+        private int nextInt() {
+            String token = nextRequiredToken();
+            try {
+                return Integer.parseInt(token);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Not an integer: " + token);
+            }
+        }
+
+        /**
+         * @return the red, green and blue between 0 and 1
+         */
+        private float[] nextColor() {
+            String token = nextRequiredToken();
+            try {
+                if (token.startsWith("#") && token.length() == 7) {
+                    int rgb = Integer.parseInt(token.substring(1), 16);
+                    // The same components as "new Color(rgb)" gives
+                    return new float[]{((rgb >> 16) & 0xFF) / 255f, ((rgb >> 8) & 0xFF) / 255f, (rgb & 0xFF) / 255f};
+                }
+                String[] components = token.split(",", -1);
+                if (components.length == 3) {
+                    return new float[]{
+                            Float.parseFloat(components[0]),
+                            Float.parseFloat(components[1]),
+                            Float.parseFloat(components[2])};
+                }
+            } catch (NumberFormatException ex) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Not a color: " + token);
+        }
+
+        /**
+         * @return the rest of the line trimmed, or null if there is nothing left
+         */
+        private String rest() {
+            String rest = text.substring(Math.min(position, end), end).trim();
+            position = end;
+            return rest.isEmpty() ? null : rest;
+        }
+
+        private void expectEnd() {
+            if (nextToken() != null) throw new IllegalArgumentException("Unexpected tokens at the end of the line.");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package personal.william.raytracer;
+
+public class SceneFormatException extends RuntimeException {
+    public SceneFormatException() {
+    }
+
+    public SceneFormatException(String message) {
+        super(message);
+    }
+
+    public SceneFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public SceneFormatException(Throwable cause) {
+        super(cause);
+    }
+}
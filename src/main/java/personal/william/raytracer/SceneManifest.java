@@ -0,0 +1,163 @@
+package personal.william.raytracer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The objects of a scene as far as the {@link RenderCache} tells the scenes apart: a hash of the contents of each
+ * object along with its bounds, by the ids of the objects, and a hash of the lights. The tiles cached of one scene
+ * are checked against what {@link #diff} finds changed in another, instead of the scenes having to be the same.
+ * <p>
+ * The objects without bounds, which every ray tests, take up all of the space.
+ */
+final class SceneManifest {
+
+    // The int of the id, the long of the hash and the 6 doubles of the bounds of each object
+    private static final int OBJECT_BYTES = Integer.BYTES + Long.BYTES + (6 * Double.BYTES);
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final String key;
+    // Ascending
+    private final int[] ids;
+    private final long[] hashes;
+    // minX, minY, minZ, maxX, maxY, maxZ for each object
+    private final double[] bounds;
+    private final long lightsHash;
+
+    /**
+     * @param ids ascending
+     * @param bounds minX, minY, minZ, maxX, maxY, maxZ for each object, infinite for those without bounds
+     */
+    SceneManifest(int[] ids, long[] hashes, double[] bounds, long lightsHash) {
+        this.ids = ids;
+        this.hashes = hashes;
+        this.bounds = bounds;
+        this.lightsHash = lightsHash;
+
+        ContentDigest digest = new ContentDigest().putLong(lightsHash).putInt(ids.length);
+        for (int i = 0; i < ids.length; ++i) digest.putInt(ids[i]).putLong(hashes[i]);
+        this.key = ContentDigest.toHex(digest.finish());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer does not hold as many objects as it says
+     */
+    static SceneManifest read(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        long lightsHash = buffer.getLong();
+        if (count < 0 || count > (buffer.remaining() / OBJECT_BYTES)) {
+            throw new IllegalArgumentException("Broken manifest of " + count + " objects.");
+        }
+        int[] ids = new int[count];
+        long[] hashes = new long[count];
+        double[] bounds = new double[count * 6];
+        for (int i = 0; i < count; ++i) {
+            ids[i] = buffer.getInt();
+            hashes[i] = buffer.getLong();
+            for (int k = 0; k < 6; ++k) bounds[(i * 6) + k] = buffer.getDouble();
+        }
+        return new SceneManifest(ids, hashes, bounds, lightsHash);
+    }
+
+    @Override
+    public String toString() {
+        return "SceneManifest{" +
+                "key=" + key +
+                ", objectCount=" + ids.length +
+                '}';
+    }
+
+    /**
+     * @return the hex SHA-256 of the hashes of the objects and of the lights
+     */
+    String getKey() {
+        return key;
+    }
+
+    int getByteSize() {
+        return HEADER_BYTES + (ids.length * OBJECT_BYTES);
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putInt(ids.length).putLong(lightsHash);
+        for (int i = 0; i < ids.length; ++i) {
+            buffer.putInt(ids[i]).putLong(hashes[i]);
+            for (int k = 0; k < 6; ++k) buffer.putDouble(bounds[(i * 6) + k]);
+        }
+    }
+
+    /**
+     * Goes through the objects of both scenes in the order of their ids, which takes time in the number of the
+     * objects, so the diffs are meant to be kept by whoever needs them more than once.
+     *
+     * @return what has changed from the old scene to this one
+     */
+    Diff diff(SceneManifest old) {
+        double[] changedBounds = new double[0];
+        int changedCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < old.ids.length || j < ids.length) {
+            int oldId = i < old.ids.length ? old.ids[i] : Integer.MAX_VALUE;
+            int newId = j < ids.length ? ids[j] : Integer.MAX_VALUE;
+            boolean kept = oldId == newId && old.hashes[i] == hashes[j];
+            if (! kept && oldId <= newId) {
+                changedBounds = append(changedBounds, changedCount++, old.bounds, i);
+            }
+            if (! kept && newId <= oldId) {
+                changedBounds = append(changedBounds, changedCount++, bounds, j);
+            }
+            if (oldId <= newId) ++i;
+            if (newId <= oldId) ++j;
+        }
+        return new Diff(Arrays.copyOf(changedBounds, (changedCount * 6)), (old.lightsHash != lightsHash));
+    }
+
+    private static double[] append(double[] boxes, int count, double[] bounds, int index) {
+        if (boxes.length < ((count + 1) * 6)) boxes = Arrays.copyOf(boxes, Math.max(12, (boxes.length * 2)));
+        System.arraycopy(bounds, (index * 6), boxes, (count * 6), 6);
+        return boxes;
+    }
+
+    /**
+     * The changes from one scene to another.
+     */
+    static final class Diff {
+
+        // minX, minY, minZ, maxX, maxY, maxZ of the old and the new bounds of each object changed, put or removed
+        private final double[] changedBounds;
+        private final boolean lightsChanged;
+
+        private Diff(double[] changedBounds, boolean lightsChanged) {
+            this.changedBounds = changedBounds;
+            this.lightsChanged = lightsChanged;
+        }
+
+        @Override
+        public String toString() {
+            return "SceneManifest.Diff{" +
+                    "changedBoundsCount=" + (changedBounds.length / 6) +
+                    ", lightsChanged=" + lightsChanged +
+                    '}';
+        }
+
+        boolean isLightsChanged() {
+            return lightsChanged;
+        }
+
+        /**
+         * @param offset where minX, minY, minZ, maxX, maxY, maxZ of the box start in the array
+         * @return whether any of the old or the new bounds of the changed objects overlaps the box
+         */
+        boolean overlaps(double[] boxes, int offset) {
+            for (int b = 0; b < changedBounds.length; b += 6) {
+                if (changedBounds[b] <= boxes[offset + 3] && boxes[offset] <= changedBounds[b + 3]
+                        && changedBounds[b + 1] <= boxes[offset + 4] && boxes[offset + 1] <= changedBounds[b + 4]
+                        && changedBounds[b + 2] <= boxes[offset + 5] && boxes[offset + 2] <= changedBounds[b + 5]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
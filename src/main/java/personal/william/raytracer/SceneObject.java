@@ -5,4 +5,53 @@ import java.util.Optional;
 public interface SceneObject<P extends Positionable.Positioning> extends Positionable<P> {
 
     Optional<SurfacePoint> cast(P positioning, Vector3d orig, UnitVector3d dir);
+
+    /**
+     * The allocation free counterpart of {@link #cast}, which the renderer uses. Implementations should give the
+     * exact same hit as {@link #cast} does, the default one simply delegates to it.
+     *
+     * @return whether the ray hits the object, in which case the hit is written into the record
+     */
+    default boolean intersect(P positioning, Ray ray, HitRecord hit) {
+        Optional<SurfacePoint> optSurface = cast(positioning, ray.getOrigin(), ray.getDirection());
+        if (! optSurface.isPresent()) return false;
+
+        SurfacePoint surface = optSurface.get();
+        Vector3d point = surface.getPoint();
+        UnitVector3d normal = surface.getNormal();
+        hit.set(
+                ray.distanceTo(point.getX(), point.getY(), point.getZ()),
+                point.getX(), point.getY(), point.getZ(),
+                normal.getX(), normal.getY(), normal.getZ(),
+                surface.getMaterial(), this);
+        return true;
+    }
+
+    /**
+     * Precomputes what the intersections with the object at the positioning need, which the scene does once for each
+     * object when it is prepared for rendering, instead of on every ray. The default one precomputes nothing and
+     * delegates to {@link #intersect}.
+     */
+    default Prepared prepare(P positioning) {
+        return (ray, hit) -> intersect(positioning, ray, hit);
+    }
+
+    /**
+     * Objects without bounds (the default) are tested against every ray instead of being put into the scene's
+     * acceleration structure.
+     */
+    default Optional<BoundingBox> getBounds(P positioning) {
+        return Optional.empty();
+    }
+
+    /**
+     * An object at a positioning, with the constants of its intersections worked out, never changed afterwards.
+     */
+    interface Prepared {
+
+        /**
+         * Gives the exact same hit as {@link SceneObject#intersect} does.
+         */
+        boolean intersect(Ray ray, HitRecord hit);
+    }
 }
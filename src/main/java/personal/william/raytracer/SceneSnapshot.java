@@ -0,0 +1,19 @@
+package personal.william.raytracer;
+
+/**
+ * An immutable copy of a {@link Vector3dSpaceScene} prepared for rendering, made by
+ * {@link Vector3dSpaceScene#compile}. It can be shared between threads, and the cameras set up on it render the scene
+ * as it was when compiled however it changes afterwards, so that many viewpoints can be rendered in parallel while
+ * the next state of the scene is being built.
+ * <p>
+ * The snapshots compiled one after another share whatever has not changed between them.
+ */
+public interface SceneSnapshot {
+
+    Camera setupCamera(Vector3d position, UnitVector3d faceDirection, UnitVector3d upDirection, double fieldOfView);
+
+    /**
+     * @return the scene this has been compiled from, which may have changed since
+     */
+    Vector3dSpaceScene getScene();
+}
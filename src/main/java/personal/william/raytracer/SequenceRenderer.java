@@ -0,0 +1,157 @@
+package personal.william.raytracer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Renders the frames of an animation one after another, handing each frame to the sink on the writer executor while
+ * the next ones render, so that the rendering threads do not wait for the frames to be encoded and written.
+ * <p>
+ * The frames are taken from a pool of a fixed number of buffers. A buffer goes back to the pool once the sink is done
+ * with it, and the rendering waits for one when all of them are still being written, so the frames never pile up in
+ * memory however slow the sink is.
+ */
+public class SequenceRenderer {
+
+    public static final int DEFAULT_BUFFER_COUNT = 2;
+
+    private final TileScheduler scheduler;
+    private final ExecutorService writerExecutor;
+    private final int bufferCount;
+
+    public SequenceRenderer(TileScheduler scheduler, ExecutorService writerExecutor) {
+        this(scheduler, writerExecutor, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param writerExecutor runs the sink, which is given the frames in their order if the executor runs one task at
+     * a time
+     * @param bufferCount the most frames being rendered or written at a time, 2 lets one frame be written while the
+     * next one renders
+     */
+    public SequenceRenderer(TileScheduler scheduler, ExecutorService writerExecutor, int bufferCount) {
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler cannot be null.");
+        this.writerExecutor = Objects.requireNonNull(writerExecutor, "writerExecutor cannot be null.");
+        if (bufferCount <= 0) throw new IllegalArgumentException("bufferCount must be positive.");
+
+        this.bufferCount = bufferCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceRenderer{" +
+                "scheduler=" + scheduler +
+                ", bufferCount=" + bufferCount +
+                '}';
+    }
+
+    /**
+     * Renders the frames of the camera moving along the path through the scene, the first frame at the start of the
+     * path and the last one at its end.
+     */
+    public void render(
+            SceneSnapshot scene, CameraPath path, int frameCount, int width, int height,
+            FrameSink sink) throws IOException {
+        Objects.requireNonNull(scene, "scene cannot be null.");
+        Objects.requireNonNull(path, "path cannot be null.");
+
+        double duration = path.getEndTime() - path.getStartTime();
+        render(frameCount, frame -> path.setupCamera(
+                scene, path.getStartTime() + (frameCount > 1 ? ((duration * frame) / (frameCount - 1)) : 0)),
+                width, height, sink);
+    }
+
+    /**
+     * @param cameras the camera of each frame, called on the thread of this method right before the frame renders, so
+     * that the scene can be changed between the frames, e.g. compiling a new {@link SceneSnapshot} for each of them
+     */
+    public void render(
+            int frameCount, IntFunction<Camera> cameras, int width, int height, FrameSink sink) throws IOException {
+        Objects.requireNonNull(cameras, "cameras cannot be null.");
+        Objects.requireNonNull(sink, "sink cannot be null.");
+        if (frameCount < 0) throw new IllegalArgumentException("frameCount cannot be negative.");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The frames cannot be empty.");
+
+        BlockingQueue<FrameBuffer> freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < Math.min(bufferCount, frameCount); ++i) freeBuffers.add(new FrameBuffer(width, height));
+
+        Deque<Future<?>> pendingWrites = new ArrayDeque<>();
+        try {
+            for (int frame = 0; frame < frameCount; ++frame) {
+                FrameBuffer buffer = takeBuffer(freeBuffers);
+                // A failed write stops the sequence at the next frame
+                while (! pendingWrites.isEmpty() && pendingWrites.peekFirst().isDone()) {
+                    PendingWrites.await(pendingWrites.pollFirst());
+                }
+
+                Camera camera = Objects.requireNonNull(cameras.apply(frame), "camera cannot be null.");
+                camera.render(buffer, scheduler);
+                int frameIndex = frame;
+                pendingWrites.addLast(writerExecutor.submit(() -> {
+                    try {
+                        sink.write(frameIndex, buffer);
+                    } finally {
+                        freeBuffers.add(buffer);
+                    }
+                    return null;
+                }));
+            }
+            while (! pendingWrites.isEmpty()) PendingWrites.await(pendingWrites.pollFirst());
+        } finally {
+            for (Future<?> write : pendingWrites) write.cancel(true);
+        }
+    }
+
+    private static FrameBuffer takeBuffer(BlockingQueue<FrameBuffer> freeBuffers) throws IOException {
+        try {
+            return freeBuffers.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a frame to be written.");
+        }
+    }
+
+    /**
+     * Writes each frame into a file of its own in the directory, named by the pattern, a {@link String#format} pattern
+     * taking the index of the frame, e.g. {@code "frame-%04d"}, followed by the extension of the format.
+     */
+    public static FrameSink toFiles(Path directory, String namePattern, ImageFormat format) {
+        Objects.requireNonNull(directory, "directory cannot be null.");
+        Objects.requireNonNull(namePattern, "namePattern cannot be null.");
+        Objects.requireNonNull(format, "format cannot be null.");
+
+        return (frameIndex, frame) -> {
+            Path file = directory.resolve(
+                    String.format(Locale.ROOT, namePattern, frameIndex) + "." + format.getExtension());
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ScanlineWriter writer = format.open(channel, frame.getWidth(), frame.getHeight());
+                writer.write(frame);
+                writer.finish();
+            }
+        };
+    }
+
+    /**
+     * Takes the rendered frames, called on the writer executor.
+     */
+    public interface FrameSink {
+
+        /**
+         * The frame is reused for a later one once this returns, so it must not be kept.
+         */
+        void write(int frameIndex, FrameBuffer frame) throws IOException;
+    }
+}
@@ -28,10 +28,20 @@ public class Sphere implements SceneObject<Sphere.Positioning> {
 
     private final Material material;
     private final double radius;
+    private final double radiusSquare;
 
     public Sphere(Material material, double radius) {
         this.material = material;
         this.radius = radius;
+        this.radiusSquare = radius * radius;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public double getRadius() {
+        return radius;
     }
 
     @Override
@@ -40,7 +50,6 @@ public class Sphere implements SceneObject<Sphere.Positioning> {
         Vector3d sc = center.minus(source);
         double rayToCenterDist = ray.dot(sc);
         double centerDistSquare = sc.dot(sc) - (rayToCenterDist * rayToCenterDist);
-        double radiusSquare = radius * radius;
         if (centerDistSquare > radiusSquare) return Optional.empty();
 
         float intersectedDist = (float) Math.sqrt(radiusSquare - centerDistSquare);
@@ -53,4 +62,46 @@ public class Sphere implements SceneObject<Sphere.Positioning> {
         return Optional.of(new SurfacePoint(this, hit, normal, material));
     }
 
+    @Override
+    public boolean intersect(Positioning positioning, Ray ray, HitRecord hit) {
+        // Mirrors "cast" step by step, so that both give the exact same hit
+        Vector3d center = positioning.getCenter();
+        double scX = center.getX() - ray.getOriginX();
+        double scY = center.getY() - ray.getOriginY();
+        double scZ = center.getZ() - ray.getOriginZ();
+        double rayToCenterDist =
+                (ray.getDirectionX() * scX) + (ray.getDirectionY() * scY) + (ray.getDirectionZ() * scZ);
+        double centerDistSquare = ((scX * scX) + (scY * scY) + (scZ * scZ)) - (rayToCenterDist * rayToCenterDist);
+        if (centerDistSquare > radiusSquare) return false;
+
+        float intersectedDist = (float) Math.sqrt(radiusSquare - centerDistSquare);
+        double hitDist = rayToCenterDist - intersectedDist;
+        if (hitDist < 0) hitDist = rayToCenterDist + intersectedDist;
+        if (hitDist < 0) return false;
+
+        double hitX = ray.getOriginX() + (ray.getDirectionX() * hitDist);
+        double hitY = ray.getOriginY() + (ray.getDirectionY() * hitDist);
+        double hitZ = ray.getOriginZ() + (ray.getDirectionZ() * hitDist);
+        double normalX = hitX - center.getX();
+        double normalY = hitY - center.getY();
+        double normalZ = hitZ - center.getZ();
+        double norm = Math.sqrt((normalX * normalX) + (normalY * normalY) + (normalZ * normalZ));
+        if (norm != 0) {
+            normalX /= norm;
+            normalY /= norm;
+            normalZ /= norm;
+        }
+        hit.set(ray.distanceTo(hitX, hitY, hitZ), hitX, hitY, hitZ, normalX, normalY, normalZ, material, this);
+        return true;
+    }
+
+    @Override
+    public Optional<BoundingBox> getBounds(Positioning positioning) {
+        Vector3d center = positioning.getCenter();
+        double r = Math.abs(radius);
+        return Optional.of(
+                new BoundingBox(
+                        Vector3d.of(center.getX() - r, center.getY() - r, center.getZ() - r),
+                        Vector3d.of(center.getX() + r, center.getY() + r, center.getZ() + r)));
+    }
 }
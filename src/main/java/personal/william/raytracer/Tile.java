@@ -0,0 +1,44 @@
+package personal.william.raytracer;
+
+public class Tile {
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    public Tile(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The tile cannot be empty.");
+
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public String toString() {
+        return "Tile{" +
+                "x=" + x +
+                ", y=" + y +
+                ", width=" + width +
+                ", height=" + height +
+                '}';
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
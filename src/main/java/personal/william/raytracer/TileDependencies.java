@@ -0,0 +1,119 @@
+package personal.william.raytracer;
+
+import java.util.Arrays;
+
+/**
+ * What the pixels of a tile depend on, recorded as its rays are traced: the boxes swept by the rays, each from its
+ * origin up to where it has stopped, and whether any of them has hit something, so the lights have been shaded with.
+ * A ray finds the same hit again unless an object whose old or new bounds meet its path has changed, so the boxes hold
+ * every object the rays have tested and found anything on, the objects without bounds being tested by all the rays
+ * and having the whole space for their bounds, see {@link SceneManifest}.
+ * <p>
+ * The shadow rays towards each light sweep a box of their own, the lights beyond the boxes sharing them, as the
+ * lights far apart would otherwise make a box taking in most of the scene. The other rays share the first box.
+ */
+final class TileDependencies {
+
+    static final int BOX_COUNT = 4;
+
+    // minX, minY, minZ, maxX, maxY, maxZ of each box, those not swept yet inside out
+    private final double[] boxes = new double[BOX_COUNT * 6];
+    private boolean lit;
+
+    TileDependencies() {
+        reset();
+    }
+
+    /**
+     * @param boxes minX, minY, minZ, maxX, maxY, maxZ of each of the swept boxes
+     */
+    TileDependencies(double[] boxes, boolean lit) {
+        if (boxes.length != this.boxes.length) {
+            throw new IllegalArgumentException("Not the bounds of " + BOX_COUNT + " boxes.");
+        }
+
+        System.arraycopy(boxes, 0, this.boxes, 0, boxes.length);
+        this.lit = lit;
+    }
+
+    @Override
+    public String toString() {
+        return "TileDependencies{" +
+                "boxes=" + Arrays.toString(boxes) +
+                ", lit=" + lit +
+                '}';
+    }
+
+    /**
+     * Forgets all that has been recorded, for the next tile.
+     */
+    void reset() {
+        for (int b = 0; b < boxes.length; b += 6) {
+            Arrays.fill(boxes, b, (b + 3), Double.POSITIVE_INFINITY);
+            Arrays.fill(boxes, (b + 3), (b + 6), Double.NEGATIVE_INFINITY);
+        }
+        lit = false;
+    }
+
+    /**
+     * Records the path of the ray from its origin up to the distance.
+     */
+    void sweep(Ray ray, double distance) {
+        sweep(ray, distance, 0);
+    }
+
+    /**
+     * Records the path of the shadow ray towards the light from its origin up to the distance.
+     */
+    void sweepShadow(Ray ray, double distance, int light) {
+        sweep(ray, distance, (1 + (light % (BOX_COUNT - 1))));
+    }
+
+    void setLit() {
+        lit = true;
+    }
+
+    boolean isLit() {
+        return lit;
+    }
+
+    /**
+     * @return minX, minY, minZ, maxX, maxY, maxZ of each of the swept boxes
+     */
+    double[] getBoxes() {
+        return boxes.clone();
+    }
+
+    /**
+     * @return whether the pixels may have changed by the changes
+     */
+    boolean isAffectedBy(SceneManifest.Diff diff) {
+        if (lit && diff.isLightsChanged()) return true;
+
+        for (int b = 0; b < boxes.length; b += 6) {
+            if (diff.overlaps(boxes, b)) return true;
+        }
+        return false;
+    }
+
+    private void sweep(Ray ray, double distance, int box) {
+        double x0 = ray.getOriginX();
+        double y0 = ray.getOriginY();
+        double z0 = ray.getOriginZ();
+        double x1 = x0 + (ray.getDirectionX() * distance);
+        double y1 = y0 + (ray.getDirectionY() * distance);
+        double z1 = z0 + (ray.getDirectionZ() * distance);
+        add((box * 6), x0, y0, z0);
+        add((box * 6), x1, y1, z1);
+    }
+
+    // Compared by hand, as the paths never have NaNs for "Math.min" and "Math.max" to look for
+    private void add(int b, double x, double y, double z) {
+        if (x < boxes[b]) boxes[b] = x;
+        if (y < boxes[b + 1]) boxes[b + 1] = y;
+        if (z < boxes[b + 2]) boxes[b + 2] = z;
+        if (x > boxes[b + 3]) boxes[b + 3] = x;
+        if (y > boxes[b + 4]) boxes[b + 4] = y;
+        if (z > boxes[b + 5]) boxes[b + 5] = z;
+    }
+}
@@ -0,0 +1,62 @@
+package personal.william.raytracer;
+
+/**
+ * The order in which the tiles are handed out, the tiles are ranked by their column and row in the grid of tiles.
+ */
+public enum TileOrder {
+
+    /**
+     * Row by row, from the top-left corner.
+     */
+    SCANLINE {
+        @Override
+        double rank(int column, int row, int columns, int rows) {
+            return ((double) row * columns) + column;
+        }
+    },
+
+    /**
+     * Ring by ring, from the center outwards, so the middle of the image is done first.
+     */
+    SPIRAL {
+        @Override
+        double rank(int column, int row, int columns, int rows) {
+            double dx = column - ((columns - 1) / 2.0);
+            double dy = row - ((rows - 1) / 2.0);
+            double ring = Math.max(Math.abs(dx), Math.abs(dy));
+            // Walks around each ring clockwise, the angle in [0, 1) only orders the tiles within the ring
+            double angle = (Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI);
+            return Math.floor(ring) + Math.min(angle, Math.nextDown(1.0));
+        }
+    },
+
+    /**
+     * Along a Hilbert curve, so that the consecutive tiles are always next to each other.
+     */
+    HILBERT {
+        @Override
+        double rank(int column, int row, int columns, int rows) {
+            int n = Integer.highestOneBit(Math.max(1, Math.max(columns, rows) - 1)) << 1;
+            long d = 0;
+            int x = column;
+            int y = row;
+            for (int s = n / 2; s > 0; s /= 2) {
+                int rx = (x & s) > 0 ? 1 : 0;
+                int ry = (y & s) > 0 ? 1 : 0;
+                d += (long) s * s * ((3 * rx) ^ ry);
+                if (ry == 0) {
+                    if (rx == 1) {
+                        x = n - 1 - x;
+                        y = n - 1 - y;
+                    }
+                    int t = x;
+                    x = y;
+                    y = t;
+                }
+            }
+            return d;
+        }
+    };
+
+    abstract double rank(int column, int row, int columns, int rows);
+}
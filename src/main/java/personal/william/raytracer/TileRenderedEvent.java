@@ -0,0 +1,74 @@
+package personal.william.raytracer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A tile rendered by a camera with {@link RenderStatistics}, as recorded by the JDK Flight Recorder. Only ever loaded
+ * once the Flight Recorder is known to be there, so the events are passed around as plain objects.
+ */
+@Name("personal.william.raytracer.TileRendered")
+@Label("Tile Rendered")
+@Category("Ray Tracer")
+@Description("A tile rendered by a camera counting its render statistics")
+class TileRenderedEvent extends Event {
+
+    @Label("X")
+    int x;
+    @Label("Y")
+    int y;
+    @Label("Width")
+    int width;
+    @Label("Height")
+    int height;
+    @Label("Pass")
+    int pass;
+    @Label("Primary Rays")
+    long primaryRays;
+    @Label("Shadow Rays")
+    long shadowRays;
+    @Label("Reflection Rays")
+    long reflectionRays;
+    @Label("Refraction Rays")
+    long refractionRays;
+    @Label("Hits")
+    long hits;
+    @Label("Intersection Tests")
+    long intersectionTests;
+    @Label("Max Ray Depth")
+    int maxRayDepth;
+
+    /**
+     * @return the started event, or {@code null} if the Flight Recorder is not recording it
+     */
+    static Object beginIfEnabled() {
+        TileRenderedEvent event = new TileRenderedEvent();
+        if (! event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object tileEvent, Tile tile, int pass, RenderStatistics.Counters counters) {
+        TileRenderedEvent event = (TileRenderedEvent) tileEvent;
+        event.end();
+        if (! event.shouldCommit()) return;
+
+        event.x = tile.getX();
+        event.y = tile.getY();
+        event.width = tile.getWidth();
+        event.height = tile.getHeight();
+        event.pass = pass;
+        event.primaryRays = counters.primaryRays;
+        event.shadowRays = counters.shadowRays;
+        event.reflectionRays = counters.reflectionRays;
+        event.refractionRays = counters.refractionRays;
+        event.hits = counters.hits;
+        event.intersectionTests = counters.tests;
+        event.maxRayDepth = counters.maxRayDepth;
+        event.commit();
+    }
+}
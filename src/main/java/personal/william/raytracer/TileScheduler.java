@@ -0,0 +1,299 @@
+package personal.william.raytracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Splits the image into square tiles and renders them with a fixed number of workers on the executor.
+ * <p>
+ * The ordered tiles are dealt to the workers in contiguous ranges, so each worker keeps to its own part of the image.
+ * A worker which runs out of tiles steals the latter half of the remaining range of another one.
+ */
+public class TileScheduler {
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private final int tileSize;
+    private final TileOrder tileOrder;
+    private final Executor executor;
+    private final int parallelism;
+
+    public TileScheduler(int tileSize, TileOrder tileOrder, Executor executor, int parallelism) {
+        if (tileSize <= 0) throw new IllegalArgumentException("tileSize must be positive.");
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive.");
+
+        this.tileSize = tileSize;
+        this.tileOrder = Objects.requireNonNull(tileOrder, "tileOrder cannot be null.");
+        this.executor = Objects.requireNonNull(executor, "executor cannot be null.");
+        this.parallelism = parallelism;
+    }
+
+    public TileScheduler(int tileSize, TileOrder tileOrder, Executor executor) {
+        this(tileSize, tileOrder, executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The scheduler of {@link Camera#renderAsImage(int, int)}, which renders on the common fork-join pool.
+     */
+    public static TileScheduler ofCommonPool() {
+        return new TileScheduler(
+                DEFAULT_TILE_SIZE, TileOrder.HILBERT,
+                ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    @Override
+    public String toString() {
+        return "TileScheduler{" +
+                "tileSize=" + tileSize +
+                ", tileOrder=" + tileOrder +
+                ", executor=" + executor +
+                ", parallelism=" + parallelism +
+                '}';
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public TileOrder getTileOrder() {
+        return tileOrder;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public List<Tile> createTiles(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image cannot be empty.");
+
+        return createTiles(new Tile(0, 0, width, height));
+    }
+
+    /**
+     * Like {@link #createTiles(int, int)}, but covers only the region of the image, the tiles start at its corner.
+     */
+    public List<Tile> createTiles(Tile region) {
+        Objects.requireNonNull(region, "region cannot be null.");
+
+        return createTiles(region, tileSize, tileOrder);
+    }
+
+    static List<Tile> createTiles(Tile region, int tileSize, TileOrder tileOrder) {
+        int width = region.getWidth();
+        int height = region.getHeight();
+        int columns = ((width - 1) / tileSize) + 1;
+        int rows = ((height - 1) / tileSize) + 1;
+        List<Tile> tiles = new ArrayList<>(columns * rows);
+        List<Double> ranks = new ArrayList<>(columns * rows);
+        for (int row = 0; row < rows; ++row) {
+            for (int column = 0; column < columns; ++column) {
+                int x = column * tileSize;
+                int y = row * tileSize;
+                tiles.add(new Tile(
+                        (region.getX() + x), (region.getY() + y),
+                        Math.min(tileSize, (width - x)), Math.min(tileSize, (height - y))));
+                ranks.add(tileOrder.rank(column, row, columns, rows));
+            }
+        }
+
+        List<Integer> indices = new ArrayList<>(tiles.size());
+        for (int i = 0; i < tiles.size(); ++i) indices.add(i);
+        indices.sort(Comparator.comparing(ranks::get));
+
+        List<Tile> orderedTiles = new ArrayList<>(tiles.size());
+        for (int index : indices) orderedTiles.add(tiles.get(index));
+        return Collections.unmodifiableList(orderedTiles);
+    }
+
+    /**
+     * Renders the tiles and waits until all of them are done. Each worker gets its own renderer from the factory.
+     */
+    public void execute(List<Tile> tiles, Supplier<? extends TileRenderer> rendererFactory) {
+        CompletableFuture<Void> future = executeAsync(tiles, rendererFactory);
+        try {
+            ForkJoinPool.managedBlock(new FutureBlocker(future));
+            future.join();
+        } catch (InterruptedException ex) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (CompletionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Starts rendering the tiles without waiting. Each worker gets its own renderer from the factory.
+     * <p>
+     * The future completes once all the workers are done. Cancelling it stops the workers from taking more tiles, and
+     * so are they when any of them fails.
+     */
+    public CompletableFuture<Void> executeAsync(List<Tile> tiles, Supplier<? extends TileRenderer> rendererFactory) {
+        Objects.requireNonNull(tiles, "tiles cannot be null.");
+        Objects.requireNonNull(rendererFactory, "rendererFactory cannot be null.");
+        if (tiles.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        int workerCount = Math.min(parallelism, tiles.size());
+        AtomicLong[] ranges = new AtomicLong[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            int start = (int) (((long) tiles.size() * i) / workerCount);
+            int end = (int) (((long) tiles.size() * (i + 1)) / workerCount);
+            ranges[i] = new AtomicLong(range(start, end));
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        AtomicInteger runningCount = new AtomicInteger(workerCount);
+        RejectedExecutionException rejection = null;
+        int rejectedCount = 0;
+        for (int i = 0; i < workerCount; ++i) {
+            Worker worker = new Worker(i, tiles, ranges, rendererFactory, future, runningCount);
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException ex) {
+                rejection = ex;
+                ++rejectedCount;
+            }
+        }
+        if (rejectedCount == workerCount) {
+            future.completeExceptionally(rejection);
+        } else if (rejectedCount > 0 && runningCount.addAndGet(-rejectedCount) == 0) {
+            // The accepted workers have stolen the tiles of the rejected ones, and are all done already
+            future.complete(null);
+        }
+        return future;
+    }
+
+    private static long range(int start, int end) {
+        return (((long) start) << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    private static int rangeStart(long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int rangeEnd(long range) {
+        return (int) range;
+    }
+
+    public interface TileRenderer {
+
+        void render(Tile tile);
+    }
+
+    private static class Worker implements Runnable {
+
+        private final int index;
+        private final List<Tile> tiles;
+        private final AtomicLong[] ranges;
+        private final Supplier<? extends TileRenderer> rendererFactory;
+        private final CompletableFuture<Void> future;
+        private final AtomicInteger runningCount;
+
+        private Worker(
+                int index, List<Tile> tiles, AtomicLong[] ranges, Supplier<? extends TileRenderer> rendererFactory,
+                CompletableFuture<Void> future, AtomicInteger runningCount) {
+            this.index = index;
+            this.tiles = tiles;
+            this.ranges = ranges;
+            this.rendererFactory = rendererFactory;
+            this.future = future;
+            this.runningCount = runningCount;
+        }
+
+        @Override
+        public void run() {
+            try {
+                TileRenderer renderer = rendererFactory.get();
+                while (! future.isDone()) {
+                    int tile = takeOwnTile();
+                    if (tile < 0) {
+                        if (! stealTiles()) break;
+                        continue;
+                    }
+                    renderer.render(tiles.get(tile));
+                }
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (runningCount.decrementAndGet() == 0) future.complete(null);
+        }
+
+        private int takeOwnTile() {
+            AtomicLong ownRange = ranges[index];
+            while (true) {
+                long range = ownRange.get();
+                int start = rangeStart(range);
+                int end = rangeEnd(range);
+                if (start >= end) return -1;
+                if (ownRange.compareAndSet(range, range((start + 1), end))) return start;
+            }
+        }
+
+        private boolean stealTiles() {
+            for (int i = 1; i < ranges.length; ++i) {
+                AtomicLong victimRange = ranges[(index + i) % ranges.length];
+                while (true) {
+                    long range = victimRange.get();
+                    int start = rangeStart(range);
+                    int end = rangeEnd(range);
+                    int remaining = end - start;
+                    if (remaining <= 0) break;
+
+                    int mid = end - ((remaining + 1) / 2);
+                    if (victimRange.compareAndSet(range, range(start, mid))) {
+                        // The own range is empty, nobody else touches it until it is refilled here
+                        ranges[index].set(range(mid, end));
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class FutureBlocker implements ForkJoinPool.ManagedBlocker {
+
+        private final CompletableFuture<?> future;
+
+        private FutureBlocker(CompletableFuture<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            try {
+                future.get();
+            } catch (ExecutionException | CancellationException ex) {
+                // Reported by the caller
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return future.isDone();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package personal.william.raytracer;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * An object put in place by an affine transform, which may rotate, scale and shear it as well as move it. The rays are
+ * transformed into the space of the object instead, so the object, e.g. a {@link TriangleMesh} and its hierarchy, is
+ * shared by all of the places it is put at, each of which only takes a {@link Transform}.
+ *
+ * @param <P> the positioning of the object in its own space
+ */
+public class TransformedObject<P extends Positionable.Positioning> implements SceneObject<TransformedObject.Transform> {
+
+    /**
+     * A 3 by 4 matrix, of the linear part and the translation, along with its inverse.
+     */
+    public static class Transform implements Positionable.Positioning {
+
+        private static final Transform IDENTITY = new Transform(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0);
+
+        // Row by row
+        private final double[] matrix;
+        private final double[] inverse;
+
+        /**
+         * Maps {@code (x, y, z)} to {@code (m00 x + m01 y + m02 z + m03, m10 x + ..., m20 x + ...)}.
+         *
+         * @throws IllegalArgumentException if the linear part cannot be inverted
+         */
+        public Transform(
+                double m00, double m01, double m02, double m03,
+                double m10, double m11, double m12, double m13,
+                double m20, double m21, double m22, double m23) {
+            this.matrix = new double[]{m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23};
+            double c00 = (m11 * m22) - (m12 * m21);
+            double c01 = (m12 * m20) - (m10 * m22);
+            double c02 = (m10 * m21) - (m11 * m20);
+            double det = (m00 * c00) + (m01 * c01) + (m02 * c02);
+            if (det == 0 || Double.isNaN(det) || Double.isInfinite(det)) {
+                throw new IllegalArgumentException("The transform cannot be inverted.");
+            }
+
+            double i00 = c00 / det;
+            double i01 = ((m02 * m21) - (m01 * m22)) / det;
+            double i02 = ((m01 * m12) - (m02 * m11)) / det;
+            double i10 = c01 / det;
+            double i11 = ((m00 * m22) - (m02 * m20)) / det;
+            double i12 = ((m02 * m10) - (m00 * m12)) / det;
+            double i20 = c02 / det;
+            double i21 = ((m01 * m20) - (m00 * m21)) / det;
+            double i22 = ((m00 * m11) - (m01 * m10)) / det;
+            this.inverse = new double[]{
+                    i00, i01, i02, -((i00 * m03) + (i01 * m13) + (i02 * m23)),
+                    i10, i11, i12, -((i10 * m03) + (i11 * m13) + (i12 * m23)),
+                    i20, i21, i22, -((i20 * m03) + (i21 * m13) + (i22 * m23))};
+        }
+
+        /**
+         * Puts the origin of the object at the origin, and its x, y and z axes along the axes given, whose lengths
+         * scale the object.
+         */
+        public Transform(Vector3d origin, Vector3d axisX, Vector3d axisY, Vector3d axisZ) {
+            this(
+                    axisX.getX(), axisY.getX(), axisZ.getX(), origin.getX(),
+                    axisX.getY(), axisY.getY(), axisZ.getY(), origin.getY(),
+                    axisX.getZ(), axisY.getZ(), axisZ.getZ(), origin.getZ());
+        }
+
+        public static Transform identity() {
+            return IDENTITY;
+        }
+
+        public static Transform translation(double x, double y, double z) {
+            return new Transform(1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z);
+        }
+
+        public static Transform scaling(double x, double y, double z) {
+            return new Transform(x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0);
+        }
+
+        /**
+         * @param angle in radians, counterclockwise when looking from the tip of the axis
+         */
+        public static Transform rotation(UnitVector3d axis, double angle) {
+            double x = axis.getX();
+            double y = axis.getY();
+            double z = axis.getZ();
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            double t = 1 - cos;
+            return new Transform(
+                    ((t * x * x) + cos), ((t * x * y) - (sin * z)), ((t * x * z) + (sin * y)), 0,
+                    ((t * x * y) + (sin * z)), ((t * y * y) + cos), ((t * y * z) - (sin * x)), 0,
+                    ((t * x * z) - (sin * y)), ((t * y * z) + (sin * x)), ((t * z * z) + cos), 0);
+        }
+
+        /**
+         * @return the transform which applies this one and then the next one
+         */
+        public Transform then(Transform next) {
+            double[] a = next.matrix;
+            double[] b = matrix;
+            double[] m = new double[12];
+            for (int row = 0; row < 3; ++row) {
+                for (int column = 0; column < 4; ++column) {
+                    m[(row * 4) + column] = (a[row * 4] * b[column]) + (a[(row * 4) + 1] * b[4 + column])
+                            + (a[(row * 4) + 2] * b[8 + column]) + (column == 3 ? a[(row * 4) + 3] : 0);
+                }
+            }
+            return new Transform(m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7], m[8], m[9], m[10], m[11]);
+        }
+
+        @Override
+        public String toString() {
+            return "Transform{" +
+                    "row0={" + matrix[0] + ',' + matrix[1] + ',' + matrix[2] + ',' + matrix[3] + '}' +
+                    ", row1={" + matrix[4] + ',' + matrix[5] + ',' + matrix[6] + ',' + matrix[7] + '}' +
+                    ", row2={" + matrix[8] + ',' + matrix[9] + ',' + matrix[10] + ',' + matrix[11] + '}' +
+                    '}';
+        }
+
+        /**
+         * @return the entry of the 3 by 4 matrix
+         */
+        public double get(int row, int column) {
+            if (row < 0 || row >= 3 || column < 0 || column >= 4) {
+                throw new IndexOutOfBoundsException("No entry at " + row + ", " + column + ".");
+            }
+
+            return matrix[(row * 4) + column];
+        }
+
+        public Vector3d apply(Vector3d point) {
+            double x = point.getX();
+            double y = point.getY();
+            double z = point.getZ();
+            return Vector3d.of(
+                    (matrix[0] * x) + (matrix[1] * y) + (matrix[2] * z) + matrix[3],
+                    (matrix[4] * x) + (matrix[5] * y) + (matrix[6] * z) + matrix[7],
+                    (matrix[8] * x) + (matrix[9] * y) + (matrix[10] * z) + matrix[11]);
+        }
+    }
+
+    private final SceneObject<P> object;
+    private final P positioning;
+    // Computed once, as the scene names each unnamed object after it
+    private final String description;
+
+    private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * @param positioning where the object is in its own space, the same for all of the places it is put at
+     */
+    public TransformedObject(SceneObject<P> object, P positioning) {
+        Objects.requireNonNull(object, "object cannot be null.");
+        Objects.requireNonNull(positioning, "positioning cannot be null.");
+
+        this.object = object;
+        this.positioning = positioning;
+        this.description = "TransformedObject{" +
+                "object=" + object +
+                ", positioning=" + positioning +
+                '}';
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    public SceneObject<P> getObject() {
+        return object;
+    }
+
+    public P getPositioning() {
+        return positioning;
+    }
+
+    @Override
+    public Optional<SurfacePoint> cast(Transform transform, Vector3d orig, UnitVector3d dir) {
+        HitRecord hit = new HitRecord();
+        if (! intersect(transform, new Ray(orig, dir), hit)) return Optional.empty();
+
+        return Optional.of(hit.toSurfacePoint());
+    }
+
+    @Override
+    public boolean intersect(Transform transform, Ray ray, HitRecord hit) {
+        double[] m = transform.matrix;
+        double[] inv = transform.inverse;
+        double ox = ray.getOriginX();
+        double oy = ray.getOriginY();
+        double oz = ray.getOriginZ();
+        double dx = ray.getDirectionX();
+        double dy = ray.getDirectionY();
+        double dz = ray.getDirectionZ();
+        double localDirX = (inv[0] * dx) + (inv[1] * dy) + (inv[2] * dz);
+        double localDirY = (inv[4] * dx) + (inv[5] * dy) + (inv[6] * dz);
+        double localDirZ = (inv[8] * dx) + (inv[9] * dy) + (inv[10] * dz);
+        double localNorm = Math.sqrt((localDirX * localDirX) + (localDirY * localDirY) + (localDirZ * localDirZ));
+        Scratch scratch = scratches.get();
+        scratch.ray.set(
+                (inv[0] * ox) + (inv[1] * oy) + (inv[2] * oz) + inv[3],
+                (inv[4] * ox) + (inv[5] * oy) + (inv[6] * oz) + inv[7],
+                (inv[8] * ox) + (inv[9] * oy) + (inv[10] * oz) + inv[11],
+                (localDirX / localNorm), (localDirY / localNorm), (localDirZ / localNorm));
+        HitRecord localHit = scratch.hit;
+        if (! object.intersect(positioning, scratch.ray, localHit)) return false;
+
+        double px = localHit.getPointX();
+        double py = localHit.getPointY();
+        double pz = localHit.getPointZ();
+        double hitX = (m[0] * px) + (m[1] * py) + (m[2] * pz) + m[3];
+        double hitY = (m[4] * px) + (m[5] * py) + (m[6] * pz) + m[7];
+        double hitZ = (m[8] * px) + (m[9] * py) + (m[10] * pz) + m[11];
+        // The normals go by the transpose of the inverse
+        double nx = localHit.getNormalX();
+        double ny = localHit.getNormalY();
+        double nz = localHit.getNormalZ();
+        double normalX = (inv[0] * nx) + (inv[4] * ny) + (inv[8] * nz);
+        double normalY = (inv[1] * nx) + (inv[5] * ny) + (inv[9] * nz);
+        double normalZ = (inv[2] * nx) + (inv[6] * ny) + (inv[10] * nz);
+        double norm = Math.sqrt((normalX * normalX) + (normalY * normalY) + (normalZ * normalZ));
+        if (norm != 0) {
+            normalX /= norm;
+            normalY /= norm;
+            normalZ /= norm;
+        }
+        hit.set(
+                ray.distanceTo(hitX, hitY, hitZ), hitX, hitY, hitZ, normalX, normalY, normalZ,
+                localHit.getMaterial(), this);
+        return true;
+    }
+
+    /**
+     * @return the bounds of the corners of the bounds of the object transformed, nothing if the object has no bounds
+     */
+    @Override
+    public Optional<BoundingBox> getBounds(Transform transform) {
+        return object.getBounds(positioning).map(bounds -> {
+            Vector3d min = bounds.getMin();
+            Vector3d max = bounds.getMax();
+            double[] m = transform.matrix;
+            double[] transformed = new double[6];
+            for (int row = 0; row < 3; ++row) {
+                // Each term is the least and the most at either end of its axis, independently of the others
+                double low = m[(row * 4) + 3];
+                double high = low;
+                for (int axis = 0; axis < 3; ++axis) {
+                    double a = m[(row * 4) + axis] * (axis == 0 ? min.getX() : axis == 1 ? min.getY() : min.getZ());
+                    double b = m[(row * 4) + axis] * (axis == 0 ? max.getX() : axis == 1 ? max.getY() : max.getZ());
+                    low += Math.min(a, b);
+                    high += Math.max(a, b);
+                }
+                transformed[row] = low;
+                transformed[row + 3] = high;
+            }
+            return new BoundingBox(
+                    Vector3d.of(transformed[0], transformed[1], transformed[2]),
+                    Vector3d.of(transformed[3], transformed[4], transformed[5]));
+        });
+    }
+
+    /**
+     * The ray and the hit in the space of the object, one for each thread.
+     */
+    private static class Scratch {
+
+        private final Ray ray = new Ray();
+        private final HitRecord hit = new HitRecord();
+    }
+}
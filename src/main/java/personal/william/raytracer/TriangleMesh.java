@@ -0,0 +1,331 @@
+package personal.william.raytracer;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * An indexed triangle mesh of one material, whose vertices, normals and triangles are kept in flat primitive arrays,
+ * see {@link MeshFile} for loading one. The mesh has a hierarchy of its own over its triangles, so a ray takes about
+ * logarithmic time in the number of triangles to intersect it, and the scene only sees it as a single object.
+ * <p>
+ * The triangles face the side their vertices go counterclockwise around, unless the mesh has normals for each vertex,
+ * in which case the normals are interpolated across each triangle.
+ */
+public class TriangleMesh implements SceneObject<TriangleMesh.Positioning> {
+
+    public static class Positioning implements Positionable.Positioning {
+
+        private final Vector3d origin;
+
+        /**
+         * @param origin where the origin of the coordinates of the vertices is put
+         */
+        public Positioning(Vector3d origin) {
+            this.origin = origin;
+        }
+
+        public Positioning(double x, double y, double z) {
+            this(Vector3d.of(x, y, z));
+        }
+
+        @Override
+        public String toString() {
+            return "MeshOrigin=" + origin;
+        }
+
+        public Vector3d getOrigin() {
+            return origin;
+        }
+    }
+
+    // The triangles are tested in a loop, each a lot cheaper than a node of the hierarchy
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final double TRAVERSAL_COST = 4;
+
+    private final Material material;
+    // x, y, z for each vertex
+    private final float[] vertices;
+    // x, y, z for each vertex, or null for the faces' own normals
+    private final float[] normals;
+    // The 3 vertices of each triangle, in the order of the hierarchy
+    private final int[] triangles;
+    private final BoundingVolumeHierarchy<Void> hierarchy;
+    // minX, minY, minZ, maxX, maxY, maxZ of the triangles
+    private final double[] bounds = new double[6];
+    // Hashed the first time a render cache needs it, the arrays never change
+    private volatile byte[] contentHash;
+
+    private final ThreadLocal<TriangleSearch> searches = ThreadLocal.withInitial(TriangleSearch::new);
+
+    /**
+     * The vertices and the normals are kept as they are, not copied, so they should not be changed afterwards.
+     *
+     * @param vertices x, y, z for each vertex
+     * @param normals x, y, z for each vertex, or {@code null} for the triangles to be flat
+     * @param triangles the indices of the 3 vertices of each triangle
+     */
+    public TriangleMesh(Material material, float[] vertices, float[] normals, int[] triangles) {
+        Objects.requireNonNull(material, "material cannot be null.");
+        Objects.requireNonNull(vertices, "vertices cannot be null.");
+        Objects.requireNonNull(triangles, "triangles cannot be null.");
+        if ((vertices.length % 3) != 0) throw new IllegalArgumentException("vertices must be 3 per vertex.");
+        if (normals != null && normals.length != vertices.length) {
+            throw new IllegalArgumentException("normals must be 3 per vertex.");
+        }
+        if (triangles.length == 0 || (triangles.length % 3) != 0) {
+            throw new IllegalArgumentException("triangles must be 3 per triangle, and at least 1 triangle.");
+        }
+        int vertexCount = vertices.length / 3;
+        for (int index : triangles) {
+            if (index < 0 || index >= vertexCount) {
+                throw new IllegalArgumentException("There is no vertex " + index + " of " + vertexCount + ".");
+            }
+        }
+
+        this.material = material;
+        this.vertices = vertices;
+        this.normals = normals;
+
+        int triangleCount = triangles.length / 3;
+        double[] triangleBounds = new double[triangleCount * 6];
+        for (int axis = 0; axis < 3; ++axis) {
+            bounds[axis] = Double.POSITIVE_INFINITY;
+            bounds[axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < triangleCount; ++i) {
+            for (int axis = 0; axis < 3; ++axis) {
+                double a = vertices[(triangles[i * 3] * 3) + axis];
+                double b = vertices[(triangles[(i * 3) + 1] * 3) + axis];
+                double c = vertices[(triangles[(i * 3) + 2] * 3) + axis];
+                double min = Math.min(a, Math.min(b, c));
+                double max = Math.max(a, Math.max(b, c));
+                triangleBounds[(i * 6) + axis] = min;
+                triangleBounds[(i * 6) + axis + 3] = max;
+                bounds[axis] = Math.min(bounds[axis], min);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], max);
+            }
+        }
+        int[] order = new int[triangleCount];
+        this.hierarchy = BoundingVolumeHierarchy.buildPacked(triangleBounds, order, MAX_LEAF_SIZE, TRAVERSAL_COST);
+        this.triangles = new int[triangles.length];
+        for (int i = 0; i < triangleCount; ++i) {
+            System.arraycopy(triangles, (order[i] * 3), this.triangles, (i * 3), 3);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TriangleMesh{" +
+                "material=" + material +
+                ", vertexCount=" + getVertexCount() +
+                ", triangleCount=" + getTriangleCount() +
+                ", memorySize=" + getMemorySize() +
+                '}';
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return triangles.length / 3;
+    }
+
+    public boolean hasNormals() {
+        return normals != null;
+    }
+
+    /**
+     * @return x, y, z for each vertex, not to be changed
+     */
+    float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return x, y, z for each vertex, not to be changed, or {@code null} if the triangles are flat
+     */
+    float[] getNormals() {
+        return normals;
+    }
+
+    /**
+     * @return the indices of the 3 vertices of each triangle, not to be changed
+     */
+    int[] getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * @return the bytes the vertices, the normals, the triangles and the hierarchy over them take up
+     */
+    public long getMemorySize() {
+        return ((long) vertices.length * 4) + (normals != null ? ((long) normals.length * 4) : 0)
+                + ((long) triangles.length * 4) + hierarchy.getMemorySize();
+    }
+
+    public double getMemorySizePerTriangle() {
+        return getMemorySize() / (double) getTriangleCount();
+    }
+
+    /**
+     * @return the SHA-256 of the vertices, the normals and the triangles, not of the material
+     */
+    byte[] getContentHash() {
+        byte[] hash = contentHash;
+        if (hash == null) {
+            ContentDigest digest = new ContentDigest().putFloats(vertices);
+            if (normals != null) {
+                digest.putFloats(normals);
+            } else {
+                digest.putInt(-1);
+            }
+            hash = digest.putInts(triangles).finish();
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public Optional<SurfacePoint> cast(Positioning positioning, Vector3d orig, UnitVector3d dir) {
+        HitRecord hit = new HitRecord();
+        if (! intersect(positioning, new Ray(orig, dir), hit)) return Optional.empty();
+
+        return Optional.of(hit.toSurfacePoint());
+    }
+
+    @Override
+    public boolean intersect(Positioning positioning, Ray ray, HitRecord hit) {
+        Vector3d origin = positioning.getOrigin();
+        TriangleSearch search = searches.get();
+        // Only moved, so the distances are the same in the coordinates of the vertices
+        search.ray.set(
+                (ray.getOriginX() - origin.getX()), (ray.getOriginY() - origin.getY()),
+                (ray.getOriginZ() - origin.getZ()),
+                ray.getDirectionX(), ray.getDirectionY(), ray.getDirectionZ());
+        search.closestDist = Double.POSITIVE_INFINITY;
+        hierarchy.traverseClosest(search.ray, Double.POSITIVE_INFINITY, search, search.traversalStack);
+        if (search.closestDist == Double.POSITIVE_INFINITY) return false;
+
+        double hitDist = search.closestDist;
+        double hitX = ray.getOriginX() + (ray.getDirectionX() * hitDist);
+        double hitY = ray.getOriginY() + (ray.getDirectionY() * hitDist);
+        double hitZ = ray.getOriginZ() + (ray.getDirectionZ() * hitDist);
+        int a = triangles[search.closestTriangle * 3] * 3;
+        int b = triangles[(search.closestTriangle * 3) + 1] * 3;
+        int c = triangles[(search.closestTriangle * 3) + 2] * 3;
+        double normalX;
+        double normalY;
+        double normalZ;
+        if (normals != null) {
+            double u = search.closestU;
+            double v = search.closestV;
+            double w = 1 - u - v;
+            normalX = (w * normals[a]) + (u * normals[b]) + (v * normals[c]);
+            normalY = (w * normals[a + 1]) + (u * normals[b + 1]) + (v * normals[c + 1]);
+            normalZ = (w * normals[a + 2]) + (u * normals[b + 2]) + (v * normals[c + 2]);
+        } else {
+            double e1X = vertices[b] - vertices[a];
+            double e1Y = vertices[b + 1] - vertices[a + 1];
+            double e1Z = vertices[b + 2] - vertices[a + 2];
+            double e2X = vertices[c] - vertices[a];
+            double e2Y = vertices[c + 1] - vertices[a + 1];
+            double e2Z = vertices[c + 2] - vertices[a + 2];
+            normalX = (e1Y * e2Z) - (e1Z * e2Y);
+            normalY = (e1Z * e2X) - (e1X * e2Z);
+            normalZ = (e1X * e2Y) - (e1Y * e2X);
+        }
+        double norm = Math.sqrt((normalX * normalX) + (normalY * normalY) + (normalZ * normalZ));
+        if (norm != 0) {
+            normalX /= norm;
+            normalY /= norm;
+            normalZ /= norm;
+        }
+        hit.set(ray.distanceTo(hitX, hitY, hitZ), hitX, hitY, hitZ, normalX, normalY, normalZ, material, this);
+        return true;
+    }
+
+    @Override
+    public Optional<BoundingBox> getBounds(Positioning positioning) {
+        Vector3d origin = positioning.getOrigin();
+        return Optional.of(
+                new BoundingBox(
+                        Vector3d.of(origin.getX() + bounds[0], origin.getY() + bounds[1], origin.getZ() + bounds[2]),
+                        Vector3d.of(origin.getX() + bounds[3], origin.getY() + bounds[4], origin.getZ() + bounds[5])));
+    }
+
+    /**
+     * The closest hit on the triangles of the leaves a ray goes through, one for each thread.
+     */
+    private class TriangleSearch implements BoundingVolumeHierarchy.RangeIntersector {
+
+        private final Ray ray = new Ray();
+        private final BoundingVolumeHierarchy.TraversalStack traversalStack =
+                new BoundingVolumeHierarchy.TraversalStack();
+
+        private double closestDist;
+        private int closestTriangle;
+        // The barycentric coordinates of the closest hit, of the second and the third vertices
+        private double closestU;
+        private double closestV;
+
+        // Moller-Trumbore, both sides of the triangles are hit
+        @Override
+        public double intersect(int start, int end) {
+            double originX = ray.getOriginX();
+            double originY = ray.getOriginY();
+            double originZ = ray.getOriginZ();
+            double dirX = ray.getDirectionX();
+            double dirY = ray.getDirectionY();
+            double dirZ = ray.getDirectionZ();
+            double shortestRangeDist = Double.POSITIVE_INFINITY;
+            for (int i = start; i < end; ++i) {
+                int a = triangles[i * 3] * 3;
+                int b = triangles[(i * 3) + 1] * 3;
+                int c = triangles[(i * 3) + 2] * 3;
+                double aX = vertices[a];
+                double aY = vertices[a + 1];
+                double aZ = vertices[a + 2];
+                double e1X = vertices[b] - aX;
+                double e1Y = vertices[b + 1] - aY;
+                double e1Z = vertices[b + 2] - aZ;
+                double e2X = vertices[c] - aX;
+                double e2Y = vertices[c + 1] - aY;
+                double e2Z = vertices[c + 2] - aZ;
+
+                double pX = (dirY * e2Z) - (dirZ * e2Y);
+                double pY = (dirZ * e2X) - (dirX * e2Z);
+                double pZ = (dirX * e2Y) - (dirY * e2X);
+                double det = (e1X * pX) + (e1Y * pY) + (e1Z * pZ);
+                if (det == 0) continue;
+
+                double inverseDet = 1 / det;
+                double sX = originX - aX;
+                double sY = originY - aY;
+                double sZ = originZ - aZ;
+                double u = ((sX * pX) + (sY * pY) + (sZ * pZ)) * inverseDet;
+                if (u < 0 || u > 1) continue;
+
+                double qX = (sY * e1Z) - (sZ * e1Y);
+                double qY = (sZ * e1X) - (sX * e1Z);
+                double qZ = (sX * e1Y) - (sY * e1X);
+                double v = ((dirX * qX) + (dirY * qY) + (dirZ * qZ)) * inverseDet;
+                if (v < 0 || (u + v) > 1) continue;
+
+                double hitDist = ((e2X * qX) + (e2Y * qY) + (e2Z * qZ)) * inverseDet;
+                if (hitDist < 0 || hitDist >= closestDist) continue;
+
+                closestDist = hitDist;
+                closestTriangle = i;
+                closestU = u;
+                closestV = v;
+                shortestRangeDist = hitDist;
+            }
+            return shortestRangeDist;
+        }
+    }
+}
@@ -78,6 +78,11 @@ public class UnitVector3d extends Vector3d {
         return normalize(vector.getX(), vector.getY(), vector.getZ());
     }
 
+    // Trusts the components to be already normalized, e.g. the ones taken from another unit vector
+    static UnitVector3d ofNormalized(double x, double y, double z) {
+        return (x == 0 && y == 0 && z == 0) ? ZERO : new OneUnitVector(x, y, z);
+    }
+
     @Override
     public UnitVector3d normalize() {
         return this;
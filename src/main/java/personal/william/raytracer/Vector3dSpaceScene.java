@@ -6,6 +6,11 @@ public interface Vector3dSpaceScene {
 
     Camera setupCamera(Vector3d position, UnitVector3d faceDirection, UnitVector3d upDirection, double fieldOfView);
 
+    /**
+     * Freezes the scene as it is now, see {@link SceneSnapshot}.
+     */
+    SceneSnapshot compile();
+
     void setBackgroundColor(Color color);
 
     void setRefractiveIndex(float index);
@@ -15,4 +20,18 @@ public interface Vector3dSpaceScene {
     <P extends Positionable.Positioning> VectorSpaceObjectIdentity putObject(SceneObject<P> object, P positioning);
     <P extends Positionable.Positioning> VectorSpaceObjectIdentity putObject(
             SceneObject<P> object, P positioning, String name);
+
+    /**
+     * Replaces the object of the identity, which keeps its name. Moving or changing a few objects between frames costs
+     * far less than putting them again, as long as their kinds stay the same.
+     *
+     * @throws IllegalArgumentException if there is no object of the identity in the scene
+     */
+    <P extends Positionable.Positioning> void updateObject(
+            VectorSpaceObjectIdentity identity, SceneObject<P> object, P positioning);
+
+    /**
+     * @return whether there was an object of the identity in the scene
+     */
+    boolean removeObject(VectorSpaceObjectIdentity identity);
 }